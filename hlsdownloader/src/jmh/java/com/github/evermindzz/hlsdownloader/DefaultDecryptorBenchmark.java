@@ -0,0 +1,78 @@
+package com.github.evermindzz.hlsdownloader;
+
+import com.github.evermindzz.hlsdownloader.parser.HlsParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AES-128 decryption of a segment payload through {@link HlsMediaProcessor.DefaultDecryptor},
+ * including draining the decrypted stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DefaultDecryptorBenchmark {
+    private static final String IV = "0x000102030405060708090a0b0c0d0e0f";
+
+    @Param({"65536", "1048576", "8388608"})
+    public int payloadSize;
+
+    private final HlsMediaProcessor.Decryptor decryptor = new HlsMediaProcessor.DefaultDecryptor();
+    private final byte[] buffer = new byte[64 * 1024];
+    private byte[] key;
+    private byte[] encrypted;
+    private HlsParser.EncryptionInfo encryptionInfo;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        Random random = new Random(42);
+        key = new byte[16];
+        random.nextBytes(key);
+        byte[] payload = new byte[payloadSize];
+        random.nextBytes(payload);
+
+        byte[] iv = new byte[16];
+        for (int i = 0; i < iv.length; i++) {
+            iv[i] = (byte) i;
+        }
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        encrypted = cipher.doFinal(payload);
+        encryptionInfo = new HlsParser.EncryptionInfo("AES-128", URI.create("http://example.com/key.key"), IV);
+    }
+
+    @Benchmark
+    public long decrypt() throws IOException, GeneralSecurityException {
+        long total = 0;
+        try (InputStream in = decryptor.decrypt(new ByteArrayInputStream(encrypted), key, encryptionInfo, 0)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.evermindzz.hlsdownloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures combining segment files into the output file with the default combiner.
+ * <p>
+ * The combiner deletes the segment files, so they are recreated before every invocation
+ * and each invocation is measured on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DefaultSegmentCombinerBenchmark {
+    @Param({"1000", "5000", "20000"})
+    public int segments;
+
+    @Param({"4096"})
+    public int segmentSize;
+
+    private final HlsMediaProcessor.SegmentCombiner combiner = new HlsMediaProcessor.DefaultSegmentCombiner();
+    private Path workDir;
+    private List<File> segmentFiles;
+    private String outputFile;
+
+    @Setup(Level.Trial)
+    public void createWorkDir() throws IOException {
+        workDir = Files.createTempDirectory("hls_combiner_benchmark");
+        outputFile = workDir.resolve("output.ts").toString();
+    }
+
+    @Setup(Level.Invocation)
+    public void createSegments() throws IOException {
+        Files.deleteIfExists(Paths.get(outputFile));
+        byte[] data = new byte[segmentSize];
+        segmentFiles = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            Path segment = workDir.resolve("segment_" + i + ".ts");
+            Files.write(segment, data);
+            segmentFiles.add(segment.toFile());
+        }
+    }
+
+    @Benchmark
+    public void combine() throws IOException {
+        combiner.combineSegments(segmentFiles, workDir.toString(), outputFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorkDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.evermindzz.hlsdownloader;
+
+import com.github.evermindzz.hlsdownloader.common.Fetcher;
+import com.github.evermindzz.hlsdownloader.common.HttpFetcher;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures fetched segments per second against a local HTTP server, with {@code concurrency}
+ * requests in flight. {@code default} and {@code http} issue blocking requests from a thread
+ * per request, {@code httpAsync} uses {@link HttpFetcher#fetchContentAsync(URI)}.
+ * <p>
+ * The local server only speaks HTTP/1.1, so this compares the connection reuse and the
+ * threading of the fetchers, not HTTP/2 multiplexing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpFetcherBenchmark {
+    @Param({"1", "8", "64"})
+    public int concurrency;
+
+    @Param({"default", "http", "httpAsync"})
+    public String fetcherType;
+
+    @Param({"65536"})
+    public int segmentSize;
+
+    private HttpServer server;
+    private URI segmentUri;
+    private Fetcher fetcher;
+    private ExecutorService callers;
+
+    /**
+     * Reports the completed requests next to the batches of the benchmark itself.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Requests {
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] segment = new byte[segmentSize];
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/segment.ts", exchange -> {
+            exchange.sendResponseHeaders(200, segment.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(segment);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        segmentUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/segment.ts");
+
+        fetcher = "default".equals(fetcherType) ? new HlsMediaProcessor.DefaultFetcher() : new HttpFetcher();
+        callers = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @TearDown
+    public void tearDown() {
+        callers.shutdownNow();
+        if (fetcher instanceof HttpFetcher) {
+            ((HttpFetcher) fetcher).close();
+        }
+        server.stop(0);
+    }
+
+    @Benchmark
+    public long fetchBatch(Requests requests) throws Exception {
+        long total = 0;
+        if ("httpAsync".equals(fetcherType)) {
+            List<CompletableFuture<InputStream>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(((HttpFetcher) fetcher).fetchContentAsync(segmentUri));
+            }
+            for (CompletableFuture<InputStream> future : futures) {
+                total += drain(future.get());
+            }
+        } else {
+            List<Future<Long>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(callers.submit(() -> drain(fetcher.fetchContent(segmentUri))));
+            }
+            for (Future<Long> future : futures) {
+                total += future.get();
+            }
+        }
+        requests.requests += concurrency;
+        return total;
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+}
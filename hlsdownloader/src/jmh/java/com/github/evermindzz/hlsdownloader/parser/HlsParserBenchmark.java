@@ -0,0 +1,89 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of synthetic media playlists of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HlsParserBenchmark {
+    private static final URI PLAYLIST_URI = URI.create("http://example.com/vod/media.m3u8");
+    private static final int KEY_ROTATION_INTERVAL = 10;
+    private static final int BYTE_RANGE_LENGTH = 188 * 1000;
+
+    @Param({"10", "1000", "100000", "500000"})
+    public int segments;
+
+    @Param({"false", "true"})
+    public boolean keyRotation;
+
+    @Param({"false", "true"})
+    public boolean byteRanges;
+
+    private byte[] playlist;
+    private HlsParser parser;
+
+    @Setup
+    public void setUp() {
+        playlist = createPlaylist(segments, keyRotation, byteRanges).getBytes(StandardCharsets.UTF_8);
+        parser = new HlsParser(variants -> variants.get(0), uri -> {
+            throw new IOException("Benchmark parses from memory only: " + uri);
+        }, true);
+    }
+
+    @Benchmark
+    public HlsParser.MediaPlaylist parse() throws IOException {
+        return parser.parse(PLAYLIST_URI, new ByteArrayInputStream(playlist));
+    }
+
+    static String createPlaylist(int segments, boolean keyRotation, boolean byteRanges) {
+        StringBuilder sb = new StringBuilder(segments * 64);
+        sb.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:").append(byteRanges ? 4 : 3).append('\n')
+                .append("#EXT-X-TARGETDURATION:10\n")
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        for (int i = 0; i < segments; i++) {
+            if (keyRotation && i % KEY_ROTATION_INTERVAL == 0) {
+                sb.append("#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys.example.com/key")
+                        .append(i / KEY_ROTATION_INTERVAL)
+                        .append(".key\",IV=0x")
+                        .append(String.format("%032x", i))
+                        .append('\n');
+            }
+            sb.append("#EXTINF:9.009,\n");
+            if (byteRanges) {
+                sb.append("#EXT-X-BYTERANGE:").append(BYTE_RANGE_LENGTH);
+                if (i == 0) {
+                    sb.append("@0");
+                }
+                sb.append('\n').append("media.ts\n");
+            } else {
+                sb.append("segment").append(i).append(".ts\n");
+            }
+        }
+        sb.append("#EXT-X-ENDLIST\n");
+        return sb.toString();
+    }
+}
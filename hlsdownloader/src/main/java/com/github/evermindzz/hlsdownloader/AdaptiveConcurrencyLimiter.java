@@ -0,0 +1,212 @@
+package com.github.evermindzz.hlsdownloader;
+
+/**
+ * Adapts the number of segment downloads in flight with additive increase / multiplicative
+ * decrease (AIMD).
+ * <p>
+ * Used by {@link HlsMediaProcessor#setAdaptiveConcurrency(AdaptiveConcurrencyLimiter)}. Every
+ * finished segment is a sample of its time per byte, the inverse of its throughput. The
+ * lowest time per byte seen so far is the baseline of an unloaded origin:
+ * <ul>
+ *     <li>A sample within {@link #setLatencyTolerance(double) latencyTolerance} times the
+ *     baseline, finished while at least half of the limit was in use, raises the limit by
+ *     one per limit samples, i.e. by one per round of downloads.</li>
+ *     <li>A slower sample means the requests queue up at the origin or on the link: the limit
+ *     is multiplied by the {@link #setBackoffRatio(double) backoffRatio}.</li>
+ *     <li>Failed requests (timeouts, dropped connections, throttling) decrease the limit the
+ *     same way.</li>
+ * </ul>
+ * After a decrease, further decreases wait until the requests of the old window finished, so a
+ * burst of failures halves the limit once. The limit stays between 1 and the maximum set by
+ * {@link #start(int)}, which is {@code numThreads} of the HlsMediaProcessor.
+ * <p>
+ * The class is thread-safe.
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 2;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    /** How fast the baseline follows slower samples, so it adapts to a changed path. */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    /**
+     * Callback for changes of the limit.
+     */
+    public interface LimitListener {
+        /**
+         * @param limit the new number of downloads allowed in flight.
+         */
+        void onLimitChanged(int limit);
+    }
+
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private LimitListener listener = limit -> {};
+
+    // guarded by this
+    private int maxLimit = Integer.MAX_VALUE;
+    private int limit = DEFAULT_INITIAL_LIMIT;
+    private int inFlight;
+    private double increaseCredit;
+    private double baselineNanosPerByte; // 0 == no sample yet
+    private int completionsToIgnoreDecrease;
+
+    /**
+     * @param initialLimit the limit when a download starts. Default is {@link #DEFAULT_INITIAL_LIMIT}.
+     */
+    public void setInitialLimit(int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit must be at least 1: " + initialLimit);
+        }
+        this.initialLimit = initialLimit;
+    }
+
+    /**
+     * @param backoffRatio the factor the limit is multiplied with on overload, in (0, 1).
+     *                     Default is {@link #DEFAULT_BACKOFF_RATIO}.
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1): " + backoffRatio);
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @param latencyTolerance how many times slower than the baseline a segment may be before
+     *                         the limit is decreased, greater than 1. Default is
+     *                         {@link #DEFAULT_LATENCY_TOLERANCE}.
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("latencyTolerance must be > 1: " + latencyTolerance);
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * @param listener called after every change of the limit, also with the initial limit when
+     *                 a download starts.
+     */
+    public void setLimitListener(LimitListener listener) {
+        this.listener = listener != null ? listener : limit -> {};
+    }
+
+    /**
+     * @return the number of downloads currently allowed in flight.
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Resets the limit for a new download. The baseline is kept, the origin is likely the same.
+     *
+     * @param maxLimit the hard upper bound of the limit.
+     */
+    public void start(int maxLimit) {
+        int newLimit;
+        synchronized (this) {
+            this.maxLimit = Math.max(1, maxLimit);
+            this.limit = Math.min(initialLimit, this.maxLimit);
+            this.inFlight = 0;
+            this.increaseCredit = 0;
+            this.completionsToIgnoreDecrease = 0;
+            newLimit = limit;
+            notifyAll();
+        }
+        listener.onLimitChanged(newLimit);
+    }
+
+    /**
+     * Waits until one more download may start. Every call has to be followed by
+     * {@link #release()}.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Ends a download started with {@link #acquire()}.
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Adds a finished download.
+     *
+     * @param bytes        the number of downloaded bytes.
+     * @param elapsedNanos the time the download took.
+     */
+    public void onSuccess(long bytes, long elapsedNanos) {
+        if (bytes <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        double nanosPerByte = (double) elapsedNanos / bytes;
+        int newLimit;
+        synchronized (this) {
+            if (completionsToIgnoreDecrease > 0) {
+                completionsToIgnoreDecrease--;
+            }
+            if (baselineNanosPerByte == 0 || nanosPerByte < baselineNanosPerByte) {
+                baselineNanosPerByte = nanosPerByte;
+            } else {
+                baselineNanosPerByte += (nanosPerByte - baselineNanosPerByte) * BASELINE_DRIFT;
+            }
+            if (nanosPerByte > baselineNanosPerByte * latencyTolerance) {
+                newLimit = decrease();
+            } else if (inFlight * 2 >= limit && limit < maxLimit) {
+                // only grow when the limit is in use, otherwise it isn't what holds us back
+                increaseCredit += 1.0 / limit;
+                if (increaseCredit < 1) {
+                    return;
+                }
+                increaseCredit = 0;
+                limit++;
+                newLimit = limit;
+                notifyAll();
+            } else {
+                return;
+            }
+        }
+        if (newLimit > 0) {
+            listener.onLimitChanged(newLimit);
+        }
+    }
+
+    /**
+     * Adds a failed request, e.g. a timeout, a dropped connection or a throttling response.
+     */
+    public void onDropped() {
+        int newLimit;
+        synchronized (this) {
+            newLimit = decrease();
+        }
+        if (newLimit > 0) {
+            listener.onLimitChanged(newLimit);
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     *
+     * @return the new limit or 0 if it did not change.
+     */
+    private int decrease() {
+        if (completionsToIgnoreDecrease > 0 || limit == 1) {
+            return 0;
+        }
+        limit = Math.max(1, (int) (limit * backoffRatio));
+        increaseCredit = 0;
+        completionsToIgnoreDecrease = inFlight;
+        return limit;
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.evermindzz.hlsdownloader;
+
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.VariantStream;
+
+import java.util.List;
+
+/**
+ * Decides which variant stream to download next based on the measured throughput.
+ * <p>
+ * Used by {@link HlsMediaProcessor#downloadAdaptive(java.net.URI, AdaptiveVariantSelector)}
+ * before every segment. The selector picks the variant with the highest BANDWIDTH that
+ * <ul>
+ *     <li>does not exceed the bitrate ceiling, see {@link #setMaxBitrate(long)}, and</li>
+ *     <li>can still be downloaded in time, see {@link #setDeadline(double)}: the remaining
+ *     content at the variant's bitrate has to fit into the remaining time at the measured
+ *     throughput.</li>
+ * </ul>
+ * With a deadline but without a measurement yet, and if no variant meets the deadline, the
+ * lowest variant is used.
+ */
+public class AdaptiveVariantSelector {
+    /** Share of the measured throughput that is planned with. */
+    public static final double DEFAULT_SAFETY_FACTOR = 0.8;
+
+    private double deadlineFactor; // 0 == no deadline
+    private long maxBitrate;       // 0 == no ceiling
+    private double safetyFactor = DEFAULT_SAFETY_FACTOR;
+
+    /**
+     * Finish the download within a multiple of the content duration.
+     *
+     * @param factorOfContentDuration e.g. 0.5 to download a 60 minute video within 30 minutes.
+     *                                0 disables the deadline, which is the default.
+     */
+    public void setDeadline(double factorOfContentDuration) {
+        this.deadlineFactor = Math.max(0, factorOfContentDuration);
+    }
+
+    /**
+     * @param bitsPerSecond the highest BANDWIDTH to download. 0 disables the ceiling, which is
+     *                      the default.
+     */
+    public void setMaxBitrate(long bitsPerSecond) {
+        this.maxBitrate = Math.max(0, bitsPerSecond);
+    }
+
+    /**
+     * @param safetyFactor share of the measured throughput that is planned with, so short drops
+     *                     of the throughput don't miss the deadline. Default is
+     *                     {@link #DEFAULT_SAFETY_FACTOR}.
+     */
+    public void setSafetyFactor(double safetyFactor) {
+        if (safetyFactor <= 0 || safetyFactor > 1) {
+            throw new IllegalArgumentException("safetyFactor must be in (0, 1]: " + safetyFactor);
+        }
+        this.safetyFactor = safetyFactor;
+    }
+
+    public double getDeadlineFactor() { return deadlineFactor; }
+    public long getMaxBitrate() { return maxBitrate; }
+
+    /**
+     * @param variants                the variants, sorted by ascending BANDWIDTH.
+     * @param throughputBitsPerSecond the estimated throughput of the download, 0 if unknown.
+     * @param contentSeconds          the duration of the whole content.
+     * @param remainingContentSeconds the duration of the content not started yet.
+     * @param elapsedSeconds          the time the download is running.
+     * @return the variant to download the next segment from.
+     */
+    public VariantStream select(List<VariantStream> variants, double throughputBitsPerSecond,
+                                double contentSeconds, double remainingContentSeconds, double elapsedSeconds) {
+        if (variants.isEmpty()) {
+            throw new IllegalArgumentException("No variants to select from");
+        }
+        VariantStream lowest = variants.get(0);
+        double allowedBitrate = maxBitrate > 0 ? maxBitrate : Double.MAX_VALUE;
+        if (deadlineFactor > 0) {
+            if (throughputBitsPerSecond <= 0) {
+                return lowest;
+            }
+            double remainingSeconds = deadlineFactor * contentSeconds - elapsedSeconds;
+            if (remainingSeconds <= 0) {
+                return lowest;
+            }
+            if (remainingContentSeconds > 0) {
+                double affordable = throughputBitsPerSecond * safetyFactor * remainingSeconds / remainingContentSeconds;
+                allowedBitrate = Math.min(allowedBitrate, affordable);
+            }
+        }
+        VariantStream selected = lowest;
+        for (VariantStream variant : variants) {
+            if (variant.getBandwidth() <= allowedBitrate) {
+                selected = variant;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.evermindzz.hlsdownloader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that runs the download tasks of {@link HlsMediaProcessor}.
+ * <p>
+ * This is the Java 8 implementation, it always uses a fixed pool of platform threads. The
+ * multi-release JAR contains a Java 21 version in {@code META-INF/versions/21} that runs
+ * every task on its own virtual thread if asked for.
+ */
+final class DownloadExecutors {
+    static final String THREAD_NAME_PREFIX = "DownloaderNo-";
+
+    private DownloadExecutors() {
+    }
+
+    /**
+     * @return true if {@link #newDownloadExecutor(int, boolean)} can create virtual threads.
+     */
+    static boolean isVirtualThreadsSupported() {
+        return false;
+    }
+
+    /**
+     * @param maxConcurrent  the maximum number of tasks running at the same time.
+     * @param virtualThreads true to prefer virtual threads, ignored if they are not supported.
+     * @return the executor. The caller has to shut it down.
+     */
+    static ExecutorService newDownloadExecutor(int maxConcurrent, boolean virtualThreads) {
+        AtomicInteger threadId = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxConcurrent, r -> {
+            Thread t = new Thread(r);
+            t.setName(THREAD_NAME_PREFIX + threadId.getAndIncrement());
+            t.setUncaughtExceptionHandler(DownloadExecutors::logUncaughtException);
+            return t;
+        });
+    }
+
+    static void logUncaughtException(Thread thread, Throwable ex) {
+        System.err.println("Thread " + thread.getName() + " terminated with exception: " + ex.getMessage());
+        ex.printStackTrace();
+    }
+}
@@ -7,6 +7,7 @@ import com.github.evermindzz.legacyfilesutils.Paths;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.ToIntFunction;
 
@@ -48,6 +49,61 @@ public class FFmpegSegmentCombiner implements HlsMediaProcessor.SegmentCombiner
         System.out.println("Combined segments into: " + outputFile); // Log completion
     }
 
+    /**
+     * Muxes several tracks, e.g. a video variant and its audio renditions, into one output file
+     * in a single FFmpeg run. Every track is read by its own concat demuxer and all streams of
+     * all inputs are mapped into the output without re-encoding.
+     *
+     * @param tracks     one list of segment files per track, in the order the streams should have
+     *                   in the output file.
+     * @param outputDir  The directory where temporary files and the final output will be stored.
+     * @param outputFile The full path of the resulting file. The container has to support all
+     *                   tracks with stream copying, e.g. .mkv for WebVTT subtitles.
+     * @throws IOException If file operations or FFmpeg execution fails.
+     */
+    @Override
+    public void combineTracks(List<List<File>> tracks, String outputDir, String outputFile) throws IOException {
+        if (tracks == null || tracks.isEmpty()) {
+            throw new IllegalArgumentException("Track list cannot be null or empty");
+        }
+        if (tracks.size() == 1) {
+            combineSegments(tracks.get(0), outputDir, outputFile);
+            return;
+        }
+
+        List<File> concatLists = new ArrayList<>();
+        try {
+            List<String> args = new ArrayList<>();
+            for (List<File> track : tracks) {
+                if (track.isEmpty()) {
+                    throw new IllegalArgumentException("Segment list of a track cannot be empty");
+                }
+                File concatList = createConcatListFile(track, outputDir);
+                concatLists.add(concatList);
+                args.add("-f");
+                args.add("concat");
+                args.add("-safe");
+                args.add("0");
+                args.add("-i");
+                args.add(concatList.getAbsolutePath());
+            }
+            for (int i = 0; i < tracks.size(); i++) {
+                args.add("-map");
+                args.add(String.valueOf(i));
+            }
+            args.add("-c");
+            args.add("copy");
+            args.add("-y");
+            args.add(outputFile);
+            executor.applyAsInt(args.toArray(new String[0]));
+        } finally {
+            for (File concatList : concatLists) {
+                Files.deleteIfExists(concatList);
+            }
+        }
+        System.out.println("Combined " + tracks.size() + " tracks into: " + outputFile);
+    }
+
     /**
      * Creates a temporary concat list file containing paths to the input .ts files.
      *
@@ -1,9 +1,24 @@
 package com.github.evermindzz.hlsdownloader;
 
+import com.github.evermindzz.hlsdownloader.common.BoundedInputStream;
+import com.github.evermindzz.hlsdownloader.common.FetchResponse;
 import com.github.evermindzz.hlsdownloader.common.Fetcher;
+import com.github.evermindzz.hlsdownloader.common.HttpStatusException;
+import com.github.evermindzz.hlsdownloader.common.ResumingInputStream;
+import com.github.evermindzz.hlsdownloader.common.RetryPolicy;
+import com.github.evermindzz.hlsdownloader.common.ThrottledInputStream;
+import com.github.evermindzz.hlsdownloader.common.ThroughputMeter;
+import com.github.evermindzz.hlsdownloader.common.TokenBucket;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.ByteRange;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser.MediaPlaylist;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.PartialSegment;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.PreloadHint;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.Rendition;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser.Segment;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.SegmentIterator;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.VariantStream;
+import com.github.evermindzz.hlsdownloader.parser.PlaylistSnapshot;
 
 import com.github.evermindzz.legacyfilesutils.Files;
 import com.github.evermindzz.legacyfilesutils.Files.StandardCopyOption;
@@ -16,9 +31,9 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -26,6 +41,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -52,6 +68,26 @@ public class HlsMediaProcessor {
     private CountDownLatch pauseLatch; // For pausing threads
     private AtomicReference<DownloadState> currentState; // Track current state
     private List<Segment> segments;
+    private int[] trackStarts; // first segment index of each track, null for single track downloads
+    private AdaptiveDownload adaptive; // null unless downloadAdaptive() is running
+    private final ThroughputMeter throughputMeter = new ThroughputMeter();
+    private long maxCoalescedRangeBytes; // 0 == no coalescing
+    private long parallelRangeMinBytes;
+    private int parallelRangeCount; // 0 == one stream per segment
+    private ExecutorService rangeExecutor; // fetches the extra ranges of a segment while downloading
+    private AdaptiveConcurrencyLimiter concurrencyLimiter; // null == numThreads segments in flight
+    private TokenBucket rateLimiter; // null == no bandwidth limit
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private SegmentHedger hedger; // null == no hedged requests
+    private ExecutorService hedgeExecutor; // runs the original and the hedged request of a segment
+    private int playbackWindow; // 0 == no window
+    private PlaybackPrefixCallback prefixCallback;
+    private boolean streamingPlaylist;
+    private boolean playlistSnapshot;
+    private boolean virtualThreads;
+    private boolean snapshotKeys;
+    private boolean playlistFromSnapshot; // playlist was restored, no need to write it again
+    private final AtomicBoolean lowLatencyStopRequested = new AtomicBoolean(false);
 
     // Enum for download states
     public enum DownloadState {
@@ -70,10 +106,9 @@ public class HlsMediaProcessor {
 
     private static final boolean DEBUG = false;
 
-    private static final int MAX_DOWNLOAD_RETRIES = 3;
-    private static final int DOWNLOAD_RETRY_DELAY_MS = 1000;
 
     private static final int UNUSED_INDEX = -1;
+    private static final long PLAYBACK_WINDOW_POLL_MS = 100;
     /**
      * Constructs a new HlsMediaProcessor.
      *
@@ -126,6 +161,181 @@ public class HlsMediaProcessor {
         this.doCleanupSegments = doCleanupSegments;
     }
 
+    /**
+     * Merge segments that are adjacent byte ranges (#EXT-X-BYTERANGE) of the same resource
+     * into one range request and split the response back into the segment files.
+     * <p>
+     * Useful for single file VODs where every segment is a sub-range of one file.
+     *
+     * @param maxRequestBytes the maximum size of one merged request. 0 disables merging,
+     *                        which is the default.
+     */
+    public void setByteRangeCoalescing(long maxRequestBytes) {
+        this.maxCoalescedRangeBytes = Math.max(0, maxRequestBytes);
+    }
+
+    /**
+     * Download large segments with several concurrent HTTP Range requests instead of one stream.
+     * <p>
+     * The size of a segment is taken from its #EXT-X-BYTERANGE or asked for with
+     * {@link Fetcher#fetchContentLength(URI)}. Segments of at least {@code minSegmentBytes} are
+     * split into {@code rangesPerSegment} ranges that are fetched at the same time and written
+     * at their offsets into a raw file in {@code outputDir}. The segment is decrypted from that
+     * file once all ranges arrived. Segments of unknown size are fetched as one stream.
+     * Coalesced byte ranges are not split. Cannot be combined with
+     * {@link #setHedging(SegmentHedger) hedging}.
+     *
+     * @param minSegmentBytes  the minimum size of a segment to split it.
+     * @param rangesPerSegment the number of ranges per segment. 1 or less disables splitting,
+     *                         which is the default.
+     * @throws IllegalStateException if hedging is enabled.
+     */
+    public void setParallelRanges(long minSegmentBytes, int rangesPerSegment) {
+        if (rangesPerSegment > 1 && hedger != null) {
+            throw new IllegalStateException("Parallel ranges cannot be combined with hedging");
+        }
+        this.parallelRangeMinBytes = Math.max(1, minSegmentBytes);
+        this.parallelRangeCount = rangesPerSegment > 1 ? rangesPerSegment : 0;
+    }
+
+    /**
+     * Adapt the number of segments downloaded at the same time to the origin, instead of always
+     * downloading {@code numThreads} segments.
+     * <p>
+     * The limiter raises the limit while segments download as fast as before and lowers it when
+     * they slow down or requests fail, see {@link AdaptiveConcurrencyLimiter}. {@code numThreads}
+     * stays the upper bound. Use {@link AdaptiveConcurrencyLimiter#setLimitListener} to follow
+     * the limit.
+     *
+     * @param limiter the limiter or null to disable, which is the default.
+     */
+    public void setAdaptiveConcurrency(AdaptiveConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+    }
+
+    /**
+     * Limit the download rate of all segment streams of this processor.
+     * <p>
+     * Every segment, part and key stream is read through a {@link ThrottledInputStream} on
+     * the given bucket. Share one bucket between several processors to limit them together.
+     * The rate can be changed at any time with {@link TokenBucket#setRate(long)}.
+     *
+     * @param rateLimiter the bucket or null for no limit, which is the default.
+     */
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Set how failed requests are retried.
+     * <p>
+     * A segment transfer that breaks mid-stream is continued from the last written byte with a
+     * range request instead of starting over; decryption continues with the resumed bytes.
+     *
+     * @param retryPolicy the policy. Default is a {@link RetryPolicy} with its defaults.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : new RetryPolicy();
+    }
+
+    /**
+     * Send a second request for segments that are much slower than the recent ones and keep
+     * whichever finishes first.
+     * <p>
+     * A segment is hedged when its time to first byte or its transfer time exceeds a
+     * percentile of the recent segments, see {@link SegmentHedger}. Both requests are written
+     * to raw files in {@code outputDir}; the segment is decrypted from the winner's file and the
+     * other request is cancelled. {@link SegmentHedger#getStats()} reports the hedged requests.
+     * Coalesced byte ranges are not hedged. Cannot be combined with
+     * {@link #setParallelRanges(long, int) parallel ranges}.
+     *
+     * @param hedger the hedger or null to disable, which is the default.
+     * @throws IllegalStateException if parallel ranges are enabled.
+     */
+    public void setHedging(SegmentHedger hedger) {
+        if (hedger != null && parallelRangeCount > 0) {
+            throw new IllegalStateException("Hedging cannot be combined with parallel ranges");
+        }
+        this.hedger = hedger;
+    }
+
+    /**
+     * Download in playback order for consumers that start before the download is done, e.g. a
+     * player or remuxer.
+     * <p>
+     * Segments are always handed out in playlist order. With a window, no segment more than
+     * {@code windowSegments} ahead of the first missing one is started, so the workers stay
+     * close to the playhead instead of running ahead while a slow segment holds up playback.
+     * Every time the contiguous prefix of downloaded segments grows, the callback is told; the
+     * segment files of the prefix can then be read. In the streaming playlist mode the total
+     * passed to the callback grows while the playlist is read.
+     *
+     * @param windowSegments the number of segments ahead of the prefix that may be in flight.
+     *                       0 for no window, which is the default.
+     * @param callback       told about the prefix or null.
+     */
+    public void setPlaybackWindow(int windowSegments, PlaybackPrefixCallback callback) {
+        this.playbackWindow = Math.max(0, windowSegments);
+        this.prefixCallback = callback;
+    }
+
+    /**
+     * Start downloading segments while the playlist is still being read.
+     * <p>
+     * {@link #download(URI)} then takes the segments from {@link HlsParser#iterateSegments(URI)}.
+     * The workers read the playlist only as far as they need their next segment, so the memory
+     * does not grow with the number of segments waiting to be downloaded. Encryption keys are
+     * fetched the first time a segment references them. The total passed to the
+     * {@link DownloadProgressCallback} grows while the playlist is read.
+     * Byte range coalescing is not applied in this mode.
+     *
+     * @param streamingPlaylist true to enable. Default is false.
+     */
+    public void setStreamingPlaylist(boolean streamingPlaylist) {
+        this.streamingPlaylist = streamingPlaylist;
+    }
+
+    /**
+     * Run the download tasks on virtual threads (Java 21 and newer).
+     * <p>
+     * Every task gets its own virtual thread and at most {@code numThreads} of them run at the
+     * same time. A blocked fetch then costs no platform thread, so {@code numThreads} can be
+     * raised to hundreds of concurrent fetches, e.g. for CDNs with a high round trip time.
+     * On older Java versions the fixed thread pool is used anyway.
+     *
+     * @param virtualThreads true to enable. Default is false.
+     * @see #isVirtualThreadsSupported()
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return true if the running Java version supports {@link #setVirtualThreads(boolean)}.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return DownloadExecutors.isVirtualThreadsSupported();
+    }
+
+    /**
+     * Keep a binary snapshot of the parsed playlist in {@code outputDir}, next to the state
+     * file, see {@link PlaylistSnapshot}.
+     * <p>
+     * {@link #download(URI)} writes the snapshot once the playlist is parsed and its keys are
+     * fetched. When a download of the same URI is resumed by a new HlsMediaProcessor, e.g.
+     * after a restart, the playlist is restored from the snapshot instead of fetching and
+     * parsing it again. The snapshot is deleted when the download completes. Only playlists
+     * with #EXT-X-ENDLIST are stored, live playlists change between restarts.
+     *
+     * @param enabled     true to enable. Default is false.
+     * @param includeKeys true to store the fetched keys as well, so they are not fetched again.
+     *                    The keys are written unencrypted to the disk.
+     */
+    public void setPlaylistSnapshot(boolean enabled, boolean includeKeys) {
+        this.playlistSnapshot = enabled;
+        this.snapshotKeys = includeKeys;
+    }
+
     /**
      * Downloads the HLS media playlist and its segments, with support for multi-threading.
      * <p>
@@ -138,159 +348,950 @@ public class HlsMediaProcessor {
      * @throws IOException If an I/O error occurs during download, parsing, or state management.
      */
     public void download(URI uri) throws IOException {
+        if (streamingPlaylist && playlist == null) {
+            downloadStreaming(uri);
+            return;
+        }
         initializeState();
         List<Segment> segments = parsePlaylist(uri);
         fetchEncryptionKeys(segments);
         this.segments = segments;
         createOutputDirectory();
+        saveSnapshot(uri);
+        downloadAndCombine();
+    }
+
+    /**
+     * Downloads a variant stream together with its alternative renditions, e.g. separate audio
+     * tracks or subtitles, and muxes them into the output file.
+     * <p>
+     * The media playlists are parsed concurrently. Afterwards the segments of all tracks are
+     * downloaded in parallel by the same executor, so they share the {@code numThreads}
+     * budget. The segment files are numbered continuously across the tracks. Finally
+     * {@link SegmentCombiner#combineTracks(List, String, String)} receives one list of segment
+     * files per track, the variant first, so {@link FFmpegSegmentCombiner} can mux them in
+     * one pass. Renditions without URI are part of the variant stream and are skipped.
+     * <p>
+     * Use {@link HlsParser#parseMaster(URI)} to get the variants and their renditions, see
+     * {@link VariantStream#getRenditions()}.
+     *
+     * @param variant    the variant stream to download.
+     * @param renditions the renditions to download along with the variant.
+     * @throws IOException If an I/O error occurs during download, parsing, or state management.
+     */
+    public void downloadRenditions(VariantStream variant, List<Rendition> renditions) throws IOException {
+        List<URI> trackUris = new ArrayList<>();
+        trackUris.add(variant.getUri());
+        for (Rendition rendition : renditions) {
+            if (rendition.getUri() != null && !trackUris.contains(rendition.getUri())) {
+                trackUris.add(rendition.getUri());
+            }
+        }
+        initializeState();
+        List<MediaPlaylist> playlists = parseTrackPlaylists(trackUris);
+
+        List<Segment> segments = new ArrayList<>();
+        int[] trackStarts = new int[playlists.size()];
+        for (int i = 0; i < playlists.size(); i++) {
+            trackStarts[i] = segments.size();
+            segments.addAll(playlists.get(i).getSegments());
+        }
+        fetchEncryptionKeys(segments);
+        this.segments = segments;
+        this.trackStarts = trackStarts;
+        this.playlist = playlists.get(0);
+        createOutputDirectory();
+        downloadAndCombine();
+    }
+
+    /**
+     * Downloads a master playlist and chooses the variant for every segment based on the
+     * measured throughput, see {@link AdaptiveVariantSelector}.
+     * <p>
+     * All variant playlists are parsed first. If they are segment-aligned (same media
+     * sequence, same number of segments and matching durations) the variant is chosen again
+     * before each segment is downloaded, so the download switches variants at segment
+     * boundaries. The throughput is the estimate of {@link #getThroughputMeter()} times the
+     * number of threads. Otherwise a single variant is chosen with the throughput measured so
+     * far. Keys are fetched when a segment needs them. Byte range coalescing is not applied in
+     * this mode.
+     *
+     * @param masterUri the master playlist URI.
+     * @param selector  decides which variant to download.
+     * @throws IOException If an I/O error occurs during download, parsing, or state management.
+     */
+    public void downloadAdaptive(URI masterUri, AdaptiveVariantSelector selector) throws IOException {
+        initializeState();
+        List<VariantStream> variants;
+        try {
+            variants = new ArrayList<>(parser.parseMaster(masterUri).getVariants());
+        } catch (IOException e) {
+            updateState(DownloadState.ERROR, String.format(ERROR_PARSING_PLAYLIST, e.getMessage()));
+            cleanupExecutor();
+            throw e;
+        }
+        variants.sort(Comparator.comparingInt(VariantStream::getBandwidth));
+        List<URI> uris = new ArrayList<>();
+        for (VariantStream variant : variants) {
+            uris.add(variant.getUri());
+        }
+        List<MediaPlaylist> playlists = parseTrackPlaylists(uris);
+
+        AdaptiveDownload adaptiveDownload = new AdaptiveDownload(selector, variants, playlists);
+        if (adaptiveDownload.isSegmentAligned()) {
+            adaptive = adaptiveDownload;
+            segments = new ArrayList<>(playlists.get(0).getSegments());
+        } else {
+            VariantStream variant = adaptiveDownload.select(adaptiveDownload.contentSeconds);
+            System.out.println("Variants are not segment-aligned, downloading " + variant.getUri());
+            segments = playlists.get(variants.indexOf(variant)).getSegments();
+            fetchEncryptionKeys(segments);
+        }
+        createOutputDirectory();
+        downloadAndCombine();
+    }
+
+    /**
+     * @return the throughput measured over the segment downloads of this processor.
+     */
+    public ThroughputMeter getThroughputMeter() {
+        return throughputMeter;
+    }
 
+    private void downloadAndCombine() throws IOException {
         try {
             downloadSegments();
             finalizeDownload();
         } catch (Exception e) {
             handleDownloadException(e);
         } finally {
-            cleanupExecutor();
-            if (isDownloadCancelled()) {
-                updateState(DownloadState.CANCELLED, MESSAGE_CANCELLED_BY_USER);
+            cleanupExecutor();
+            if (isDownloadCancelled()) {
+                updateState(DownloadState.CANCELLED, MESSAGE_CANCELLED_BY_USER);
+            }
+            updateState(DownloadState.STOPPED, "All operations stopped. EOW");
+        }
+    }
+
+    private List<MediaPlaylist> parseTrackPlaylists(List<URI> uris) throws IOException {
+        List<Future<MediaPlaylist>> futures = new ArrayList<>();
+        for (URI uri : uris) {
+            futures.add(executor.submit(() -> parser.parse(uri)));
+        }
+        List<MediaPlaylist> playlists = new ArrayList<>();
+        try {
+            for (Future<MediaPlaylist> future : futures) {
+                MediaPlaylist trackPlaylist = future.get();
+                if (trackPlaylist.getSegments().isEmpty()) {
+                    throw new IOException(ERROR_NO_SEGMENTS);
+                }
+                playlists.add(trackPlaylist);
+            }
+        } catch (ExecutionException | IOException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            updateState(DownloadState.ERROR, String.format(ERROR_PARSING_PLAYLIST, cause.getMessage()));
+            cleanupExecutor();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cleanupExecutor();
+            throw new InterruptedIOException("Interrupted while parsing playlists");
+        }
+        return playlists;
+    }
+
+    /**
+     * Captures a live stream from the live edge until the playlist ends or
+     * {@link #stopLowLatency()} is called, then combines the captured segments.
+     * <p>
+     * Made for low-latency HLS: the partial segments (#EXT-X-PART) of the segment in progress
+     * are fetched as soon as they are listed and appended to the raw file of their segment.
+     * The part announced by #EXT-X-PRELOAD-HINT is requested ahead of time, so the server
+     * answers the moment it is published. When a segment is complete its raw file is
+     * decrypted, if needed, into the segment file. Playlists without parts are captured
+     * segment by segment. Parts marked GAP are left out, a segment of only gaps is skipped.
+     * <p>
+     * If the server supports blocking playlist reloads the next reload waits on the server
+     * for the next part, see {@link HlsParser#parseBlockingReload(MediaPlaylist, URI)}.
+     * Otherwise the playlist is polled every part target duration.
+     * <p>
+     * Resuming is not supported in this mode. The {@link DownloadProgressCallback} receives
+     * -1 as total while capturing.
+     *
+     * @param uri media playlist URI.
+     * @throws IOException If an I/O error occurs during download or parsing.
+     */
+    public void downloadLowLatency(URI uri) throws IOException {
+        initializeState();
+        createOutputDirectory();
+        lowLatencyStopRequested.set(false);
+        LowLatencyCapture capture = new LowLatencyCapture(uri);
+        try {
+            capture.run();
+            segments = capture.captured;
+            finalizeDownload();
+        } catch (DownloadCancelledException e) {
+            segmentStateManager.cleanupState();
+            updateState(DownloadState.CANCELLED, MESSAGE_CANCELLED_BY_USER);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            segmentStateManager.cleanupState();
+            updateState(DownloadState.CANCELLED, String.format(MESSAGE_INTERRUPTED, e.getMessage()));
+        } catch (IOException e) {
+            updateState(DownloadState.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            capture.cancelPreload();
+            cleanupExecutor();
+            updateState(DownloadState.STOPPED, "All operations stopped. EOW");
+        }
+    }
+
+    /**
+     * Ends a capture started with {@link #downloadLowLatency(URI)} after the current playlist
+     * reload. The segments captured so far are combined into the output file.
+     */
+    public void stopLowLatency() {
+        lowLatencyStopRequested.set(true);
+    }
+
+    private void downloadStreaming(URI uri) throws IOException {
+        initializeState();
+        createOutputDirectory();
+        segments = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            downloadSegmentsWhileParsing(uri);
+            finalizeDownload();
+        } catch (Exception e) {
+            handleDownloadException(e);
+        } finally {
+            cleanupExecutor();
+            if (isDownloadCancelled()) {
+                updateState(DownloadState.CANCELLED, MESSAGE_CANCELLED_BY_USER);
+            }
+            updateState(DownloadState.STOPPED, "All operations stopped. EOW");
+        }
+    }
+
+    private void downloadSegmentsWhileParsing(URI uri) throws IOException {
+        ConcurrentSkipListSet<Integer> completedSet = new ConcurrentSkipListSet<>(segmentStateManager.loadState());
+        try (SegmentIterator iterator = parser.iterateSegments(uri)) {
+            downloadSegments(new SegmentCursor(completedSet, iterator), completedSet);
+            playlist = iterator.getPlaylist();
+        } catch (IOException e) {
+            updateState(DownloadState.ERROR, String.format(ERROR_PARSING_PLAYLIST, e.getMessage()));
+            throw e;
+        }
+    }
+
+    /**
+     * Step mode method: parse a media playlist URL and get all segments meta data.
+     *
+     * @param uri         media playlist uri. If Uri is master Playlists make sure HlsParser has
+     *                    {@link HlsParser.MasterPlaylistSelectionCallback} to select media playlist.
+     * @return the parsed segment meta data of the playlist.
+     * @throws IOException on I/O work
+     */
+    public List<Segment> getPlayListSegmentData(URI uri) throws IOException {
+        return parsePlaylist(uri);
+    }
+
+    /**
+     * Step mode method: retrieve encryption keys for given segments if needed.
+     *
+     * @param segments     the segments you want to retrieve the encryption keys for.
+     * @throws IOException on I/O work
+     */
+    public void retrieveEncryptionKeys(List<Segment> segments) throws IOException {
+        fetchEncryptionKeys(segments);
+    }
+
+
+    private void initializeState() throws IOException {
+        Set<Integer> completedIndices = segmentStateManager.loadState();
+        segmentStateManager.saveState(completedIndices); // Initial save to ensure file exists
+        executor = DownloadExecutors.newDownloadExecutor(numThreads, virtualThreads);
+        pauseLatch = new CountDownLatch(1);
+        trackStarts = null;
+        adaptive = null;
+        updateState(DownloadState.STARTED, "");
+    }
+
+    private List<Segment> parsePlaylist(URI uri) throws IOException {
+        if (playlist == null) {
+            playlist = loadSnapshot(uri);
+            playlistFromSnapshot = playlist != null;
+        }
+        if (playlist == null) {
+            try {
+                playlist = parser.parse(uri);
+            } catch (IOException e) {
+                String message = String.format(ERROR_PARSING_PLAYLIST, e.getMessage());
+                updateState(DownloadState.ERROR, message);
+                throw e;
+            }
+
+            if (playlist.getSegments().isEmpty()) {
+                updateState(DownloadState.ERROR, ERROR_NO_SEGMENTS);
+                throw new IOException(ERROR_NO_SEGMENTS);
+            }
+        }
+        return playlist.getSegments();
+    }
+
+    private File getSnapshotFile() {
+        return Paths.get(outputDir + "/playlist_snapshot.bin");
+    }
+
+    private MediaPlaylist loadSnapshot(URI uri) {
+        File snapshotFile = getSnapshotFile();
+        if (!playlistSnapshot || !Files.exists(snapshotFile)) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(snapshotFile))) {
+            PlaylistSnapshot snapshot = PlaylistSnapshot.readFrom(in);
+            if (snapshot.getUri().equals(uri)) {
+                System.out.println("Playlist restored from snapshot: " + snapshotFile);
+                return snapshot.getPlaylist();
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring playlist snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the playlist snapshot. Failures are only logged, the download works without it.
+     */
+    private void saveSnapshot(URI uri) {
+        if (!playlistSnapshot || playlistFromSnapshot || !playlist.isEndList()) {
+            return;
+        }
+        File snapshotFile = getSnapshotFile();
+        // write to a temp file first, so a crash never leaves a half written snapshot behind
+        File tempFile = Paths.get(snapshotFile.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            new PlaylistSnapshot(uri, playlist).writeTo(out, snapshotKeys);
+        } catch (IOException e) {
+            System.err.println("Failed to write playlist snapshot: " + e.getMessage());
+            Files.deleteIfExists(tempFile);
+            return;
+        }
+        Files.deleteIfExists(snapshotFile);
+        if (!tempFile.renameTo(snapshotFile)) {
+            System.err.println("Failed to write playlist snapshot: " + snapshotFile);
+        }
+        playlistFromSnapshot = true;
+    }
+
+    private void fetchEncryptionKeys(List<Segment> segments) throws IOException {
+        Set<HlsParser.EncryptionInfo> uniqueEncryptionInfos = new HashSet<>();
+        for (HlsParser.Segment segment : segments) {
+            HlsParser.EncryptionInfo encryptionInfo = segment.getEncryptionInfo();
+            if (encryptionInfo != null && encryptionInfo.getKey() == null) {
+                uniqueEncryptionInfos.add(encryptionInfo);
+            }
+        }
+        for (HlsParser.EncryptionInfo encryptionInfo : uniqueEncryptionInfos) {
+            fetchEncryptionKey(encryptionInfo);
+        }
+    }
+
+    /**
+     * Fetches the key of the encryption info unless it is known already. Threads that need
+     * the same key wait for the first one to fetch it.
+     */
+    private void fetchEncryptionKey(HlsParser.EncryptionInfo encryptionInfo) throws IOException {
+        if (encryptionInfo == null || encryptionInfo.getUri() == null) {
+            return;
+        }
+        synchronized (encryptionInfo) {
+            if (encryptionInfo.getKey() != null) {
+                return;
+            }
+            try (InputStream keyStream = callFetchContent(encryptionInfo.getUri(), UNUSED_INDEX)) {
+                byte[] key = LegacyInputStream.readAllBytes(keyStream);
+                if (key.length != 16) {
+                    throw new IOException("Invalid key length: expected 16 bytes, got " + key.length);
+                }
+                encryptionInfo.setKey(key);
+            } catch (IOException e) {
+                String message = String.format(ERROR_FETCHING_KEY, e.getMessage());
+                updateState(DownloadState.ERROR, message);
+                throw e;
+            }
+        }
+    }
+
+    private void createOutputDirectory() throws IOException {
+        try {
+            Files.createDirectories(Paths.get(outputDir));
+        } catch (IOException e) {
+            String message = String.format(ERROR_CREATING_DIRECTORY, e.getMessage());
+            updateState(DownloadState.ERROR, message);
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads the {@link #segments} of the playlist.
+     */
+    private void downloadSegments() throws IOException {
+        checkIfSegmentsAvailable();
+        ConcurrentSkipListSet<Integer> completedSet = new ConcurrentSkipListSet<>(segmentStateManager.loadState());
+        downloadSegments(new SegmentCursor(completedSet, null), completedSet);
+    }
+
+    /**
+     * Downloads the segments with {@code numThreads} workers. Each worker takes the next
+     * segment from a shared {@link SegmentCursor} when it is done with the previous one, so
+     * only {@code numThreads} segments are in flight and nothing is queued per segment.
+     */
+    private void downloadSegments(SegmentCursor cursor, Set<Integer> completedSet) {
+        AtomicInteger progress = new AtomicInteger(completedSet.size());
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.start(numThreads);
+        }
+        if (parallelRangeCount > 0) {
+            rangeExecutor = DownloadExecutors.newDownloadExecutor(numThreads * (parallelRangeCount - 1), virtualThreads);
+        } else if (hedger != null) {
+            hedgeExecutor = DownloadExecutors.newDownloadExecutor(numThreads * 2, virtualThreads);
+        }
+        try {
+            CompletableFuture<?>[] workers = new CompletableFuture<?>[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                workers[i] = CompletableFuture.runAsync(() -> downloadFromCursor(cursor, completedSet, progress), executor);
+            }
+            CompletableFuture.allOf(workers).join();
+        } finally {
+            if (rangeExecutor != null) {
+                rangeExecutor.shutdownNow();
+                rangeExecutor = null;
+            }
+            if (hedgeExecutor != null) {
+                hedgeExecutor.shutdownNow();
+                hedgeExecutor = null;
+            }
+        }
+    }
+
+    private void downloadFromCursor(SegmentCursor cursor, Set<Integer> completedSet, AtomicInteger progress) {
+        int index = UNUSED_INDEX;
+        try {
+            while (true) {
+                handlePause();
+                if (isDownloadCancelled()) return;
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.acquire();
+                }
+                try {
+                    int[] range = cursor.next();
+                    if (range == null) return;
+                    index = range[0];
+                    int lastIndex = range[1];
+
+                    if (adaptive != null) {
+                        Segment segment = adaptive.segmentFor(index);
+                        fetchEncryptionKey(segment.getEncryptionInfo());
+                        downloadWholeSegment(index, segment, completedSet, progress);
+                    } else if (index == lastIndex) {
+                        Segment segment = segments.get(index);
+                        fetchEncryptionKey(segment.getEncryptionInfo()); // not prefetched while streaming
+                        downloadWholeSegment(index, segment, completedSet, progress);
+                    } else {
+                        downloadCoalescedSegments(index, lastIndex, completedSet, progress);
+                    }
+                    cursor.completed();
+                } finally {
+                    if (concurrencyLimiter != null) {
+                        concurrencyLimiter.release();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            cursor.stop();
+            throw new RuntimeException("Failed to process segment " + (index + 1), e);
+        } catch (InterruptedException e) {
+            cursor.stop();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Segment download interrupted", e);
+        } catch (RuntimeException e) {
+            cursor.stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands out the segments that still have to be downloaded, in playlist order. Adjacent
+     * byte ranges that can be coalesced are handed out together.
+     * <p>
+     * Tracks the contiguous prefix of downloaded segments for the {@link #playbackWindow}.
+     * In the streaming playlist mode the segments are read from the playlist only when a
+     * worker needs the next one.
+     */
+    private class SegmentCursor {
+        private final Set<Integer> completedSet;
+        private final SegmentIterator iterator; // null == all segments are known
+        private int next;
+        private int prefix; // index of the first segment not downloaded yet
+        private final AtomicInteger reportedPrefix = new AtomicInteger();
+        private boolean stopped;
+
+        /**
+         * @param completedSet the segments already downloaded.
+         * @param iterator     the playlist to read the {@link #segments} from while downloading,
+         *                     null if they are known.
+         */
+        SegmentCursor(Set<Integer> completedSet, SegmentIterator iterator) {
+            this.completedSet = completedSet;
+            this.iterator = iterator;
+            if (advancePrefix()) {
+                reportPrefix(prefix, segments.size());
+            }
+        }
+
+        /**
+         * Waits while the next segment is outside the {@link #playbackWindow}.
+         *
+         * @return the first and last index of the next work item, null if there is none left.
+         * @throws IOException          if reading the playlist fails.
+         * @throws InterruptedException if interrupted while waiting for the window.
+         */
+        synchronized int[] next() throws IOException, InterruptedException {
+            while (!stopped && hasSegment(next) && completedSet.contains(next)) {
+                next++;
+            }
+            while (playbackWindow > 0 && !stopped && hasSegment(next) && next >= prefix + playbackWindow) {
+                if (isCancelled.get() || cancellationRequested.get()) {
+                    return null;
+                }
+                wait(PLAYBACK_WINDOW_POLL_MS);
+            }
+            if (stopped || !hasSegment(next)) {
+                return null;
+            }
+            int first = next;
+            int last = iterator != null ? first : coalescedRangeEnd(first, completedSet);
+            next = last + 1;
+            return new int[]{first, last};
+        }
+
+        /**
+         * Must hold the lock.
+         *
+         * @return true if there is a segment at {@code index}, reading the playlist up to it
+         * in the streaming playlist mode.
+         */
+        private boolean hasSegment(int index) throws IOException {
+            try {
+                while (index >= segments.size() && iterator != null && iterator.hasNext()) {
+                    segments.add(iterator.next());
+                }
+            } catch (IOException e) {
+                updateState(DownloadState.ERROR, String.format(ERROR_PARSING_PLAYLIST, e.getMessage()));
+                throw e;
+            }
+            return index < segments.size();
+        }
+
+        /**
+         * Ends the work of all workers after their current segment, e.g. after a failure.
+         */
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        /**
+         * Called after a work item was downloaded. Moves the prefix and the window.
+         */
+        void completed() {
+            int newPrefix;
+            int totalSegments;
+            synchronized (this) {
+                if (!advancePrefix()) {
+                    return;
+                }
+                notifyAll();
+                newPrefix = prefix;
+                totalSegments = segments.size();
+            }
+            reportPrefix(newPrefix, totalSegments);
+        }
+
+        /**
+         * Tells the {@link #prefixCallback} about a prefix larger than all reported before.
+         * Called without the lock, so a slow callback does not hold up the workers.
+         */
+        private void reportPrefix(int newPrefix, int totalSegments) {
+            if (prefixCallback == null) {
+                return;
+            }
+            int last;
+            do {
+                last = reportedPrefix.get();
+                if (newPrefix <= last) {
+                    return; // a larger prefix was reported meanwhile
+                }
+            } while (!reportedPrefix.compareAndSet(last, newPrefix));
+            prefixCallback.onPrefixAvailable(newPrefix, totalSegments);
+        }
+
+        /**
+         * Must hold the lock.
+         *
+         * @return true if the prefix grew.
+         */
+        private boolean advancePrefix() {
+            int previous = prefix;
+            while (prefix < segments.size() && completedSet.contains(prefix)) {
+                prefix++;
+            }
+            return prefix != previous;
+        }
+    }
+
+    private void downloadSegment(int index, Segment segment, InputStreamProvider inputStreamProvider,
+                                 Set<Integer> completedSet, AtomicInteger progress) throws IOException {
+        File segmentFile = getSegmentFileName(index);
+        long start = System.nanoTime();
+        try (InputStream in = processSegment(segment, index, inputStreamProvider)) {
+            if (isDownloadCancelled()) {
+                throw new DownloadCancelledException("Download cancelled during I/O");
+            }
+            Files.copy(in, segmentFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        throughputMeter.addSample(segmentFile.length(), elapsedNanos);
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.onSuccess(segmentFile.length(), elapsedNanos);
+        }
+        completedSet.add(index);
+        synchronized (segmentStateManager) {
+            segmentStateManager.saveState(new HashSet<>(completedSet));
+        }
+        int currentProgress = progress.incrementAndGet();
+        progressCallback.onProgressUpdate(currentProgress, segments.size());
+        if (isDownloadCancelled()) {
+            throw new DownloadCancelledException("Download cancelled after progress");
+        }
+    }
+
+    private void downloadWholeSegment(int index, Segment segment, Set<Integer> completedSet, AtomicInteger progress)
+            throws IOException {
+        if (hedgeExecutor != null) {
+            try {
+                downloadSegment(index, segment, (uri, i) -> fetchHedged(segment, i), completedSet, progress);
+            } finally {
+                Files.deleteIfExists(getRawSegmentFileName(index));
+                Files.deleteIfExists(getHedgeSegmentFileName(index));
+            }
+            return;
+        }
+        if (rangeExecutor == null) {
+            downloadSegment(index, segment, this::callFetchContent, completedSet, progress);
+            return;
+        }
+        File rawFile = getRawSegmentFileName(index);
+        try {
+            downloadSegment(index, segment, (uri, i) -> fetchInParallelRanges(segment, i, rawFile),
+                    completedSet, progress);
+        } finally {
+            Files.deleteIfExists(rawFile);
+        }
+    }
+
+    /**
+     * Fetches a segment of at least {@link #parallelRangeMinBytes} with {@link #parallelRangeCount}
+     * concurrent range requests into {@code rawFile}. The first range is fetched by the calling
+     * thread, the others by the {@link #rangeExecutor}.
+     *
+     * @return the still encrypted content of the segment.
+     */
+    private InputStream fetchInParallelRanges(Segment segment, int index, File rawFile) throws IOException {
+        URI uri = segment.getUri();
+        ByteRange byteRange = segment.getByteRange();
+        long offset = byteRange != null ? byteRange.getOffset() : 0;
+        long size = byteRange != null ? byteRange.getLength() : probeContentLength(uri);
+        if (size < parallelRangeMinBytes) { // also if the size is unknown
+            return callFetchContent(uri, byteRange, index);
+        }
+        long partSize = (size + parallelRangeCount - 1) / parallelRangeCount;
+        try (RandomAccessFile file = new RandomAccessFile(rawFile, "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            List<Future<?>> parts = new ArrayList<>();
+            try {
+                for (long start = partSize; start < size; start += partSize) {
+                    ByteRange part = new ByteRange(Math.min(partSize, size - start), offset + start);
+                    long position = start;
+                    parts.add(rangeExecutor.submit(() -> {
+                        fetchRangeInto(channel, position, uri, part, index);
+                        return null;
+                    }));
+                }
+                fetchRangeInto(channel, 0, uri, new ByteRange(Math.min(partSize, size), offset), index);
+                for (Future<?> part : parts) {
+                    part.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to fetch a range of " + uri, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DownloadCancelledException("Download interrupted while fetching ranges");
+            } finally {
+                for (Future<?> part : parts) {
+                    part.cancel(true);
+                }
+            }
+        }
+        return new FileInputStream(rawFile);
+    }
+
+    private void fetchRangeInto(FileChannel channel, long position, URI uri, ByteRange range, int index)
+            throws IOException {
+        try (InputStream in = callFetchContent(uri, range, index)) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = range.getLength();
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    throw new EOFException("Range at offset " + range.getOffset() + " of " + uri + " ended early");
+                }
+                if (isDownloadCancelled()) {
+                    throw new DownloadCancelledException("Download cancelled during I/O");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * Fetches a segment into its raw file and sends a hedged request into a second file when the
+     * segment is slower than the thresholds of the {@link #hedger}.
+     *
+     * @return the still encrypted content of the request that finished first.
+     */
+    private InputStream fetchHedged(Segment segment, int index) throws IOException {
+        hedger.onSegmentStarted();
+        HedgedFetch primary = new HedgedFetch(segment.getUri(), segment.getByteRange(), index,
+                getRawSegmentFileName(index));
+        CompletableFuture<HedgedFetch> result = primary.start();
+        HedgedFetch hedge = null;
+        try {
+            while (!result.isDone()) {
+                long threshold = primary.firstByteNanos == 0 ? hedger.getFirstByteThresholdNanos() : -1;
+                if (threshold < 0) {
+                    threshold = hedger.getDurationThresholdNanos();
+                }
+                if (threshold < 0) {
+                    break;
+                }
+                long waitNanos = primary.startNanos + threshold - System.nanoTime();
+                if (waitNanos > 0) {
+                    try {
+                        result.get(waitNanos, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException | ExecutionException ignored) {
+                        // check again, the first byte may have arrived meanwhile
+                    }
+                    continue;
+                }
+                if (hedger.tryHedge()) {
+                    System.out.println("Hedging segment " + (index + 1) + " after "
+                            + (System.nanoTime() - primary.startNanos) / 1_000_000L + " ms");
+                    hedge = new HedgedFetch(hedger.alternateUri(segment.getUri()), segment.getByteRange(), index,
+                            getHedgeSegmentFileName(index));
+                    result = firstSuccessful(result, hedge.start());
+                }
+                break;
+            }
+            HedgedFetch winner = result.get();
+            // the segment took as long as since the first request, not just the winning one
+            long delayNanos = winner.startNanos - primary.startNanos;
+            hedger.onCompleted(delayNanos + winner.firstByteNanos, delayNanos + winner.totalNanos, winner == hedge);
+            return new FileInputStream(winner.file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to fetch " + segment.getUri(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DownloadCancelledException("Download interrupted while fetching a hedged segment");
+        } finally {
+            HedgedFetch winner = result.isDone() && !result.isCompletedExceptionally() ? result.join() : null;
+            if (primary != winner) {
+                primary.cancel();
+            }
+            if (hedge != null && hedge != winner) {
+                hedge.cancel();
             }
-            updateState(DownloadState.STOPPED, "All operations stopped. EOW");
         }
     }
 
     /**
-     * Step mode method: parse a media playlist URL and get all segments meta data.
-     *
-     * @param uri         media playlist uri. If Uri is master Playlists make sure HlsParser has
-     *                    {@link HlsParser.MasterPlaylistSelectionCallback} to select media playlist.
-     * @return the parsed segment meta data of the playlist.
-     * @throws IOException on I/O work
+     * @return a future of the first of both that succeeds, failing when both fail.
      */
-    public List<Segment> getPlayListSegmentData(URI uri) throws IOException {
-        return parsePlaylist(uri);
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<T, Throwable> onDone = (value, failure) -> {
+            if (failure == null) {
+                first.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                first.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+            }
+        };
+        a.whenComplete(onDone);
+        b.whenComplete(onDone);
+        return first;
     }
 
     /**
-     * Step mode method: retrieve encryption keys for given segments if needed.
-     *
-     * @param segments     the segments you want to retrieve the encryption keys for.
-     * @throws IOException on I/O work
+     * One request of a hedged segment, written to its own file by the {@link #hedgeExecutor}.
      */
-    public void retrieveEncryptionKeys(List<Segment> segments) throws IOException {
-        fetchEncryptionKeys(segments);
-    }
-
+    private final class HedgedFetch {
+        private final URI uri;
+        private final ByteRange range;
+        private final int index;
+        private final File file;
+        private final long startNanos = System.nanoTime();
+        private volatile long firstByteNanos; // 0 == no byte yet
+        private long totalNanos;
+        private volatile InputStream stream;
+        private Future<?> task;
+        // guarded by this
+        private boolean cancelled;
+        private boolean finished;
+
+        HedgedFetch(URI uri, ByteRange range, int index, File file) {
+            this.uri = uri;
+            this.range = range;
+            this.index = index;
+            this.file = file;
+        }
 
-    private void initializeState() throws IOException {
-        Set<Integer> completedIndices = segmentStateManager.loadState();
-        segmentStateManager.saveState(completedIndices); // Initial save to ensure file exists
-        AtomicInteger threadId = new AtomicInteger();
-        executor = Executors.newFixedThreadPool(numThreads, r -> {
-            Thread t = new Thread(r);
-            t.setName("DownloaderNo-" + threadId.getAndIncrement());
-            t.setUncaughtExceptionHandler((thread, ex) -> {
-                System.err.println("Thread " + thread.getName() + " terminated with exception: " + ex.getMessage());
-                ex.printStackTrace();
+        CompletableFuture<HedgedFetch> start() {
+            CompletableFuture<HedgedFetch> done = new CompletableFuture<>();
+            task = hedgeExecutor.submit(() -> {
+                try {
+                    done.complete(fetch());
+                } catch (Throwable t) {
+                    done.completeExceptionally(t);
+                }
             });
-            return t;
-        });
-        pauseLatch = new CountDownLatch(1);
-        updateState(DownloadState.STARTED, "");
-    }
+            return done;
+        }
 
-    private List<Segment> parsePlaylist(URI uri) throws IOException {
-        if (playlist == null) {
-            try {
-                playlist = parser.parse(uri);
-            } catch (IOException e) {
-                String message = String.format(ERROR_PARSING_PLAYLIST, e.getMessage());
-                updateState(DownloadState.ERROR, message);
+        private HedgedFetch fetch() throws IOException {
+            try (InputStream in = callFetchContent(uri, range, index);
+                 OutputStream out = new FileOutputStream(file)) {
+                stream = in;
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    if (firstByteNanos == 0) {
+                        firstByteNanos = Math.max(1, System.nanoTime() - startNanos);
+                    }
+                    if (isCancelled() || isDownloadCancelled()) {
+                        throw new DownloadCancelledException("Hedged request cancelled");
+                    }
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
                 throw e;
             }
-
-            if (playlist.getSegments().isEmpty()) {
-                updateState(DownloadState.ERROR, ERROR_NO_SEGMENTS);
-                throw new IOException(ERROR_NO_SEGMENTS);
+            totalNanos = System.nanoTime() - startNanos;
+            if (firstByteNanos == 0) {
+                firstByteNanos = totalNanos;
+            }
+            synchronized (this) {
+                finished = true;
+                if (cancelled) {
+                    Files.deleteIfExists(file);
+                }
             }
+            return this;
         }
-        return playlist.getSegments();
-    }
 
-    private void fetchEncryptionKeys(List<Segment> segments) throws IOException {
-        Set<HlsParser.EncryptionInfo> uniqueEncryptionInfos = new HashSet<>();
-        for (HlsParser.Segment segment : segments) {
-            HlsParser.EncryptionInfo encryptionInfo = segment.getEncryptionInfo();
-            if (encryptionInfo != null && encryptionInfo.getKey() == null) {
-                uniqueEncryptionInfos.add(encryptionInfo);
-            }
+        private synchronized boolean isCancelled() {
+            return cancelled;
         }
-        for (HlsParser.EncryptionInfo encryptionInfo : uniqueEncryptionInfos) {
-            try (InputStream keyStream = callFetchContent(encryptionInfo.getUri(), UNUSED_INDEX)) {
-                byte[] key = LegacyInputStream.readAllBytes(keyStream);
-                if (key.length != 16) {
-                    throw new IOException("Invalid key length: expected 16 bytes, got " + key.length);
+
+        /**
+         * Aborts the request by closing its stream, which also ends a blocked read. A request
+         * that already finished only loses its file.
+         */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (finished) {
+                    Files.deleteIfExists(file);
+                    return;
+                }
+            }
+            task.cancel(true);
+            InputStream in = stream;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // the request is abandoned anyway
                 }
-                encryptionInfo.setKey(key);
-            } catch (IOException e) {
-                String message = String.format(ERROR_FETCHING_KEY, e.getMessage());
-                updateState(DownloadState.ERROR, message);
-                throw e;
             }
         }
     }
 
-    private void createOutputDirectory() throws IOException {
-        try {
-            Files.createDirectories(Paths.get(outputDir));
-        } catch (IOException e) {
-            String message = String.format(ERROR_CREATING_DIRECTORY, e.getMessage());
-            updateState(DownloadState.ERROR, message);
-            throw e;
+    /**
+     * @return the index of the last segment that can be fetched together with the segment at
+     * {@code first} in one range request. {@code first} if nothing can be merged.
+     */
+    private int coalescedRangeEnd(int first, Set<Integer> completedSet) {
+        Segment segment = segments.get(first);
+        ByteRange range = segment.getByteRange();
+        if (maxCoalescedRangeBytes <= 0 || range == null || adaptive != null) {
+            return first;
+        }
+        URI uri = segment.getUri();
+        long end = range.getEnd();
+        int last = first;
+        while (last + 1 < segments.size() && !completedSet.contains(last + 1)) {
+            Segment next = segments.get(last + 1);
+            ByteRange nextRange = next.getByteRange();
+            if (nextRange == null || nextRange.getOffset() != end
+                    || nextRange.getEnd() - range.getOffset() > maxCoalescedRangeBytes
+                    || !uri.equals(next.getUri())) {
+                break;
+            }
+            end = nextRange.getEnd();
+            last++;
         }
+        return last;
     }
 
-    private void downloadSegments() throws IOException {
-        checkIfSegmentsAvailable();
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        ConcurrentSkipListSet<Integer> completedSet = new ConcurrentSkipListSet<>(segmentStateManager.loadState());
-        AtomicInteger progress = new AtomicInteger(completedSet.size());
-
-        for (int i = 0; i < segments.size(); i++) {
-            if (completedSet.contains(i)) continue;
-            int index = i;
-            HlsParser.Segment segment = segments.get(i);
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                try {
-                    handlePause();
-                    if (isDownloadCancelled()) return;
-
-                    File segmentFile = getSegmentFileName(index);
-                    try (InputStream in = processSegment(segment, index)) {
-                        if (isDownloadCancelled()) {
-                            throw new DownloadCancelledException("Download cancelled during I/O");
-                        }
-                        Files.copy(in, segmentFile, StandardCopyOption.REPLACE_EXISTING);
-                    }
-                    completedSet.add(index);
-                    synchronized (segmentStateManager) {
-                        segmentStateManager.saveState(new HashSet<>(completedSet));
-                    }
-                    int currentProgress = progress.incrementAndGet();
-                    progressCallback.onProgressUpdate(currentProgress, segments.size());
-                    if (isDownloadCancelled()) {
-                        throw new DownloadCancelledException("Download cancelled after progress");
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException("Failed to process segment " + (index + 1), e);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("Segment download interrupted", e);
-                }
-            }, executor);
-            futures.add(future);
+    private void downloadCoalescedSegments(int first, int last, Set<Integer> completedSet, AtomicInteger progress)
+            throws IOException {
+        Segment firstSegment = segments.get(first);
+        long offset = firstSegment.getByteRange().getOffset();
+        ByteRange merged = new ByteRange(segments.get(last).getByteRange().getEnd() - offset, offset);
+        try (InputStream shared = callFetchContent(firstSegment.getUri(), merged, first)) {
+            for (int i = first; i <= last; i++) {
+                Segment segment = segments.get(i);
+                long length = segment.getByteRange().getLength();
+                // closing the bounded stream skips to the start of the next segment
+                downloadSegment(i, segment, (uri, index) -> new BoundedInputStream(shared, length, false),
+                        completedSet, progress);
+            }
         }
-
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
     }
 
     private void checkIfSegmentsAvailable() {
@@ -303,6 +1304,14 @@ public class HlsMediaProcessor {
         return Paths.get(outputDir + "/segment_" + (index + 1) + ".ts");
     }
 
+    private File getRawSegmentFileName(int index) {
+        return Paths.get(outputDir + "/segment_" + (index + 1) + ".raw");
+    }
+
+    private File getHedgeSegmentFileName(int index) {
+        return Paths.get(outputDir + "/segment_" + (index + 1) + ".hedge");
+    }
+
     private void handlePause() throws InterruptedException {
         if (isPaused.get()) {
             try {
@@ -322,6 +1331,7 @@ public class HlsMediaProcessor {
         checkIfSegmentsAvailable();
         if (isDownloadCancelled()) {
             segmentStateManager.cleanupState();
+            Files.deleteIfExists(getSnapshotFile());
             updateState(DownloadState.CANCELLED, MESSAGE_CANCELLED_BY_USER);
         } else if (isPaused.get()) {
             updateState(DownloadState.PAUSED, "");
@@ -336,12 +1346,22 @@ public class HlsMediaProcessor {
                 }
                 tsSegments.add(segmentFile);
             }
-            segmentCombiner.combineSegments(tsSegments, outputDir, outputFile);
+            if (trackStarts != null) {
+                List<List<File>> tracks = new ArrayList<>();
+                for (int i = 0; i < trackStarts.length; i++) {
+                    int end = i + 1 < trackStarts.length ? trackStarts[i + 1] : tsSegments.size();
+                    tracks.add(tsSegments.subList(trackStarts[i], end));
+                }
+                segmentCombiner.combineTracks(tracks, outputDir, outputFile);
+            } else {
+                segmentCombiner.combineSegments(tsSegments, outputDir, outputFile);
+            }
             if (doCleanupSegments) {
                 cleanupSegmentsFiles();
             }
             updateState(DownloadState.COMPLETED, "");
             segmentStateManager.cleanupState();
+            Files.deleteIfExists(getSnapshotFile());
         }
     }
 
@@ -410,34 +1430,62 @@ public class HlsMediaProcessor {
         return isCancelled.get() || cancellationRequested.get() || Thread.interrupted();
     }
 
-    private InputStream callFetchContent(URI uri, int segmentIndex) throws IOException{
-        int attempt = 0;
-        InputStream stream = null;
-        while (attempt < MAX_DOWNLOAD_RETRIES) {
-            try {
-                System.out.println("Fetching URI: " + uri + " (Attempt " + (attempt + 1) + ")");
-                stream = fetcher.fetchContent(uri);
-                break;
-            } catch (SocketException | SocketTimeoutException e) {
-                System.err.println(e.getClass().getSimpleName() + " while fetching " + uri + ": " + e.getMessage());
-                attempt++;
+    private InputStream callFetchContent(URI uri, int segmentIndex) throws IOException {
+        ByteRange range = segmentIndex >= 0 && segments != null ? segments.get(segmentIndex).getByteRange() : null;
+        return callFetchContent(uri, range, segmentIndex);
+    }
 
-                if (attempt == MAX_DOWNLOAD_RETRIES) {
-                    throw e;
-                }
+    private InputStream callFetchContent(URI uri, ByteRange range, int segmentIndex) throws IOException {
+        InputStream stream = ResumingInputStream.open(position -> openContent(uri, range, position), retryPolicy,
+                (e, attempt) -> {
+                    System.err.println(e.getClass().getSimpleName() + " while fetching " + uri + ": "
+                            + e.getMessage() + " (Attempt " + attempt + ")");
+                    if (concurrencyLimiter != null) {
+                        concurrencyLimiter.onDropped();
+                    }
+                }, range != null ? range.getLength() : -1);
 
-                // sleep before retry
-                try {
-                    int delay = DOWNLOAD_RETRY_DELAY_MS * (1 << attempt); // Exponential backoff: 1s, 2s, 4s
-                    Thread.sleep(delay);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Interrupted during retry delay", ie);
-                }
-            }
+        return rateLimiter != null ? new ThrottledInputStream(stream, rateLimiter) : stream;
+    }
+
+    /**
+     * Opens the content of {@code uri}, or of its {@code range}, without the first
+     * {@code position} bytes, which were already read before the transfer broke.
+     */
+    private InputStream openContent(URI uri, ByteRange range, long position) throws IOException {
+        if (position == 0) {
+            System.out.println("Fetching URI: " + uri);
+            return range != null
+                    ? fetcher.fetchContent(uri, range.getOffset(), range.getLength())
+                    : fetcher.fetchContent(uri);
+        }
+        System.out.println("Resuming URI: " + uri + " at byte " + position);
+        if (range != null) {
+            return fetcher.fetchContent(uri, range.getOffset() + position, range.getLength() - position);
         }
+        long size = probeContentLength(uri);
+        if (size > position) {
+            return fetcher.fetchContent(uri, position, size - position);
+        }
+        // unknown size, fetch it all again and skip what was read
+        return BoundedInputStream.range(fetcher.fetchContent(uri), position, Long.MAX_VALUE);
+    }
 
-        return stream;
+    /**
+     * The size is only an optimization, so a failed request for it does not fail the download.
+     *
+     * @return the size of the content at {@code uri}, -1 if it is unknown or the request failed.
+     * @throws InterruptedIOException if interrupted or cancelled.
+     */
+    private long probeContentLength(URI uri) throws InterruptedIOException {
+        try {
+            return fetcher.fetchContentLength(uri);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            System.err.println("Size of " + uri + " unknown: " + e.getMessage());
+            return -1;
+        }
     }
 
     /**
@@ -509,7 +1557,7 @@ public class HlsMediaProcessor {
             }
             try {
                 // expect wrapped stream from Decryptor as return
-                return decryptor.decrypt(originalStream, key, segment.getEncryptionInfo(), segmentIndex);
+                return decryptor.decrypt(originalStream, key, segment.getEncryptionInfo(), indexInTrack(segmentIndex));
             } catch (GeneralSecurityException e) {
                 try {
                     originalStream.close();
@@ -522,8 +1570,24 @@ public class HlsMediaProcessor {
         return originalStream; // Return original stream if no decryption
     }
 
+    /**
+     * @return the index of the segment within the media playlist it belongs to.
+     */
+    private int indexInTrack(int segmentIndex) {
+        int[] starts = trackStarts;
+        if (starts == null) {
+            return segmentIndex;
+        }
+        int track = starts.length - 1;
+        while (track > 0 && starts[track] > segmentIndex) {
+            track--;
+        }
+        return segmentIndex - starts[track];
+    }
+
     InputStream processSegment(HlsParser.Segment segment, int segmentIndex) throws IOException {
-        return processSegment(segment, segmentIndex, this::callFetchContent);
+        return processSegment(segment, segmentIndex,
+                (uri, index) -> callFetchContent(uri, segment.getByteRange(), index));
     }
 
     /**
@@ -569,6 +1633,261 @@ public class HlsMediaProcessor {
         }
     }
 
+    /**
+     * The state of a {@link #downloadAdaptive(URI, AdaptiveVariantSelector)} run.
+     */
+    private class AdaptiveDownload {
+        private static final double MAX_DURATION_DIFFERENCE_SECONDS = 0.5;
+
+        private final AdaptiveVariantSelector selector;
+        private final List<VariantStream> variants; // ascending bandwidth
+        private final List<MediaPlaylist> playlists;
+        private final double contentSeconds;
+        private final long startNanos = System.nanoTime();
+        private double startedSeconds; // content of the segments handed out so far
+        private VariantStream current;
+
+        AdaptiveDownload(AdaptiveVariantSelector selector, List<VariantStream> variants, List<MediaPlaylist> playlists) {
+            this.selector = selector;
+            this.variants = variants;
+            this.playlists = playlists;
+            double duration = 0;
+            for (Segment segment : playlists.get(0).getSegments()) {
+                duration += segment.getDuration();
+            }
+            this.contentSeconds = duration;
+        }
+
+        boolean isSegmentAligned() {
+            MediaPlaylist first = playlists.get(0);
+            for (MediaPlaylist other : playlists) {
+                if (other.getMediaSequence() != first.getMediaSequence()
+                        || other.getSegments().size() != first.getSegments().size()) {
+                    return false;
+                }
+                for (int i = 0; i < first.getSegments().size(); i++) {
+                    double difference = first.getSegments().get(i).getDuration() - other.getSegments().get(i).getDuration();
+                    if (Math.abs(difference) > MAX_DURATION_DIFFERENCE_SECONDS) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        VariantStream select(double remainingSeconds) {
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            double throughput = throughputMeter.getBitsPerSecond() * numThreads;
+            return selector.select(variants, throughput, contentSeconds, remainingSeconds, elapsedSeconds);
+        }
+
+        /**
+         * Chooses the variant for the segment at {@code index} and stores its segment in
+         * {@link #segments}, so byte ranges are looked up in the chosen playlist.
+         */
+        synchronized Segment segmentFor(int index) {
+            VariantStream variant = select(contentSeconds - startedSeconds);
+            if (variant != current) {
+                System.out.println("Segment " + (index + 1) + ": switching to variant " + variant.getUri()
+                        + " (BANDWIDTH=" + variant.getBandwidth() + ")");
+                current = variant;
+            }
+            Segment segment = playlists.get(variants.indexOf(variant)).getSegments().get(index);
+            startedSeconds += segment.getDuration();
+            segments.set(index, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * The state of a {@link #downloadLowLatency(URI)} run.
+     */
+    private class LowLatencyCapture {
+        private static final long MIN_RELOAD_DELAY_MS = 100;
+
+        private final URI uri;
+        private final List<Segment> captured = new ArrayList<>();
+        private MediaPlaylist current;
+        private long nextMsn = -1; // media sequence number of the segment being captured
+        private int partsDone;     // parts of nextMsn already appended to its raw file
+        private boolean rawWritten; // false while all parts of nextMsn so far were gaps
+        private URI preloadUri;    // the part hint the pending preload belongs to
+        private long preloadStart;
+        private Future<byte[]> preload;
+
+        LowLatencyCapture(URI uri) {
+            this.uri = uri;
+        }
+
+        void run() throws IOException, InterruptedException {
+            while (true) {
+                handlePause();
+                if (isDownloadCancelled()) {
+                    throw new DownloadCancelledException("Download cancelled");
+                }
+                current = current == null ? parser.parse(uri) : parser.parseBlockingReload(current, uri);
+                captureAvailable();
+                if (current.isEndList() || lowLatencyStopRequested.get()) {
+                    return;
+                }
+                if (!canBlockReload()) {
+                    Thread.sleep(reloadDelayMillis());
+                }
+            }
+        }
+
+        private boolean canBlockReload() {
+            return current.getServerControl() != null && current.getServerControl().isCanBlockReload();
+        }
+
+        private long reloadDelayMillis() {
+            double seconds = current.getPartTarget() > 0 ? current.getPartTarget() : current.getTargetDuration() / 2;
+            return Math.max(MIN_RELOAD_DELAY_MS, (long) (seconds * 1000));
+        }
+
+        private void captureAvailable() throws IOException {
+            long firstMsn = current.getMediaSequence();
+            List<Segment> listed = current.getSegments();
+            long edgeMsn = firstMsn + listed.size(); // the segment in progress
+            if (nextMsn < 0) {
+                // start at the live edge
+                nextMsn = current.getTrailingParts().isEmpty() ? Math.max(firstMsn, edgeMsn - 1) : edgeMsn;
+            } else if (nextMsn < firstMsn) {
+                System.err.println("Warning: segments " + nextMsn + " to " + (firstMsn - 1) + " expired before they were captured");
+                nextMsn = firstMsn;
+                partsDone = 0;
+                rawWritten = false;
+            }
+
+            while (nextMsn < edgeMsn) {
+                Segment segment = listed.get((int) (nextMsn - firstMsn));
+                List<PartialSegment> parts = segment.getParts();
+                if (partsDone > 0 && partsDone <= parts.size()) {
+                    appendParts(parts);
+                } else {
+                    // nothing fetched yet or the parts already left the playlist
+                    fetchSegment(segment);
+                }
+                completeSegment(segment);
+            }
+            if (nextMsn == edgeMsn) {
+                appendParts(current.getTrailingParts());
+            }
+            preloadHintedPart();
+        }
+
+        private void appendParts(List<PartialSegment> parts) throws IOException {
+            File rawFile = getRawSegmentFileName(captured.size());
+            for (; partsDone < parts.size(); partsDone++) {
+                PartialSegment part = parts.get(partsDone);
+                if (part.isGap()) {
+                    continue;
+                }
+                try (InputStream in = openPart(part);
+                     OutputStream out = new FileOutputStream(rawFile, rawWritten)) {
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                }
+                rawWritten = true;
+            }
+        }
+
+        private void fetchSegment(Segment segment) throws IOException {
+            try (InputStream in = callFetchContent(segment.getUri(), segment.getByteRange(), UNUSED_INDEX)) {
+                Files.copy(in, getRawSegmentFileName(captured.size()), StandardCopyOption.REPLACE_EXISTING);
+            }
+            rawWritten = true;
+        }
+
+        private void completeSegment(Segment segment) throws IOException {
+            if (!rawWritten) {
+                // every part was a gap, there is no media to capture
+                System.err.println("Warning: skipping segment " + nextMsn + ", all its parts are gaps");
+                nextMsn++;
+                partsDone = 0;
+                return;
+            }
+            int index = captured.size();
+            File rawFile = getRawSegmentFileName(index);
+            fetchEncryptionKeys(Collections.singletonList(segment));
+            // the media sequence number is the default IV of the segment
+            try (InputStream in = processSegment(segment, (int) nextMsn, (u, i) -> new FileInputStream(rawFile))) {
+                Files.copy(in, getSegmentFileName(index), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.delete(rawFile);
+            captured.add(segment);
+            nextMsn++;
+            partsDone = 0;
+            rawWritten = false;
+            progressCallback.onProgressUpdate(captured.size(), -1);
+        }
+
+        private InputStream openPart(PartialSegment part) throws IOException {
+            ByteRange range = part.getByteRange();
+            long start = range != null ? range.getOffset() : 0;
+            if (preload != null && part.getUri().equals(preloadUri) && start == preloadStart) {
+                Future<byte[]> hinted = preload;
+                preload = null;
+                try {
+                    InputStream in = new ByteArrayInputStream(hinted.get());
+                    return range != null ? new BoundedInputStream(in, range.getLength(), true) : in;
+                } catch (ExecutionException e) {
+                    System.err.println("Preload of " + preloadUri + " failed, fetching again: " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DownloadCancelledException("Download cancelled while waiting for " + preloadUri);
+                }
+            }
+            return callFetchContent(part.getUri(), range, UNUSED_INDEX);
+        }
+
+        private void preloadHintedPart() {
+            PreloadHint hint = null;
+            for (PreloadHint candidate : current.getPreloadHints()) {
+                if (PreloadHint.TYPE_PART.equals(candidate.getType())) {
+                    hint = candidate;
+                    break;
+                }
+            }
+            if (hint == null) {
+                return;
+            }
+            if (preload != null) {
+                if (hint.getUri().equals(preloadUri) && hint.getByteRangeStart() == preloadStart) {
+                    return; // still waiting for it
+                }
+                preload.cancel(true);
+            }
+            PreloadHint preloadHint = hint;
+            preloadUri = hint.getUri();
+            preloadStart = hint.getByteRangeStart();
+            preload = executor.submit(() -> {
+                try (InputStream in = openPreloadHint(preloadHint)) {
+                    return LegacyInputStream.readAllBytes(in);
+                }
+            });
+        }
+
+        private InputStream openPreloadHint(PreloadHint hint) throws IOException {
+            long start = hint.getByteRangeStart();
+            if (hint.getByteRangeLength() >= 0) {
+                return callFetchContent(hint.getUri(), new ByteRange(hint.getByteRangeLength(), start), UNUSED_INDEX);
+            }
+            InputStream in = callFetchContent(hint.getUri(), null, UNUSED_INDEX);
+            return start > 0 ? BoundedInputStream.range(in, start, Long.MAX_VALUE) : in;
+        }
+
+        void cancelPreload() {
+            if (preload != null) {
+                preload.cancel(true);
+                preload = null;
+            }
+        }
+    }
+
     /**
      * Interface for managing segment download state, including loading, saving, and cleaning up state.
      */
@@ -627,12 +1946,29 @@ public class HlsMediaProcessor {
          * @throws IOException I/O work
          */
         void combineSegments(List<File> tsSegments, String outputDir, String outputFile) throws IOException;
+
+        /**
+         * combine several tracks, e.g. video and separate audio renditions, into a single file.
+         * <p>
+         * The default implementation only supports a single track.
+         * @param tracks     one list of segment files per track, the variant stream first
+         * @param outputDir  in which folder you should operate
+         * @param outputFile the output file that should be used
+         * @throws IOException I/O work or more than one track
+         */
+        default void combineTracks(List<List<File>> tracks, String outputDir, String outputFile) throws IOException {
+            if (tracks.size() != 1) {
+                throw new IOException("Can't mux " + tracks.size() + " tracks with " + getClass().getSimpleName()
+                        + ", use FFmpegSegmentCombiner");
+            }
+            combineSegments(tracks.get(0), outputDir, outputFile);
+        }
     }
 
     /**
      * Default implementation of SegmentCombiner. Just concat files together.
      */
-    private static class DefaultSegmentCombiner implements SegmentCombiner {
+    static class DefaultSegmentCombiner implements SegmentCombiner {
         @Override
         public void combineSegments(List<File> tsSegments, String outputDir, String outputFile) throws IOException {
             try (FileOutputStream fos = new FileOutputStream(outputFile, true)) {
@@ -681,7 +2017,7 @@ public class HlsMediaProcessor {
                 iv[15] = (byte) (segmentIndex & 0xFF);
                 return iv;
             }
-            if (ivStr.startsWith("0x")) {
+            if (ivStr.startsWith("0x") || ivStr.startsWith("0X")) {
                 ivStr = ivStr.substring(2);
             }
             if (ivStr.length() != 32) {
@@ -708,8 +2044,82 @@ public class HlsMediaProcessor {
             connection.setRequestMethod("GET");
             connection.setConnectTimeout(10000);
             connection.setReadTimeout(10000);
+            checkStatus(connection, uri);
             return connection.getInputStream();
         }
+
+        @Override
+        public InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+            if (checkStatus(connection, uri) == HttpURLConnection.HTTP_PARTIAL) {
+                return new BoundedInputStream(connection.getInputStream(), length, true);
+            }
+            // server ignored the Range header and sends the whole resource
+            return BoundedInputStream.range(connection.getInputStream(), offset, length);
+        }
+
+        @Override
+        public long fetchContentLength(URI uri) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return -1;
+            }
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                return FetchResponse.notModified(eTag, lastModified);
+            }
+            return new FetchResponse(checkStatus(connection, uri), connection.getInputStream(),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        }
+
+        /**
+         * @return the status code
+         * @throws HttpStatusException for error responses.
+         */
+        private static int checkStatus(HttpURLConnection connection, URI uri) throws IOException {
+            int code = connection.getResponseCode();
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                connection.disconnect();
+                throw new HttpStatusException(code, uri);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Callback interface for the downloaded segments in playback order, see
+     * {@link #setPlaybackWindow(int, PlaybackPrefixCallback)}.
+     */
+    public interface PlaybackPrefixCallback {
+        /**
+         * Called from the download threads, with a growing prefix. Calls from different
+         * threads may overlap.
+         * @param prefix the number of segments from the start that are all downloaded.
+         * @param totalSegments total segments to download.
+         */
+        void onPrefixAvailable(int prefix, int totalSegments);
     }
 
     /**
@@ -0,0 +1,203 @@
+package com.github.evermindzz.hlsdownloader;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decides when a slow segment download gets a second, hedged request.
+ * <p>
+ * Used by {@link HlsMediaProcessor#setHedging(SegmentHedger)}. The time to first byte and the
+ * total time of the last {@link #WINDOW_SIZE} segments are kept. A segment whose first byte
+ * takes longer than the {@link #setPercentile(double) percentile} of the recent times to first
+ * byte, or whose transfer takes longer than the percentile of the recent total times, is
+ * requested a second time, optionally from an {@link #setAlternateUri(UnaryOperator) alternate
+ * URI}. The request finishing first wins, the other is cancelled.
+ * <p>
+ * At most {@link #setMaxExtraLoad(double) maxExtraLoad} of the segments are hedged, so a slow
+ * origin does not get twice the requests. No segment is hedged before
+ * {@link #setMinSamples(int) minSamples} segments finished.
+ * <p>
+ * The class is thread-safe.
+ */
+public class SegmentHedger {
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final double DEFAULT_MAX_EXTRA_LOAD = 0.05;
+    public static final int DEFAULT_MIN_SAMPLES = 10;
+    /** The number of recent segments the thresholds are taken from. */
+    public static final int WINDOW_SIZE = 64;
+
+    private double percentile = DEFAULT_PERCENTILE;
+    private double maxExtraLoad = DEFAULT_MAX_EXTRA_LOAD;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private UnaryOperator<URI> alternateUri = UnaryOperator.identity();
+
+    // guarded by this
+    private final long[] firstByteNanos = new long[WINDOW_SIZE];
+    private final long[] totalNanos = new long[WINDOW_SIZE];
+    private int samples;
+    private long segments;
+    private long hedges;
+    private long hedgeWins;
+
+    /**
+     * @param percentile the share of recent segments a segment has to be slower than to be
+     *                   hedged, in (0, 1). Default is {@link #DEFAULT_PERCENTILE}.
+     */
+    public void setPercentile(double percentile) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param maxExtraLoad the maximum share of segments that get a hedged request, in [0, 1].
+     *                     Default is {@link #DEFAULT_MAX_EXTRA_LOAD}.
+     */
+    public void setMaxExtraLoad(double maxExtraLoad) {
+        if (maxExtraLoad < 0 || maxExtraLoad > 1) {
+            throw new IllegalArgumentException("maxExtraLoad must be in [0, 1]: " + maxExtraLoad);
+        }
+        this.maxExtraLoad = maxExtraLoad;
+    }
+
+    /**
+     * @param minSamples the number of finished segments needed before hedging, at most
+     *                   {@link #WINDOW_SIZE}. Default is {@link #DEFAULT_MIN_SAMPLES}.
+     */
+    public void setMinSamples(int minSamples) {
+        if (minSamples < 1 || minSamples > WINDOW_SIZE) {
+            throw new IllegalArgumentException("minSamples must be in [1, " + WINDOW_SIZE + "]: " + minSamples);
+        }
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * @param alternateUri maps the URI of a segment to the URI of its hedged request, e.g. on a
+     *                     second CDN. null hedges against the same URI, which is the default.
+     */
+    public void setAlternateUri(UnaryOperator<URI> alternateUri) {
+        this.alternateUri = alternateUri != null ? alternateUri : UnaryOperator.identity();
+    }
+
+    /**
+     * @param uri the URI of a segment.
+     * @return the URI for its hedged request.
+     */
+    public URI alternateUri(URI uri) {
+        return alternateUri.apply(uri);
+    }
+
+    /**
+     * @return the time to first byte after which a segment is hedged, -1 if there are too few
+     * samples yet.
+     */
+    public synchronized long getFirstByteThresholdNanos() {
+        return percentileOf(firstByteNanos);
+    }
+
+    /**
+     * @return the total time after which a segment is hedged, -1 if there are too few samples yet.
+     */
+    public synchronized long getDurationThresholdNanos() {
+        return percentileOf(totalNanos);
+    }
+
+    /**
+     * Counts a segment download, the base of {@code maxExtraLoad}.
+     */
+    public synchronized void onSegmentStarted() {
+        segments++;
+    }
+
+    /**
+     * Asks for a hedged request of a slow segment.
+     *
+     * @return true if the request may be sent, false if it would exceed {@code maxExtraLoad}.
+     */
+    public synchronized boolean tryHedge() {
+        if (hedges + 1 > maxExtraLoad * segments) {
+            return false;
+        }
+        hedges++;
+        return true;
+    }
+
+    /**
+     * Adds the times of a finished segment, those of the request that won.
+     *
+     * @param firstByteNanos the time to first byte.
+     * @param totalNanos     the time of the whole transfer.
+     * @param hedgeWon       true if the hedged request finished first.
+     */
+    public synchronized void onCompleted(long firstByteNanos, long totalNanos, boolean hedgeWon) {
+        int slot = samples % WINDOW_SIZE;
+        this.firstByteNanos[slot] = firstByteNanos;
+        this.totalNanos[slot] = totalNanos;
+        samples++;
+        if (hedgeWon) {
+            hedgeWins++;
+        }
+    }
+
+    /**
+     * @return a snapshot of the counters.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(segments, hedges, hedgeWins);
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private long percentileOf(long[] window) {
+        int count = Math.min(samples, WINDOW_SIZE);
+        if (count < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+    }
+
+    /**
+     * Statistics of a {@link SegmentHedger}.
+     */
+    public static final class Stats {
+        private final long segments;
+        private final long hedges;
+        private final long hedgeWins;
+
+        Stats(long segments, long hedges, long hedgeWins) {
+            this.segments = segments;
+            this.hedges = hedges;
+            this.hedgeWins = hedgeWins;
+        }
+
+        /**
+         * @return the number of segments downloaded with hedging enabled.
+         */
+        public long getSegments() { return segments; }
+
+        /**
+         * @return the number of hedged requests sent.
+         */
+        public long getHedges() { return hedges; }
+
+        /**
+         * @return the number of hedged requests that finished before the original one.
+         */
+        public long getHedgeWins() { return hedgeWins; }
+
+        /**
+         * @return the extra requests as share of the segments.
+         */
+        public double getExtraLoad() { return segments > 0 ? (double) hedges / segments : 0; }
+
+        @Override
+        public String toString() {
+            return "Stats{segments=" + segments + ", hedges=" + hedges + ", hedgeWins=" + hedgeWins + "}";
+        }
+    }
+}
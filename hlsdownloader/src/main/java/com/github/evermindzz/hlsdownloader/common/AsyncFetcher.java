@@ -0,0 +1,45 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A {@link Fetcher} that can also start requests without blocking the calling thread.
+ * <p>
+ * The returned futures complete with the content stream as soon as the response headers
+ * arrived, or exceptionally with an {@link IOException} as cause. The caller has to close the
+ * stream.
+ */
+public interface AsyncFetcher extends Fetcher {
+    /**
+     * Starts fetching content from the given URI.
+     *
+     * @param uri The URI to fetch content from.
+     * @return A future of the content stream.
+     */
+    CompletableFuture<InputStream> fetchContentAsync(URI uri);
+
+    /**
+     * Starts fetching a byte range of the content (HTTP Range request).
+     * <p>
+     * The default implementation fetches the whole content via {@link #fetchContentAsync(URI)}
+     * and skips everything outside the range.
+     *
+     * @param uri    The URI to fetch content from.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return A future of a stream containing exactly the requested range.
+     */
+    default CompletableFuture<InputStream> fetchContentAsync(URI uri, long offset, long length) {
+        return fetchContentAsync(uri).thenApply(in -> {
+            try {
+                return BoundedInputStream.range(in, offset, length);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that returns at most a given number of bytes of the wrapped stream.
+ * <p>
+ * If the bounded stream does not own the wrapped stream, {@link #close()} skips the unread
+ * rest of the range instead of closing the wrapped stream. That way several bounded streams
+ * can be read one after another from one shared stream.
+ */
+public class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+    private final boolean ownsStream;
+
+    /**
+     * @param in         the stream to read from
+     * @param limit      the maximum number of bytes to return
+     * @param ownsStream true to close {@code in} on {@link #close()}, false to only skip to
+     *                   the end of the range.
+     */
+    public BoundedInputStream(InputStream in, long limit, boolean ownsStream) {
+        super(in);
+        this.remaining = limit;
+        this.ownsStream = ownsStream;
+    }
+
+    /**
+     * Skips {@code offset} bytes of {@code in} and limits the rest to {@code length} bytes.
+     *
+     * @param in     the stream to read from, it will be owned by the returned stream
+     * @param offset the number of bytes to skip
+     * @param length the number of bytes to return
+     * @return the bounded stream
+     * @throws IOException if skipping fails or the stream ends before {@code offset}.
+     */
+    public static BoundedInputStream range(InputStream in, long offset, long length) throws IOException {
+        try {
+            skipFully(in, offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, length, true);
+    }
+
+    /**
+     * Skips exactly {@code count} bytes.
+     *
+     * @param in    the stream
+     * @param count the number of bytes to skip
+     * @throws IOException if the stream ends before.
+     */
+    public static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of stream, " + count + " bytes left to skip");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) {
+            remaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        if (skipped > 0) {
+            remaining -= skipped;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsStream) {
+            in.close();
+        } else if (remaining > 0) {
+            skipFully(in, remaining);
+            remaining = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response of a {@link Fetcher} request that carries more than just the content,
+ * e.g. the status of a conditional request and the cache validators of the resource.
+ */
+public class FetchResponse implements Closeable {
+    public static final int HTTP_OK = 200;
+    public static final int HTTP_NOT_MODIFIED = 304;
+
+    private final int statusCode;
+    private final InputStream body;
+    private final String eTag;
+    private final String lastModified;
+
+    /**
+     * @param statusCode   the HTTP status code, {@link #HTTP_OK} for non HTTP sources.
+     * @param body         the content. May be null for {@link #HTTP_NOT_MODIFIED}.
+     * @param eTag         the value of the ETag header or null.
+     * @param lastModified the value of the Last-Modified header or null.
+     */
+    public FetchResponse(int statusCode, InputStream body, String eTag, String lastModified) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param eTag         the value of the ETag header or null.
+     * @param lastModified the value of the Last-Modified header or null.
+     * @return a response without body telling the cached content is still valid.
+     */
+    public static FetchResponse notModified(String eTag, String lastModified) {
+        return new FetchResponse(HTTP_NOT_MODIFIED, null, eTag, lastModified);
+    }
+
+    public int getStatusCode() { return statusCode; }
+    public InputStream getBody() { return body; }
+    public String getETag() { return eTag; }
+    public String getLastModified() { return lastModified; }
+
+    /**
+     * @return true if the server confirmed the cached content is still up to date.
+     */
+    public boolean isNotModified() {
+        return statusCode == HTTP_NOT_MODIFIED;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (body != null) {
+            body.close();
+        }
+    }
+}
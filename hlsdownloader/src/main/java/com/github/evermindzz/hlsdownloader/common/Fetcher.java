@@ -19,4 +19,50 @@ public interface Fetcher {
      * @throws IOException If an I/O error occurs during fetching.
      */
     InputStream fetchContent(URI uri) throws IOException;
+
+    /**
+     * Fetches a byte range of the content (HTTP Range request).
+     * <p>
+     * The default implementation fetches the whole content via {@link #fetchContent(URI)}
+     * and skips everything outside the range.
+     *
+     * @param uri    The URI to fetch content from.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return An InputStream containing exactly the requested range.
+     * @throws IOException If an I/O error occurs during fetching.
+     */
+    default InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+        return BoundedInputStream.range(fetchContent(uri), offset, length);
+    }
+
+    /**
+     * Returns the size of the content without fetching it (HTTP HEAD request).
+     * <p>
+     * The default implementation does not know the size.
+     *
+     * @param uri The URI of the content.
+     * @return the size in bytes or -1 if it is unknown.
+     * @throws IOException If an I/O error occurs.
+     */
+    default long fetchContentLength(URI uri) throws IOException {
+        return -1;
+    }
+
+    /**
+     * Fetches content only if it changed since it was fetched the last time (conditional GET).
+     * <p>
+     * Implementations supporting conditional requests send {@code If-None-Match} and
+     * {@code If-Modified-Since} and return {@link FetchResponse#notModified(String, String)}
+     * on HTTP 304. The default implementation does a plain {@link #fetchContent(URI)}.
+     *
+     * @param uri          The URI to fetch content from.
+     * @param eTag         The ETag of the cached content or null.
+     * @param lastModified The Last-Modified value of the cached content or null.
+     * @return the response. The caller has to close it.
+     * @throws IOException If an I/O error occurs during fetching.
+     */
+    default FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+        return new FetchResponse(FetchResponse.HTTP_OK, fetchContent(uri), null, null);
+    }
 }
@@ -0,0 +1,178 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP {@link AsyncFetcher} that reuses connections.
+ * <p>
+ * This is the Java 8 implementation. It relies on the HTTP/1.1 keep-alive connection cache of
+ * {@link HttpURLConnection}: a connection goes back to the cache when the returned stream is
+ * read to the end or closed, and error responses are drained so their connection can be
+ * reused as well. Async requests run on a cached pool of daemon threads, which is shut down
+ * by {@link #close()}.
+ * <p>
+ * The multi-release JAR contains a Java 11 version in {@code META-INF/versions/11} that uses
+ * {@code java.net.http.HttpClient}: it multiplexes all requests to an origin over one HTTP/2
+ * connection and falls back to pooled HTTP/1.1 keep-alive connections if the server does not
+ * support HTTP/2.
+ * <p>
+ * Responses with a status of 400 or above fail with an IOException. Instances are thread-safe.
+ */
+public class HttpFetcher implements AsyncFetcher, Closeable {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private ExecutorService asyncExecutor; // created with the first async request
+
+    public HttpFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * @param connectTimeoutMillis timeout for establishing a connection.
+     * @param readTimeoutMillis    timeout for waiting on the response.
+     */
+    public HttpFetcher(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri) throws IOException {
+        return get(uri, -1, -1);
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+        return get(uri, offset, length);
+    }
+
+    @Override
+    public long fetchContentLength(URI uri) throws IOException {
+        HttpURLConnection connection = open(uri);
+        connection.setRequestMethod("HEAD");
+        // servers that do not allow HEAD answer e.g. 405, the size is just unknown then
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            return -1;
+        }
+        return connection.getContentLengthLong();
+    }
+
+    @Override
+    public FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+        HttpURLConnection connection = open(uri);
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        int code = checkStatus(connection, uri);
+        if (code == FetchResponse.HTTP_NOT_MODIFIED) {
+            return FetchResponse.notModified(eTag, lastModified);
+        }
+        return new FetchResponse(code, connection.getInputStream(),
+                connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchContentAsync(URI uri) {
+        return fetchContentAsync(uri, -1, -1);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchContentAsync(URI uri, long offset, long length) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(uri, offset, length);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, asyncExecutor());
+    }
+
+    /**
+     * Stops the threads of async requests. Streams returned before stay usable.
+     */
+    @Override
+    public synchronized void close() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService asyncExecutor() {
+        if (asyncExecutor == null) {
+            AtomicInteger threadId = new AtomicInteger();
+            asyncExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setName("HttpFetcher-" + threadId.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * @param offset the first byte of the range or -1 for the whole content.
+     */
+    private InputStream get(URI uri, long offset, long length) throws IOException {
+        HttpURLConnection connection = open(uri);
+        if (offset >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        }
+        int code = checkStatus(connection, uri);
+        if (offset < 0) {
+            return connection.getInputStream();
+        }
+        if (code == HTTP_PARTIAL) {
+            return new BoundedInputStream(connection.getInputStream(), length, true);
+        }
+        // server ignored the Range header and sends the whole resource
+        return BoundedInputStream.range(connection.getInputStream(), offset, length);
+    }
+
+    private HttpURLConnection open(URI uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        return connection;
+    }
+
+    /**
+     * @return the status code
+     * @throws IOException for error responses, after their body was drained.
+     */
+    private static int checkStatus(HttpURLConnection connection, URI uri) throws IOException {
+        int code = connection.getResponseCode();
+        if (code >= HTTP_BAD_REQUEST) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                try (InputStream in = error) {
+                    byte[] buffer = new byte[4096];
+                    while (in.read(buffer) != -1) {
+                        // drain, so the connection can be reused
+                    }
+                }
+            }
+            throw new HttpStatusException(code, uri);
+        }
+        return code;
+    }
+}
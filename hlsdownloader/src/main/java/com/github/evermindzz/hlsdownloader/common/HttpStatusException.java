@@ -0,0 +1,33 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Thrown by a {@link Fetcher} for an HTTP error response, so callers can decide by the status
+ * code, e.g. {@link RetryPolicy} retries 429 and 5xx.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final URI uri;
+
+    /**
+     * @param statusCode the HTTP status code of the response.
+     * @param uri        the requested URI.
+     */
+    public HttpStatusException(int statusCode, URI uri) {
+        super("HTTP " + statusCode + " for " + uri);
+        this.statusCode = statusCode;
+        this.uri = uri;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+}
@@ -0,0 +1,692 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An HTTP/1.1 {@link Fetcher} with its own keep-alive connection pool.
+ * <p>
+ * Connections are pooled per origin (scheme, host and port). At most
+ * {@code maxConnectionsPerHost} connections to an origin are open at the same time, further
+ * requests wait until one is returned. A connection goes back to the pool when its response
+ * stream is closed: the rest of the body is drained first, up to
+ * {@link #setMaxDrainBytes(long)} bytes, so the connection can be reused. Idle connections are
+ * closed after {@code idleTimeoutMillis}, and a pooled connection the server closed meanwhile
+ * is replaced transparently. {@link #getStats()} tells how well the pool works.
+ * <p>
+ * Only GET and HEAD over http and https are supported. Redirects are followed, proxies are not used.
+ * Responses with a status of 400 or above fail with an IOException. Instances are thread-safe.
+ * Closing the fetcher closes the idle connections, connections in use are closed when their
+ * stream is closed.
+ */
+public class PooledFetcher implements Fetcher, Closeable {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+    public static final int DEFAULT_TIMEOUT_MS = 10000;
+    public static final long DEFAULT_MAX_DRAIN_BYTES = 256 * 1024;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    private final int maxConnectionsPerHost;
+    private final long idleTimeoutNanos;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private volatile long maxDrainBytes = DEFAULT_MAX_DRAIN_BYTES;
+
+    // guarded by this
+    private final Map<String, HostPool> pools = new HashMap<>();
+    private boolean closed;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long waits;
+    private long waitNanos;
+
+    public PooledFetcher() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of open connections per origin.
+     * @param idleTimeoutMillis     idle connections are closed after this time.
+     */
+    public PooledFetcher(int maxConnectionsPerHost, long idleTimeoutMillis) {
+        this(maxConnectionsPerHost, idleTimeoutMillis, DEFAULT_TIMEOUT_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of open connections per origin.
+     * @param idleTimeoutMillis     idle connections are closed after this time.
+     * @param connectTimeoutMillis  timeout for establishing a connection and for waiting on a
+     *                              free connection of the pool.
+     * @param readTimeoutMillis     timeout for reading from a connection.
+     */
+    public PooledFetcher(int maxConnectionsPerHost, long idleTimeoutMillis, int connectTimeoutMillis, int readTimeoutMillis) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutNanos = idleTimeoutMillis * 1_000_000L;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Set how many unread bytes are drained when a response stream is closed early. If more
+     * are left, the connection is closed instead of being reused.
+     *
+     * @param maxDrainBytes the maximum number of bytes to drain, 0 to never drain.
+     */
+    public void setMaxDrainBytes(long maxDrainBytes) {
+        this.maxDrainBytes = Math.max(0, maxDrainBytes);
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri) throws IOException {
+        return get("GET", uri, Collections.<String, String>emptyMap()).body;
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+        Response response = get("GET", uri, Collections.singletonMap("Range", "bytes=" + offset + "-" + (offset + length - 1)));
+        if (response.code == HTTP_PARTIAL) {
+            return new BoundedInputStream(response.body, length, true);
+        }
+        // server ignored the Range header and sends the whole resource
+        return BoundedInputStream.range(response.body, offset, length);
+    }
+
+    @Override
+    public long fetchContentLength(URI uri) throws IOException {
+        Response response;
+        try {
+            response = get("HEAD", uri, Collections.<String, String>emptyMap());
+        } catch (HttpStatusException e) {
+            return -1; // e.g. 405 from servers that do not allow HEAD, the size is just unknown then
+        }
+        response.body.close();
+        String contentLength = response.header("content-length");
+        if (response.code != HTTP_OK || contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        Response response = get("GET", uri, headers);
+        if (response.code == FetchResponse.HTTP_NOT_MODIFIED) {
+            response.body.close();
+            return FetchResponse.notModified(eTag, lastModified);
+        }
+        return new FetchResponse(response.code, response.body, response.header("etag"), response.header("last-modified"));
+    }
+
+    /**
+     * @return a snapshot of the pool statistics.
+     */
+    public synchronized Stats getStats() {
+        int open = 0;
+        int idle = 0;
+        for (HostPool pool : pools.values()) {
+            open += pool.open;
+            idle += pool.idle.size();
+        }
+        return new Stats(hits, misses, evictions, waits, waitNanos, open, idle);
+    }
+
+    /**
+     * Closes the idle connections. Further requests fail.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (HostPool pool : pools.values()) {
+            for (Connection connection : pool.idle) {
+                connection.close();
+                pool.open--;
+            }
+            pool.idle.clear();
+        }
+        notifyAll();
+    }
+
+    private Response get(String method, URI uri, Map<String, String> headers) throws IOException {
+        URI current = uri;
+        for (int redirects = 0; ; redirects++) {
+            Response response = execute(method, current, headers);
+            String location = response.header("location");
+            if (isRedirect(response.code) && location != null && redirects < MAX_REDIRECTS) {
+                response.body.close();
+                current = current.resolve(location);
+                continue;
+            }
+            if (response.code >= HTTP_BAD_REQUEST) {
+                response.body.close();
+                throw new HttpStatusException(response.code, current);
+            }
+            return response;
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+    }
+
+    private Response execute(String method, URI uri, Map<String, String> headers) throws IOException {
+        String origin = origin(uri);
+        while (true) {
+            Connection connection = acquire(origin, uri);
+            try {
+                Response response = connection.send(method, uri, headers);
+                response.body = new ResponseStream(connection, response, "HEAD".equals(method));
+                return response;
+            } catch (IOException e) {
+                release(connection, false);
+                if (!connection.reused) {
+                    throw e;
+                }
+                // the server closed the pooled connection meanwhile, try the next one
+                synchronized (this) {
+                    evictions++;
+                }
+            }
+        }
+    }
+
+    private Connection acquire(String origin, URI uri) throws IOException {
+        HostPool pool;
+        synchronized (this) {
+            long start = System.nanoTime();
+            boolean waited = false;
+            while (true) {
+                if (closed) {
+                    throw new IOException("PooledFetcher is closed");
+                }
+                evictIdle(System.nanoTime());
+                pool = pools.get(origin);
+                if (pool == null) {
+                    pool = new HostPool();
+                    pools.put(origin, pool);
+                }
+                if (!pool.idle.isEmpty() || pool.open < maxConnectionsPerHost) {
+                    break;
+                }
+                long remainingMillis = connectTimeoutMillis - (System.nanoTime() - start) / 1_000_000L;
+                if (remainingMillis <= 0) {
+                    throw new IOException("Timed out waiting for a connection to " + origin);
+                }
+                waited = true;
+                try {
+                    wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a connection to " + origin);
+                }
+            }
+            if (waited) {
+                waits++;
+                waitNanos += System.nanoTime() - start;
+            }
+            Connection idle = pool.idle.pollLast();
+            if (idle != null) {
+                hits++;
+                return idle;
+            }
+            misses++;
+            pool.open++;
+        }
+        try {
+            return Connection.open(origin, uri, connectTimeoutMillis, readTimeoutMillis);
+        } catch (IOException e) {
+            synchronized (this) {
+                pool.open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void release(Connection connection, boolean reusable) {
+        HostPool pool = pools.get(connection.origin);
+        if (reusable && !closed) {
+            connection.reused = true;
+            connection.idleSince = System.nanoTime();
+            pool.idle.addLast(connection);
+        } else {
+            connection.close();
+            pool.open--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout. Must hold the lock.
+     */
+    private void evictIdle(long now) {
+        for (HostPool pool : pools.values()) {
+            Iterator<Connection> it = pool.idle.iterator(); // oldest first
+            while (it.hasNext()) {
+                Connection connection = it.next();
+                if (now - connection.idleSince < idleTimeoutNanos) {
+                    break;
+                }
+                it.remove();
+                connection.close();
+                pool.open--;
+                evictions++;
+            }
+        }
+    }
+
+    private static String origin(URI uri) throws IOException {
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            throw new IOException("Unsupported URI scheme: " + uri);
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("URI without host: " + uri);
+        }
+        return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port(uri);
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Reads a line terminated by LF, without the line terminator.
+     *
+     * @return the line or null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.length() == 0) {
+                    return null;
+                }
+                throw new EOFException("Unexpected end of stream in header line");
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            line.append((char) b);
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Statistics of a {@link PooledFetcher}.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long waits;
+        private final long waitNanos;
+        private final int openConnections;
+        private final int idleConnections;
+
+        Stats(long hits, long misses, long evictions, long waits, long waitNanos, int openConnections, int idleConnections) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.waits = waits;
+            this.waitNanos = waitNanos;
+            this.openConnections = openConnections;
+            this.idleConnections = idleConnections;
+        }
+
+        /**
+         * @return the number of requests that reused a pooled connection.
+         */
+        public long getHits() { return hits; }
+
+        /**
+         * @return the number of requests that opened a new connection.
+         */
+        public long getMisses() { return misses; }
+
+        /**
+         * @return the number of pooled connections closed because they were idle for too long
+         * or the server had closed them.
+         */
+        public long getEvictions() { return evictions; }
+
+        /**
+         * @return the number of requests that had to wait for a connection because of the
+         * per-host limit.
+         */
+        public long getWaits() { return waits; }
+
+        /**
+         * @return the total time requests waited for a connection, in milliseconds.
+         */
+        public long getWaitTimeMillis() { return waitNanos / 1_000_000L; }
+
+        /**
+         * @return the number of open connections, idle ones included.
+         */
+        public int getOpenConnections() { return openConnections; }
+
+        /**
+         * @return the number of idle connections in the pool.
+         */
+        public int getIdleConnections() { return idleConnections; }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", waits=" + waits + ", waitTimeMillis=" + getWaitTimeMillis()
+                    + ", open=" + openConnections + ", idle=" + idleConnections + "}";
+        }
+    }
+
+    /**
+     * The connections of one origin.
+     */
+    private static final class HostPool {
+        final ArrayDeque<Connection> idle = new ArrayDeque<>(); // oldest first
+        int open; // idle and in use
+    }
+
+    /**
+     * Response head and body of a request.
+     */
+    private static final class Response {
+        final boolean http11;
+        final int code;
+        final Map<String, String> headers; // lower case names
+        InputStream body;
+
+        Response(boolean http11, int code, Map<String, String> headers) {
+            this.http11 = http11;
+            this.code = code;
+            this.headers = headers;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+
+    /**
+     * One HTTP/1.1 connection.
+     */
+    private static final class Connection {
+        final String origin;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean reused;
+        long idleSince;
+
+        private Connection(String origin, Socket socket) throws IOException {
+            this.origin = origin;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        static Connection open(String origin, URI uri, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+            String host = uri.getHost();
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1); // IPv6 literal
+            }
+            int port = port(uri);
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                socket.setSoTimeout(readTimeoutMillis);
+                socket.setTcpNoDelay(true);
+                if ("https".equalsIgnoreCase(uri.getScheme())) {
+                    SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(socket, host, port, true);
+                    SSLParameters parameters = ssl.getSSLParameters();
+                    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    ssl.setSSLParameters(parameters);
+                    ssl.startHandshake();
+                    socket = ssl;
+                }
+                return new Connection(origin, socket);
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                throw e;
+            }
+        }
+
+        Response send(String method, URI uri, Map<String, String> headers) throws IOException {
+            StringBuilder request = new StringBuilder(method).append(' ');
+            request.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+            if (uri.getRawQuery() != null) {
+                request.append('?').append(uri.getRawQuery());
+            }
+            request.append(" HTTP/1.1\r\nHost: ").append(uri.getHost());
+            if (uri.getPort() != -1) {
+                request.append(':').append(uri.getPort());
+            }
+            request.append("\r\nConnection: keep-alive\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("\r\n");
+            out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                throw new EOFException("Connection closed by " + origin);
+            }
+            String[] status = statusLine.split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+                throw new IOException("Invalid status line from " + origin + ": " + statusLine);
+            }
+            int code;
+            try {
+                code = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line from " + origin + ": " + statusLine);
+            }
+            Map<String, String> responseHeaders = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    if (!responseHeaders.containsKey(name)) {
+                        responseHeaders.put(name, line.substring(colon + 1).trim());
+                    }
+                }
+            }
+            if (line == null) {
+                throw new EOFException("Connection closed by " + origin);
+            }
+            return new Response(!status[0].equals("HTTP/1.0"), code, responseHeaders);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads the body of a response from its connection and hands the connection back to the
+     * pool when closed.
+     */
+    private final class ResponseStream extends InputStream {
+        private final Connection connection;
+        private final boolean chunked;
+        private final boolean reusable;
+        private long remaining; // of the body or the current chunk, -1 until the connection closes
+        private boolean firstChunk = true;
+        private boolean eof;
+        private boolean closed;
+
+        ResponseStream(Connection connection, Response response, boolean head) throws IOException {
+            this.connection = connection;
+            String connectionHeader = response.header("connection");
+            this.chunked = "chunked".equalsIgnoreCase(response.header("transfer-encoding"));
+            String contentLength = response.header("content-length");
+            if (head || response.code / 100 == 1 || response.code == 204 || response.code == FetchResponse.HTTP_NOT_MODIFIED) {
+                remaining = 0;
+                eof = true;
+            } else if (chunked) {
+                remaining = 0;
+            } else if (contentLength != null) {
+                try {
+                    remaining = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length from " + connection.origin + ": " + contentLength);
+                }
+                eof = remaining == 0;
+            } else {
+                remaining = -1;
+            }
+            // HTTP/1.0 servers keep the connection only on request
+            boolean keepAlive = response.http11
+                    ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+            this.reusable = remaining != -1 && keepAlive;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            if (chunked && remaining == 0) {
+                nextChunk();
+                if (eof) {
+                    return -1;
+                }
+            }
+            int toRead = remaining == -1 ? len : (int) Math.min(len, remaining);
+            int n = connection.in.read(b, off, toRead);
+            if (n == -1) {
+                if (remaining != -1) {
+                    throw new EOFException("Unexpected end of body from " + connection.origin);
+                }
+                eof = true;
+                return -1;
+            }
+            if (remaining != -1) {
+                remaining -= n;
+                if (remaining == 0 && !chunked) {
+                    eof = true;
+                }
+            }
+            return n;
+        }
+
+        private void nextChunk() throws IOException {
+            if (!firstChunk) {
+                readLine(connection.in); // CRLF after the chunk data
+            }
+            firstChunk = false;
+            String line = readLine(connection.in);
+            if (line == null) {
+                throw new EOFException("Unexpected end of chunked body from " + connection.origin);
+            }
+            int extension = line.indexOf(';');
+            String size = (extension >= 0 ? line.substring(0, extension) : line).trim();
+            try {
+                remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size from " + connection.origin + ": " + line);
+            }
+            if (remaining == 0) {
+                // skip the trailer
+                while ((line = readLine(connection.in)) != null && !line.isEmpty()) {
+                    // ignored
+                }
+                eof = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            boolean reuse = reusable;
+            if (!eof && reuse) {
+                try {
+                    byte[] buffer = new byte[8192];
+                    long drained = 0;
+                    long limit = maxDrainBytes;
+                    while (!eof && drained < limit) {
+                        int n = read(buffer, 0, (int) Math.min(buffer.length, limit - drained));
+                        if (n > 0) {
+                            drained += n;
+                        }
+                    }
+                } catch (IOException e) {
+                    reuse = false;
+                }
+            }
+            closed = true;
+            release(connection, reuse && eof);
+        }
+    }
+}
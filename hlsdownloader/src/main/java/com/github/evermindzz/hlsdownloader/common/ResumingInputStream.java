@@ -0,0 +1,188 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An InputStream that retries failed requests and continues broken transfers where they
+ * stopped, with the rules of a {@link RetryPolicy}.
+ * <p>
+ * The content is opened with an {@link Opener} at the position of the first byte not yet
+ * returned, e.g. with an HTTP Range request. The bytes after a resume are the same the broken
+ * stream would have returned, so a reader like a decrypting stream just continues.
+ * <p>
+ * Every failure without a byte read since the previous one counts as an attempt; a transfer
+ * making progress gets new attempts. The time budget of the policy covers the whole transfer.
+ * <p>
+ * The stream may be closed by another thread to abort a blocked read, it is not resumed then.
+ */
+public class ResumingInputStream extends InputStream {
+
+    /**
+     * Opens the content.
+     */
+    public interface Opener {
+        /**
+         * @param position the number of bytes to leave out at the start of the content.
+         * @return a stream of the content after {@code position}.
+         * @throws IOException if the request fails.
+         */
+        InputStream open(long position) throws IOException;
+    }
+
+    /**
+     * Callback before each retry.
+     */
+    public interface RetryListener {
+        /**
+         * @param e       the failure that is retried.
+         * @param attempt the number of the attempt that failed, starting with 1.
+         */
+        void onRetry(IOException e, int attempt);
+    }
+
+    private final Opener opener;
+    private final RetryPolicy policy;
+    private final RetryListener listener;
+    private final long length;
+    private final long startNanos = System.nanoTime();
+    private volatile InputStream current;
+    private long position;
+    private int failedAttempts;
+    private volatile boolean closed;
+
+    private ResumingInputStream(Opener opener, RetryPolicy policy, RetryListener listener, long length) {
+        this.opener = opener;
+        this.policy = policy;
+        this.listener = listener != null ? listener : (e, attempt) -> {};
+        this.length = length;
+    }
+
+    /**
+     * Opens the content, retrying as the policy allows.
+     *
+     * @param opener   opens the content at a position.
+     * @param policy   the retry rules.
+     * @param listener called before each retry or null.
+     * @param length   the size of the content or -1 if unknown. With a known size a stream
+     *                 that ends early is resumed as well.
+     * @return the stream, positioned at the start of the content.
+     * @throws IOException the last failure if no attempt succeeded.
+     */
+    public static ResumingInputStream open(Opener opener, RetryPolicy policy, RetryListener listener,
+                                           long length) throws IOException {
+        ResumingInputStream stream = new ResumingInputStream(opener, policy, listener, length);
+        stream.reopen(null);
+        return stream;
+    }
+
+    /**
+     * @return the number of bytes returned so far.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            IOException failure;
+            try {
+                int n = current.read(b, off, len);
+                if (n > 0) {
+                    position += n;
+                    failedAttempts = 0;
+                    return n;
+                }
+                if (n == -1 && (length < 0 || position >= length)) {
+                    return -1;
+                }
+                failure = new EOFException("Stream ended at byte " + position + " of " + length);
+            } catch (IOException e) {
+                failure = e;
+            }
+            reopen(failure);
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed || current == null ? 0 : current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            InputStream in = current;
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces {@link #current} with a stream at {@link #position}.
+     *
+     * @param failure the failure of the current stream or null for the first open.
+     */
+    private void reopen(IOException failure) throws IOException {
+        if (current != null) {
+            closeQuietly(current);
+            current = null;
+        }
+        while (true) {
+            if (failure != null) {
+                failedAttempts++;
+                if (closed || !policy.isRetryable(failure) || failedAttempts >= policy.getMaxAttempts()) {
+                    throw failure;
+                }
+                long delay = policy.delayMillis(failedAttempts);
+                long budget = policy.getTimeBudget();
+                if (budget > 0 && (System.nanoTime() - startNanos) / 1_000_000L + delay > budget) {
+                    throw failure;
+                }
+                listener.onRetry(failure, failedAttempts);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during retry delay");
+                }
+            }
+            try {
+                current = opener.open(position);
+                if (closed) {
+                    closeQuietly(current);
+                    throw new IOException("Stream closed");
+                }
+                return;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // the stream is broken anyway
+        }
+    }
+}
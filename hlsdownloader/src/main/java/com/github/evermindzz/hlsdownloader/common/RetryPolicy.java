@@ -0,0 +1,131 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Decides which failed requests are retried and how long to wait before, see
+ * {@link ResumingInputStream}.
+ * <p>
+ * Retried are dropped connections ({@link SocketException}), timeouts
+ * ({@link SocketTimeoutException}), streams that end early ({@link EOFException}) and
+ * {@link HttpStatusException}s whose status matches {@link #setRetryableStatus(IntPredicate)}.
+ * Everything else, e.g. a 404 or a cancelled download, fails at once.
+ * <p>
+ * The delay before retry {@code n} is {@code initialDelay * 2^(n-1)}, at most
+ * {@code maxDelay}, shortened by a random part of up to {@code jitter} of it, so clients
+ * failing at the same time do not retry at the same time.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_DELAY_MS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MS = 30_000;
+    public static final double DEFAULT_JITTER = 0.5;
+    /** 408 Request Timeout, 429 Too Many Requests and all 5xx. */
+    public static final IntPredicate DEFAULT_RETRYABLE_STATUS = status -> status == 408 || status == 429 || status >= 500;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MS;
+    private double jitter = DEFAULT_JITTER;
+    private IntPredicate retryableStatus = DEFAULT_RETRYABLE_STATUS;
+    private long timeBudgetMillis; // 0 == no budget
+
+    /**
+     * @param maxAttempts the number of attempts without progress before giving up, at least 1.
+     *                    Default is {@link #DEFAULT_MAX_ATTEMPTS}.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param initialDelayMillis the delay before the first retry.
+     *                           Default is {@link #DEFAULT_INITIAL_DELAY_MS}.
+     * @param maxDelayMillis     the upper bound of the doubling delay.
+     *                           Default is {@link #DEFAULT_MAX_DELAY_MS}.
+     */
+    public void setDelay(long initialDelayMillis, long maxDelayMillis) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid delay: " + initialDelayMillis + ", " + maxDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param jitter the part of the delay that is random, in [0, 1]. Default is {@link #DEFAULT_JITTER}.
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be in [0, 1]: " + jitter);
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param retryableStatus tells which HTTP status codes are retried.
+     *                        Default is {@link #DEFAULT_RETRYABLE_STATUS}.
+     */
+    public void setRetryableStatus(IntPredicate retryableStatus) {
+        this.retryableStatus = retryableStatus != null ? retryableStatus : DEFAULT_RETRYABLE_STATUS;
+    }
+
+    /**
+     * @param timeBudgetMillis the time one transfer may take including all retries and delays,
+     *                         after that it fails with the last error. 0 for no budget, which is
+     *                         the default.
+     */
+    public void setTimeBudget(long timeBudgetMillis) {
+        if (timeBudgetMillis < 0) {
+            throw new IllegalArgumentException("timeBudgetMillis must be >= 0: " + timeBudgetMillis);
+        }
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getTimeBudget() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * @param e the failure of a request or a read.
+     * @return true if a new request may succeed.
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            return retryableStatus.test(((HttpStatusException) e).getStatusCode());
+        }
+        if (e instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (e instanceof InterruptedIOException) {
+            return false; // interrupted or cancelled
+        }
+        return e instanceof SocketException || e instanceof EOFException;
+    }
+
+    /**
+     * @param retry the number of the retry, starting with 1.
+     * @return the delay before the retry in milliseconds.
+     */
+    public long delayMillis(int retry) {
+        long delay = initialDelayMillis;
+        for (int i = 1; i < retry && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An InputStream that reads no faster than a {@link TokenBucket} allows.
+ * <p>
+ * The tokens are taken after every read for the bytes actually returned, so a read never
+ * waits for more than its own bytes. Skipped bytes count as well, they were transferred too.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    private final TokenBucket bucket;
+
+    /**
+     * @param in     the stream to read from, it will be owned by the throttled stream.
+     * @param bucket the bucket, may be shared with other streams.
+     */
+    public ThrottledInputStream(InputStream in, TokenBucket bucket) {
+        super(in);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            throttle(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            throttle(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        if (skipped > 0) {
+            throttle(skipped);
+        }
+        return skipped;
+    }
+
+    private void throttle(long bytes) throws IOException {
+        try {
+            bucket.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+/**
+ * Estimates the download throughput as exponentially weighted moving average (EWMA) of the
+ * throughput of single transfers, e.g. segment downloads.
+ * <p>
+ * Every sample is weighted by its share of a half-life: a transfer that took as long as the
+ * half-life counts as much as everything measured before. So the estimate follows changes of
+ * the link speed within a few segments, while a single tiny transfer hardly moves it.
+ * <p>
+ * The class is thread-safe.
+ */
+public class ThroughputMeter {
+    /** The default half-life of the average. */
+    public static final double DEFAULT_HALF_LIFE_SECONDS = 8.0;
+
+    private final double halfLifeSeconds;
+    private double estimate; // bytes per second
+    private double totalWeight;
+    private long samples;
+
+    public ThroughputMeter() {
+        this(DEFAULT_HALF_LIFE_SECONDS);
+    }
+
+    /**
+     * @param halfLifeSeconds the transfer time after which older samples count half.
+     */
+    public ThroughputMeter(double halfLifeSeconds) {
+        if (halfLifeSeconds <= 0) {
+            throw new IllegalArgumentException("halfLifeSeconds must be > 0: " + halfLifeSeconds);
+        }
+        this.halfLifeSeconds = halfLifeSeconds;
+    }
+
+    /**
+     * Adds a finished transfer.
+     *
+     * @param bytes        the number of transferred bytes.
+     * @param elapsedNanos the time the transfer took.
+     */
+    public synchronized void addSample(long bytes, long elapsedNanos) {
+        if (bytes <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        double seconds = elapsedNanos / 1e9;
+        double throughput = bytes / seconds;
+        double alpha = Math.pow(0.5, seconds / halfLifeSeconds);
+        // zero bias correction: the first samples are not pulled towards 0
+        double previousWeight = totalWeight;
+        totalWeight = alpha * totalWeight + (1 - alpha);
+        estimate = (alpha * previousWeight * estimate + (1 - alpha) * throughput) / totalWeight;
+        samples++;
+    }
+
+    /**
+     * @return the estimated throughput in bytes per second, 0 if there are no samples yet.
+     */
+    public synchronized double getBytesPerSecond() {
+        return estimate;
+    }
+
+    /**
+     * @return the estimated throughput in bits per second, the unit of the BANDWIDTH attribute.
+     */
+    public double getBitsPerSecond() {
+        return getBytesPerSecond() * 8;
+    }
+
+    /**
+     * @return the number of samples added so far.
+     */
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+}
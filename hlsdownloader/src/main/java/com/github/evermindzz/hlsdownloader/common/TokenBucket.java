@@ -0,0 +1,110 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+/**
+ * Limits a byte rate with a token bucket, e.g. the download rate of one or several
+ * HlsMediaProcessor, see {@link ThrottledInputStream}.
+ * <p>
+ * The bucket fills with {@code bytesPerSecond} tokens per second up to {@code burstBytes}.
+ * Reading takes tokens; if there are not enough, the reader waits until the bucket would have
+ * refilled. Every reader reserves its bytes when asking for them, so readers are served in the
+ * order they asked and one bucket can be shared by many streams. An idle bucket allows a burst
+ * of up to {@code burstBytes}.
+ * <p>
+ * The rate can be changed at any time and applies to every reservation after the change.
+ * The class is thread-safe.
+ */
+public class TokenBucket {
+    private double bytesPerSecond; // 0 == unlimited
+    private double burstBytes;
+    private double tokens; // negative when reserved ahead
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Creates a bucket that allows a burst of one second at the given rate.
+     *
+     * @param bytesPerSecond the rate, 0 for no limit.
+     */
+    public TokenBucket(long bytesPerSecond) {
+        this(bytesPerSecond, Math.max(1, bytesPerSecond));
+    }
+
+    /**
+     * @param bytesPerSecond the rate, 0 for no limit.
+     * @param burstBytes     the number of bytes that can be read at once after an idle time.
+     */
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        setRate(bytesPerSecond);
+        setBurst(burstBytes);
+        this.tokens = this.burstBytes;
+    }
+
+    /**
+     * @param bytesPerSecond the new rate, 0 for no limit.
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be >= 0: " + bytesPerSecond);
+        }
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param burstBytes the number of bytes that can be read at once after an idle time.
+     */
+    public synchronized void setBurst(long burstBytes) {
+        if (burstBytes < 1) {
+            throw new IllegalArgumentException("burstBytes must be at least 1: " + burstBytes);
+        }
+        this.burstBytes = burstBytes;
+        this.tokens = Math.min(tokens, burstBytes);
+    }
+
+    /**
+     * @return the rate in bytes per second, 0 if there is no limit.
+     */
+    public synchronized long getRate() {
+        return (long) bytesPerSecond;
+    }
+
+    /**
+     * @return the number of bytes that can be read at once after an idle time.
+     */
+    public synchronized long getBurst() {
+        return (long) burstBytes;
+    }
+
+    /**
+     * Takes tokens for {@code bytes} and waits until the rate allows them.
+     *
+     * @param bytes the number of bytes read or to read.
+     * @throws InterruptedException if interrupted while waiting. The tokens stay taken.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= 0 || bytes <= 0) {
+                return;
+            }
+            refill(System.nanoTime());
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            waitNanos = (long) (-tokens / bytesPerSecond * 1e9);
+        }
+        Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void refill(long now) {
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burstBytes, tokens + (now - lastRefillNanos) / 1e9 * bytesPerSecond);
+        } else {
+            tokens = burstBytes;
+        }
+        lastRefillNanos = now;
+    }
+}
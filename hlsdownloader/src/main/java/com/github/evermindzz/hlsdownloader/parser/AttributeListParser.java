@@ -0,0 +1,240 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import java.io.IOException;
+
+/**
+ * A hand-written tokenizer for HLS attribute lists (RFC 8216, section 4.2).
+ * <p>
+ * The parser walks the tag line in place and exposes the current attribute through typed
+ * accessors, so no regular expressions, {@code Pattern} objects or intermediate maps are
+ * needed. Strings are only created when a caller asks for a string value.
+ * <p>
+ * Usage:
+ * <pre>
+ * AttributeListParser attrs = new AttributeListParser();
+ * attrs.reset(line);
+ * while (attrs.next()) {
+ *     if (attrs.nameIs("BANDWIDTH")) {
+ *         bandwidth = attrs.decimalInteger();
+ *     }
+ * }
+ * </pre>
+ * An instance keeps state and is not thread-safe. It can be reused for any number of lines.
+ */
+final class AttributeListParser {
+    private String line;
+    private int pos;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart; // for quoted strings: first char after the opening quote
+    private int valueEnd;   // for quoted strings: index of the closing quote
+    private boolean quoted;
+
+    /**
+     * Prepares parsing of the attribute list of a tag line. Everything up to and including
+     * the first ':' is skipped.
+     *
+     * @param line the complete tag line, e.g. {@code #EXT-X-KEY:METHOD=AES-128,URI="key.key"}
+     * @return this parser
+     */
+    AttributeListParser reset(String line) {
+        this.line = line;
+        int colon = line.indexOf(':');
+        this.pos = colon < 0 ? line.length() : colon + 1;
+        this.nameStart = this.nameEnd = this.valueStart = this.valueEnd = 0;
+        this.quoted = false;
+        return this;
+    }
+
+    /**
+     * Advances to the next attribute.
+     *
+     * @return true if an attribute is available, false at the end of the list.
+     * @throws IOException if the attribute list is malformed.
+     */
+    boolean next() throws IOException {
+        final int length = line.length();
+        while (pos < length && (line.charAt(pos) == ' ' || line.charAt(pos) == ',')) {
+            pos++;
+        }
+        if (pos >= length) {
+            return false;
+        }
+
+        nameStart = pos;
+        while (pos < length && line.charAt(pos) != '=') {
+            char c = line.charAt(pos);
+            if (c == ',') {
+                throw new IOException("Missing '=' in attribute list: " + line);
+            }
+            pos++;
+        }
+        if (pos >= length) {
+            throw new IOException("Missing '=' in attribute list: " + line);
+        }
+        nameEnd = pos;
+        while (nameEnd > nameStart && line.charAt(nameEnd - 1) == ' ') {
+            nameEnd--;
+        }
+        pos++; // skip '='
+
+        if (pos < length && line.charAt(pos) == '"') {
+            quoted = true;
+            valueStart = pos + 1;
+            valueEnd = line.indexOf('"', valueStart);
+            if (valueEnd < 0) {
+                throw new IOException("Unterminated quoted-string in attribute list: " + line);
+            }
+            pos = valueEnd + 1;
+        } else {
+            quoted = false;
+            valueStart = pos;
+            while (pos < length && line.charAt(pos) != ',') {
+                pos++;
+            }
+            valueEnd = pos;
+            while (valueEnd > valueStart && line.charAt(valueEnd - 1) == ' ') {
+                valueEnd--;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name the attribute name to compare with, e.g. {@code "URI"}
+     * @return true if the current attribute has the given name
+     */
+    boolean nameIs(String name) {
+        return name.length() == nameEnd - nameStart && line.regionMatches(nameStart, name, 0, name.length());
+    }
+
+    String name() {
+        return line.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * @return true if the current value is a quoted-string.
+     */
+    boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * @return the value of the current attribute as string. Quotes of a quoted-string are
+     * not part of the returned value.
+     */
+    String stringValue() {
+        return line.substring(valueStart, valueEnd);
+    }
+
+    /**
+     * @param value the enumerated-string to compare with, e.g. {@code "YES"}
+     * @return true if the current value equals the given value
+     */
+    boolean valueIs(String value) {
+        return value.length() == valueEnd - valueStart && line.regionMatches(valueStart, value, 0, value.length());
+    }
+
+    /**
+     * @return the current value as decimal-integer.
+     * @throws IOException if the value is not a decimal-integer.
+     */
+    long decimalInteger() throws IOException {
+        return parseDecimalInteger(line, valueStart, valueEnd);
+    }
+
+    /**
+     * @return the current value as decimal-floating-point.
+     * @throws IOException if the value is not a number.
+     */
+    double decimalFloat() throws IOException {
+        try {
+            return Double.parseDouble(stringValue());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid decimal-floating-point for " + name() + ": " + stringValue());
+        }
+    }
+
+    /**
+     * @return true if the current value is a hexadecimal-sequence ({@code 0x} or {@code 0X}
+     * followed by at least one hex digit).
+     */
+    boolean isHexSequence() {
+        if (quoted || valueEnd - valueStart < 3 || line.charAt(valueStart) != '0') {
+            return false;
+        }
+        char x = line.charAt(valueStart + 1);
+        return (x == 'x' || x == 'X') && isHex(line, valueStart + 2, valueEnd);
+    }
+
+    /**
+     * @return the width of the current decimal-resolution value, e.g. 1280 for {@code 1280x720}.
+     * @throws IOException if the value is not a decimal-resolution.
+     */
+    int resolutionWidth() throws IOException {
+        return (int) parseDecimalInteger(line, valueStart, resolutionSeparator());
+    }
+
+    /**
+     * @return the height of the current decimal-resolution value, e.g. 720 for {@code 1280x720}.
+     * @throws IOException if the value is not a decimal-resolution.
+     */
+    int resolutionHeight() throws IOException {
+        return (int) parseDecimalInteger(line, resolutionSeparator() + 1, valueEnd);
+    }
+
+    private int resolutionSeparator() throws IOException {
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (line.charAt(i) == 'x') {
+                return i;
+            }
+        }
+        throw new IOException("Invalid decimal-resolution for " + name() + ": " + stringValue());
+    }
+
+    /**
+     * Parses a decimal-integer without creating intermediate strings.
+     *
+     * @param s     the string holding the number
+     * @param start first index (inclusive)
+     * @param end   last index (exclusive)
+     * @return the parsed number
+     * @throws IOException if the range is empty, contains non-digits or overflows.
+     */
+    static long parseDecimalInteger(CharSequence s, int start, int end) throws IOException {
+        if (start >= end) {
+            throw new IOException("Empty decimal-integer");
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Invalid decimal-integer: " + s.subSequence(start, end));
+            }
+            if (result > (Long.MAX_VALUE - (c - '0')) / 10) {
+                throw new IOException("decimal-integer out of range: " + s.subSequence(start, end));
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @param s     the string to check
+     * @param start first index (inclusive)
+     * @param end   last index (exclusive)
+     * @return true if the range is not empty and only contains hexadecimal digits.
+     */
+    static boolean isHex(CharSequence s, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,268 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.ByteRange;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.EncryptionInfo;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.PartialSegment;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.Segment;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A memory efficient, column oriented list of {@link Segment}s for very large playlists.
+ * <p>
+ * Instead of one object graph per segment the data is kept in primitive columns:
+ * durations as {@code double[]}, program date times as epoch millis in a {@code long[]}, byte
+ * ranges as (length, offset) pairs in a {@code long[]} and URIs as a shared base plus a table
+ * of suffixes. Segments created by the parser keep their
+ * unresolved URI reference and the shared {@link UriResolver}. Titles are pooled, so the usual
+ * empty or repeated titles are stored once. The number of fraction digits and the UTC offset of
+ * a program date time are kept in small side columns, so its original text is re-created
+ * exactly. Program date times that cannot be re-created from them, e.g. with sub-millisecond
+ * digits, are kept in a sparse map, as are the partial segments of low-latency playlists.
+ * <p>
+ * {@link #get(int)} creates a new {@link Segment} view on each call. Views share the
+ * {@link EncryptionInfo} instances, so keys set on a view are visible to all segments using it.
+ * The list supports appending only; it is not thread-safe while it is being filled.
+ */
+public class CompactSegmentList extends AbstractList<Segment> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final long NO_DATE_TIME = Long.MIN_VALUE;
+    private static final short UTC_DESIGNATOR = Short.MIN_VALUE; // "Z" instead of "+00:00"
+    private static final long NO_BYTE_RANGE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private double[] durations = new double[INITIAL_CAPACITY];
+    private long[] programDateTimes = new long[INITIAL_CAPACITY];
+    private byte[] fractionDigits = new byte[INITIAL_CAPACITY]; // of the program date time seconds
+    private short[] utcOffsets = new short[INITIAL_CAPACITY]; // in minutes or UTC_DESIGNATOR
+    private long[] byteRanges = new long[2 * INITIAL_CAPACITY]; // length, offset
+    private String[] uriSuffixes = new String[INITIAL_CAPACITY];
+    private String[] titles = new String[INITIAL_CAPACITY];
+    private EncryptionInfo[] encryptionInfos = new EncryptionInfo[INITIAL_CAPACITY];
+    private UriResolver uriResolver; // shared resolver of the parsed segments
+    private String uriPrefix; // directory of the first segment URI, e.g. http://host/path/
+    private final BitSet absoluteUris = new BitSet(); // suffix holds the complete URI
+    private final BitSet uriReferences = new BitSet(); // suffix holds a reference for uriResolver
+    private final Map<Integer, String> rawProgramDateTimes = new HashMap<>();
+    private final Map<Integer, List<PartialSegment>> parts = new HashMap<>(); // only low-latency segments
+    private transient Map<String, String> titlePool = new HashMap<>();
+
+    public CompactSegmentList() {
+    }
+
+    /**
+     * Creates a compact copy of the given segments.
+     *
+     * @param segments the segments to copy
+     * @return the compact list
+     */
+    public static CompactSegmentList of(List<Segment> segments) {
+        if (segments instanceof CompactSegmentList) {
+            return (CompactSegmentList) segments;
+        }
+        CompactSegmentList list = new CompactSegmentList();
+        list.ensureCapacity(segments.size());
+        for (Segment segment : segments) {
+            list.add(segment);
+        }
+        list.trimToSize();
+        return list;
+    }
+
+    @Override
+    public Segment get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        boolean isReference = uriReferences.get(index);
+        Segment segment = new Segment(isReference ? null : uriAt(index), isReference ? uriSuffixes[index] : null,
+                isReference ? uriResolver : null, durations[index], titles[index], encryptionInfos[index],
+                byteRangeAt(index), programDateTimeAt(index));
+        segment.setParts(parts.get(index));
+        return segment;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(Segment segment) {
+        ensureCapacity(size + 1);
+        int index = size;
+        durations[index] = segment.getDuration();
+        titles[index] = poolTitle(segment.getTitle());
+        encryptionInfos[index] = segment.getEncryptionInfo();
+        storeUri(index, segment);
+        storeProgramDateTime(index, segment.getProgramDateTime());
+        ByteRange byteRange = segment.getByteRange();
+        byteRanges[2 * index] = byteRange != null ? byteRange.getLength() : NO_BYTE_RANGE;
+        byteRanges[2 * index + 1] = byteRange != null ? byteRange.getOffset() : NO_BYTE_RANGE;
+        if (!segment.getParts().isEmpty()) {
+            parts.put(index, segment.getParts());
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Shrinks the columns to the current size.
+     */
+    public void trimToSize() {
+        resize(size);
+        titlePool = null; // only needed while appending
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > durations.length) {
+            resize(Math.max(minCapacity, durations.length + (durations.length >> 1)));
+        }
+    }
+
+    private void resize(int capacity) {
+        durations = Arrays.copyOf(durations, capacity);
+        programDateTimes = Arrays.copyOf(programDateTimes, capacity);
+        fractionDigits = Arrays.copyOf(fractionDigits, capacity);
+        utcOffsets = Arrays.copyOf(utcOffsets, capacity);
+        byteRanges = Arrays.copyOf(byteRanges, 2 * capacity);
+        uriSuffixes = Arrays.copyOf(uriSuffixes, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        encryptionInfos = Arrays.copyOf(encryptionInfos, capacity);
+    }
+
+    private String poolTitle(String title) {
+        if (title == null) {
+            return null;
+        }
+        if (titlePool == null) { // after trimToSize() or deserialization
+            titlePool = new HashMap<>();
+        }
+        String pooled = titlePool.get(title);
+        if (pooled == null) {
+            titlePool.put(title, title);
+            pooled = title;
+        }
+        return pooled;
+    }
+
+    private void storeUri(int index, Segment segment) {
+        if (segment.getUriReference() != null) {
+            if (uriResolver == null) {
+                uriResolver = segment.getUriResolver();
+            }
+            if (uriResolver == segment.getUriResolver()) {
+                uriSuffixes[index] = segment.getUriReference();
+                uriReferences.set(index);
+                return;
+            }
+        }
+        URI uri = segment.getUri();
+        if (uri == null) {
+            uriSuffixes[index] = null;
+            return;
+        }
+        String uriString = uri.toString();
+        if (uriPrefix == null) {
+            uriPrefix = uriString.substring(0, uriString.lastIndexOf('/') + 1);
+        }
+        if (uriString.startsWith(uriPrefix)) {
+            uriSuffixes[index] = uriString.substring(uriPrefix.length());
+        } else {
+            uriSuffixes[index] = uriString;
+            absoluteUris.set(index);
+        }
+    }
+
+    private URI uriAt(int index) {
+        String suffix = uriSuffixes[index];
+        if (suffix == null) {
+            return null;
+        }
+        return URI.create(absoluteUris.get(index) ? suffix : uriPrefix + suffix);
+    }
+
+    private ByteRange byteRangeAt(int index) {
+        long length = byteRanges[2 * index];
+        return length == NO_BYTE_RANGE ? null : new ByteRange(length, byteRanges[2 * index + 1]);
+    }
+
+    private void storeProgramDateTime(int index, String programDateTime) {
+        programDateTimes[index] = NO_DATE_TIME;
+        if (programDateTime == null) {
+            return;
+        }
+        try {
+            OffsetDateTime dateTime = OffsetDateTime.parse(programDateTime);
+            long epochMillis = dateTime.toInstant().toEpochMilli();
+            int offsetSeconds = dateTime.getOffset().getTotalSeconds();
+            short utcOffset = programDateTime.endsWith("Z") ? UTC_DESIGNATOR : (short) (offsetSeconds / 60);
+            int dot = programDateTime.indexOf('.');
+            int digits = 0;
+            while (dot >= 0 && dot + 1 + digits < programDateTime.length()
+                    && Character.isDigit(programDateTime.charAt(dot + 1 + digits))) {
+                digits++;
+            }
+            // anything the columns cannot re-create, e.g. sub-millisecond digits, stays raw
+            if (offsetSeconds % 60 == 0 && digits <= 9
+                    && formatDateTime(epochMillis, digits, utcOffset).equals(programDateTime)) {
+                programDateTimes[index] = epochMillis;
+                fractionDigits[index] = (byte) digits;
+                utcOffsets[index] = utcOffset;
+                return;
+            }
+        } catch (DateTimeParseException e) {
+            // keep the raw value below
+        }
+        rawProgramDateTimes.put(index, programDateTime);
+    }
+
+    private String programDateTimeAt(int index) {
+        long epochMillis = programDateTimes[index];
+        if (epochMillis != NO_DATE_TIME) {
+            return formatDateTime(epochMillis, fractionDigits[index], utcOffsets[index]);
+        }
+        return rawProgramDateTimes.get(index);
+    }
+
+    /**
+     * @return the ISO 8601 date time, e.g. 2024-01-01T00:00:00.000Z or 2024-01-01T02:00:00+02:00.
+     */
+    private static String formatDateTime(long epochMillis, int fractionDigits, short utcOffset) {
+        int offsetMinutes = utcOffset == UTC_DESIGNATOR ? 0 : utcOffset;
+        LocalDateTime local = LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000L),
+                (int) Math.floorMod(epochMillis, 1000L) * 1_000_000, ZoneOffset.ofTotalSeconds(offsetMinutes * 60));
+        StringBuilder text = new StringBuilder(32).append(local.toLocalDate()).append('T');
+        appendTwoDigits(text, local.getHour()).append(':');
+        appendTwoDigits(text, local.getMinute()).append(':');
+        appendTwoDigits(text, local.getSecond());
+        if (fractionDigits > 0) {
+            String nanos = Integer.toString(1_000_000_000 + local.getNano()); // leading 1 keeps the zeros
+            text.append('.').append(nanos, 1, 1 + fractionDigits);
+        }
+        if (utcOffset == UTC_DESIGNATOR) {
+            return text.append('Z').toString();
+        }
+        text.append(offsetMinutes < 0 ? '-' : '+');
+        appendTwoDigits(text, Math.abs(offsetMinutes) / 60).append(':');
+        return appendTwoDigits(text, Math.abs(offsetMinutes) % 60).toString();
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder text, int value) {
+        return text.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
@@ -1,16 +1,31 @@
 package com.github.evermindzz.hlsdownloader.parser;
 
+import com.github.evermindzz.hlsdownloader.common.FetchResponse;
 import com.github.evermindzz.hlsdownloader.common.Fetcher;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,6 +39,12 @@ public class HlsParser {
     private final MasterPlaylistSelectionCallback callback;
     private final Fetcher fetcher;
     private final boolean strictMode;
+    private boolean compactSegments;
+    private boolean usePlaylistCache;
+    private int probeConcurrency; // 0 == no variant probing
+    private Predicate<VariantStream> probeFilter;
+    private final Map<URI, CachedPlaylist> playlistCache = new ConcurrentHashMap<>();
+    private final Map<URI, CompletableFuture<MediaPlaylist>> blockingReloads = new ConcurrentHashMap<>();
 
     /**
      * Constructs a new HlsParser.
@@ -38,6 +59,56 @@ public class HlsParser {
         this.strictMode = strictMode;
     }
 
+    /**
+     * Store the segments of parsed media playlists in a {@link CompactSegmentList}.
+     * <p>
+     * Recommended for very large playlists, e.g. long VODs with short segments. Accessing a
+     * segment creates a new {@link Segment} view, so callers should not rely on identity.
+     *
+     * @param compactSegments true to use the compact representation. Default is false.
+     */
+    public void setCompactSegments(boolean compactSegments) {
+        this.compactSegments = compactSegments;
+    }
+
+    /**
+     * Cache parsed playlists and re-request them conditionally.
+     * <p>
+     * Subsequent {@link #parse(URI)} calls for the same URI send the cached ETag and
+     * Last-Modified values via {@link Fetcher#fetchContentIfModified(URI, String, String)}.
+     * If the server answers 304 the cached MediaPlaylist is returned unchanged without
+     * parsing. For master playlists the cached variants are handed to the
+     * {@link MasterPlaylistSelectionCallback} again. A changed live media playlist is
+     * re-parsed incrementally, see {@link #parseIncremental(MediaPlaylist, URI)}.
+     *
+     * @param usePlaylistCache true to enable the cache. Disabling it clears the cache.
+     */
+    public void setPlaylistCache(boolean usePlaylistCache) {
+        this.usePlaylistCache = usePlaylistCache;
+        if (!usePlaylistCache) {
+            playlistCache.clear();
+        }
+    }
+
+    /**
+     * Parse the variant media playlists of a master playlist before a variant is selected.
+     * <p>
+     * The media playlists of all variants accepted by {@code filter} are fetched and parsed
+     * concurrently, at most {@code maxConcurrent} at a time. The
+     * {@link MasterPlaylistSelectionCallback} can then use {@link VariantStream#getPlaylist()},
+     * e.g. for segment counts or byte range sizes. The playlist of the selected variant is
+     * returned without fetching it again. Variants that fail to parse are logged and have no
+     * playlist.
+     *
+     * @param maxConcurrent the maximum number of playlists fetched at the same time.
+     *                      0 disables probing, which is the default.
+     * @param filter        selects the variants to probe. null probes all variants.
+     */
+    public void setVariantProbing(int maxConcurrent, Predicate<VariantStream> filter) {
+        this.probeConcurrency = Math.max(0, maxConcurrent);
+        this.probeFilter = filter;
+    }
+
     /**
      * Parses a playlist (master or media) and returns a MediaPlaylist.
      *
@@ -46,28 +117,400 @@ public class HlsParser {
      * @throws IOException if downloading or parsing fails
      */
     public MediaPlaylist parse(URI uri) throws IOException {
+        if (usePlaylistCache) {
+            return parseCached(uri);
+        }
+        try (InputStream contentStream = fetcher.fetchContent(uri)) {
+            return parse(uri, contentStream);
+        }
+    }
+
+    private MediaPlaylist parseCached(URI uri) throws IOException {
+        CachedPlaylist cached = playlistCache.get(uri);
+        String eTag = cached != null ? cached.eTag : null;
+        String lastModified = cached != null ? cached.lastModified : null;
+        try (FetchResponse response = fetcher.fetchContentIfModified(uri, eTag, lastModified)) {
+            if (response.isNotModified() && cached != null) {
+                return cached.variants != null ? selectVariant(cached.variants) : cached.playlist;
+            }
+            if (response.getBody() == null) {
+                throw new IOException("No content for playlist: " + uri);
+            }
+            CachedPlaylist entry = new CachedPlaylist(response.getETag(), response.getLastModified());
+            MediaPlaylist previous = cached != null && cached.playlist != null && !cached.playlist.isEndList()
+                    ? cached.playlist : null;
+            MediaPlaylist playlist = parse(uri, response.getBody(), previous, entry);
+            if (entry.variants == null) {
+                entry.playlist = playlist;
+            }
+            playlistCache.put(uri, entry);
+            return playlist;
+        }
+    }
+
+    /**
+     * Parses a playlist (master or media) from an already opened stream.
+     * <p>
+     * The stream is read line by line in a single pass. Master and media playlists are told
+     * apart by the first tag that only belongs to one of them, so peak memory depends on the
+     * longest line and not on the size of the playlist. The stream is not closed.
+     *
+     * @param uri     URI of the playlist, used to resolve relative URIs
+     * @param content the playlist content
+     * @return parsed MediaPlaylist
+     * @throws IOException if reading or parsing fails
+     */
+    public MediaPlaylist parse(URI uri, InputStream content) throws IOException {
+        return parse(uri, content, null, null);
+    }
+
+    /**
+     * Re-parses a live media playlist based on a previously parsed version of it.
+     * <p>
+     * The {@code #EXT-X-MEDIA-SEQUENCE} delta tells which segments of the new playlist are
+     * already part of {@code previous}. For those only the segment lines are counted and the
+     * existing {@link Segment} objects are reused. Objects are only built for new segments.
+     * {@link EncryptionInfo} instances of {@code previous} are reused for identical
+     * {@code #EXT-X-KEY} tags, so already fetched keys survive the reload.
+     * <p>
+     * If the media sequence went backwards, or the playlist does not overlap with
+     * {@code previous}, the playlist is parsed from scratch.
+     *
+     * @param previous the last parsed version of the playlist
+     * @param uri      URI of the playlist
+     * @return the new parsed MediaPlaylist
+     * @throws IOException if downloading or parsing fails
+     */
+    public MediaPlaylist parseIncremental(MediaPlaylist previous, URI uri) throws IOException {
         try (InputStream contentStream = fetcher.fetchContent(uri)) {
-            String content = convertStreamToString(contentStream);
-            if (!content.trim().startsWith("#EXTM3U")) {
+            return parseIncremental(previous, uri, contentStream);
+        }
+    }
+
+    /**
+     * Same as {@link #parseIncremental(MediaPlaylist, URI)} but reads the new playlist from an
+     * already opened stream. The stream is not closed.
+     *
+     * @param previous the last parsed version of the playlist
+     * @param uri      URI of the playlist, used to resolve relative URIs
+     * @param content  the new playlist content
+     * @return the new parsed MediaPlaylist
+     * @throws IOException if reading or parsing fails
+     */
+    public MediaPlaylist parseIncremental(MediaPlaylist previous, URI uri, InputStream content) throws IOException {
+        return parse(uri, content, previous, null);
+    }
+
+    /**
+     * Reloads a live media playlist with a blocking playlist reload (RFC 8216bis, 6.2.5.2).
+     * <p>
+     * If {@code previous} advertises {@code CAN-BLOCK-RELOAD=YES} the request asks for the
+     * next media sequence number ({@code _HLS_msn}) and, for low-latency playlists, the next
+     * partial segment ({@code _HLS_part}). The server holds the request until that segment or
+     * part is published, so the caller does not need to poll. The new playlist is parsed
+     * incrementally, see {@link #parseIncremental(MediaPlaylist, URI)}.
+     * <p>
+     * There is at most one outstanding blocking request per playlist URI. Concurrent calls
+     * for the same URI wait for that request and get the same result.
+     * <p>
+     * Without blocking reload support this is a plain {@link #parseIncremental(MediaPlaylist, URI)}
+     * and the caller has to wait between reloads.
+     *
+     * @param previous the last parsed version of the playlist
+     * @param uri      URI of the playlist
+     * @return the new parsed MediaPlaylist
+     * @throws IOException if downloading or parsing fails
+     */
+    public MediaPlaylist parseBlockingReload(MediaPlaylist previous, URI uri) throws IOException {
+        ServerControl serverControl = previous.getServerControl();
+        if (serverControl == null || !serverControl.isCanBlockReload() || previous.isEndList()) {
+            return parseIncremental(previous, uri);
+        }
+
+        CompletableFuture<MediaPlaylist> request = new CompletableFuture<>();
+        CompletableFuture<MediaPlaylist> outstanding = blockingReloads.putIfAbsent(uri, request);
+        if (outstanding != null) {
+            return awaitReload(outstanding);
+        }
+        try {
+            long nextMsn = previous.getMediaSequence() + previous.getSegments().size();
+            int nextPart = previous.getPartTarget() > 0 ? previous.getTrailingParts().size() : -1;
+            URI blockingUri = blockingReloadUri(uri, nextMsn, nextPart);
+            MediaPlaylist playlist;
+            try (InputStream contentStream = fetcher.fetchContent(blockingUri)) {
+                playlist = parse(uri, contentStream, previous, null);
+            }
+            request.complete(playlist);
+            return playlist;
+        } catch (IOException | RuntimeException e) {
+            request.completeExceptionally(e);
+            throw e;
+        } finally {
+            blockingReloads.remove(uri, request);
+        }
+    }
+
+    private static MediaPlaylist awaitReload(CompletableFuture<MediaPlaylist> outstanding) throws IOException {
+        try {
+            return outstanding.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Blocking playlist reload failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for playlist reload");
+        }
+    }
+
+    /**
+     * Adds the delivery directives of a blocking playlist reload to the playlist URI.
+     *
+     * @param uri  the playlist URI. Existing query parameters are kept.
+     * @param msn  the media sequence number to wait for
+     * @param part the partial segment index to wait for, or -1 to wait for the whole segment
+     * @return the URI to request
+     */
+    static URI blockingReloadUri(URI uri, long msn, int part) {
+        String base = uri.toString();
+        int fragment = base.indexOf('#');
+        if (fragment >= 0) {
+            base = base.substring(0, fragment);
+        }
+        StringBuilder sb = new StringBuilder(base)
+                .append(uri.getRawQuery() == null ? '?' : '&')
+                .append("_HLS_msn=").append(msn);
+        if (part >= 0) {
+            sb.append("&_HLS_part=").append(part);
+        }
+        return URI.create(sb.toString());
+    }
+
+    private MediaPlaylist parse(URI uri, InputStream content, MediaPlaylist previous, CachedPlaylist cacheEntry)
+            throws IOException {
+        PlaylistReader reader = new PlaylistReader(uri, content, previous, cacheEntry);
+        while (reader.readLine()) {
+            // all work is done by the line handler
+        }
+        return reader.finish();
+    }
+
+    /**
+     * Parses a master playlist without selecting a variant.
+     * <p>
+     * The returned model holds all variants and renditions (#EXT-X-MEDIA). Every
+     * {@link VariantStream} is linked to the renditions of its AUDIO, VIDEO and SUBTITLES
+     * groups, see {@link VariantStream#getRenditions()}.
+     *
+     * @param uri URI to the master playlist
+     * @return parsed MasterPlaylist
+     * @throws IOException if downloading or parsing fails, or the playlist is a media playlist
+     */
+    public MasterPlaylist parseMaster(URI uri) throws IOException {
+        try (InputStream contentStream = fetcher.fetchContent(uri)) {
+            PlaylistReader reader = new PlaylistReader(uri, contentStream, null, null);
+            while (reader.readLine()) {
+                // all work is done by the line handler
+            }
+            if (!(reader.handler instanceof MasterPlaylistLineHandler)) {
+                throw new IOException("Not a master playlist: " + uri);
+            }
+            return ((MasterPlaylistLineHandler) reader.handler).toMasterPlaylist();
+        }
+    }
+
+    /**
+     * Returns the segments of a playlist one by one while the playlist is still being read.
+     * <p>
+     * Each segment is available as soon as its URI line has been read, so the time to the first
+     * segment does not depend on the length of the playlist. For a master playlist the
+     * {@link MasterPlaylistSelectionCallback} is asked for a variant once the master playlist
+     * is read, then the segments of the selected media playlist are returned.
+     * <p>
+     * The playlist is validated when the end of it has been reached, so errors that concern
+     * the playlist as a whole are thrown by the last {@link SegmentIterator#hasNext()} call.
+     *
+     * @param uri URI to the playlist
+     * @return the iterator. The caller has to close it.
+     * @throws IOException if the playlist can't be fetched
+     */
+    public SegmentIterator iterateSegments(URI uri) throws IOException {
+        return new StreamingSegmentIterator(uri);
+    }
+
+    /**
+     * Reads a playlist line by line and passes the lines to the handler for its playlist type.
+     * <p>
+     * Master and media playlists are told apart by the first tag that only belongs to one of
+     * them. Tags that both share, and the first unknown line, are kept until then.
+     */
+    private class PlaylistReader {
+        private final URI uri;
+        private final BufferedReader reader;
+        private final MediaPlaylist previous;
+        private final CachedPlaylist cacheEntry;
+        private int version = 0; // 0 == no #EXT-X-VERSION seen so far
+        private boolean independentSegments = false;
+        private String firstUnknownLine = null;
+        private PlaylistLineHandler handler = null;
+
+        PlaylistReader(URI uri, InputStream content, MediaPlaylist previous, CachedPlaylist cacheEntry)
+                throws IOException {
+            this.uri = uri;
+            this.reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+            this.previous = previous;
+            this.cacheEntry = cacheEntry;
+            String line = readNonEmptyLine(reader);
+            if (line == null || !line.startsWith("#EXTM3U")) {
                 throw new IOException("Invalid playlist: Missing #EXTM3U tag at the start.");
             }
-            int version = extractVersion(content);
-            if (content.contains("#EXT-X-STREAM-INF")) {
-                return parseMasterPlaylist(content, uri, version);
-            } else {
-                return parseMediaPlaylist(content, uri, version);
+        }
+
+        /**
+         * Reads and handles the next non-empty line.
+         *
+         * @return false at the end of the playlist
+         * @throws IOException if reading or parsing fails
+         */
+        boolean readLine() throws IOException {
+            String line = readNonEmptyLine(reader);
+            if (line == null) {
+                return false;
+            }
+            if (handler == null) {
+                if (line.startsWith("#EXT-X-VERSION")) {
+                    version = parseIntValue(line);
+                    return true;
+                } else if (line.startsWith("#EXT-X-INDEPENDENT-SEGMENTS")) {
+                    independentSegments = true;
+                    return true;
+                } else if (isKnownMasterOnlyTag(line)) {
+                    handler = new MasterPlaylistLineHandler(uri, cacheEntry);
+                } else if (!line.startsWith("#") || isKnownMediaTag(line)) {
+                    handler = new MediaPlaylistLineHandler(uri, version, independentSegments, previous);
+                } else {
+                    // comment or unknown tag: does not tell the playlist type apart
+                    if (firstUnknownLine == null) {
+                        firstUnknownLine = line;
+                    }
+                    return true;
+                }
+                if (firstUnknownLine != null) {
+                    handler.handleLine(firstUnknownLine); // throws in strict mode
+                }
+            }
+            handler.handleLine(line);
+            return true;
+        }
+
+        /**
+         * @return the handler, creating a media playlist handler if the type is still unknown.
+         */
+        PlaylistLineHandler handler() {
+            if (handler == null) {
+                handler = new MediaPlaylistLineHandler(uri, version, independentSegments, previous);
+            }
+            return handler;
+        }
+
+        MediaPlaylist finish() throws IOException {
+            return handler().finish();
+        }
+    }
+
+    private class StreamingSegmentIterator implements SegmentIterator {
+        private InputStream content;
+        private PlaylistReader reader;
+        private MediaPlaylist playlist; // set once the playlist is complete
+        private int nextIndex;
+
+        StreamingSegmentIterator(URI uri) throws IOException {
+            open(uri);
+        }
+
+        private void open(URI uri) throws IOException {
+            content = fetcher.fetchContent(uri);
+            try {
+                reader = new PlaylistReader(uri, content, null, null);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (playlist == null && availableSegments() <= nextIndex) {
+                if (!reader.readLine()) {
+                    PlaylistLineHandler handler = reader.handler();
+                    if (handler instanceof MasterPlaylistLineHandler) {
+                        VariantStream chosen = ((MasterPlaylistLineHandler) handler).selectedVariant();
+                        close();
+                        if (chosen.playlist != null) {
+                            playlist = chosen.playlist; // already parsed while probing
+                        } else {
+                            open(chosen.getUri());
+                        }
+                    } else {
+                        playlist = handler.finish();
+                        close();
+                    }
+                }
+            }
+            return nextIndex < availableSegments();
+        }
+
+        private int availableSegments() {
+            List<Segment> segments = segmentsSoFar();
+            return segments != null ? segments.size() : 0;
+        }
+
+        private List<Segment> segmentsSoFar() {
+            if (playlist != null) {
+                return playlist.segments;
+            }
+            PlaylistLineHandler handler = reader.handler;
+            return handler instanceof MediaPlaylistLineHandler
+                    ? ((MediaPlaylistLineHandler) handler).playlist.segments : null;
+        }
+
+        @Override
+        public Segment next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return segmentsSoFar().get(nextIndex++);
+        }
+
+        @Override
+        public MediaPlaylist getPlaylist() {
+            return playlist;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (content != null) {
+                InputStream toClose = content;
+                content = null;
+                toClose.close();
             }
         }
     }
 
-    private String convertStreamToString(InputStream is) throws IOException {
-        ByteArrayOutputStream result = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = is.read(buffer)) != -1) {
-            result.write(buffer, 0, length);
+    private static String readNonEmptyLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                return line;
+            }
         }
-        return result.toString("UTF-8");
+        return null;
+    }
+
+    private static int parseIntValue(String line) {
+        return Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
     }
 
     public int extractVersion(String content) {
@@ -76,65 +519,287 @@ public class HlsParser {
         return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1; // Default to version 1 if not specified
     }
 
-    private MediaPlaylist parseMasterPlaylist(String content, URI baseUri, int version) throws IOException {
-        List<VariantStream> variants = new ArrayList<>();
-        String[] lines = content.split("\\n");
+    private boolean isKnownMasterTag(String line) {
+        return line.startsWith("#EXTM3U") || line.startsWith("#EXT-X-VERSION") ||
+                line.startsWith("#EXT-X-STREAM-INF") || line.startsWith("#EXT-X-MEDIA");
+    }
+
+    private boolean isKnownMasterOnlyTag(String line) {
+        // #EXT-X-MEDIA is a prefix of #EXT-X-MEDIA-SEQUENCE which is a media playlist tag
+        return line.startsWith("#EXT-X-STREAM-INF") ||
+                (line.startsWith("#EXT-X-MEDIA") && !line.startsWith("#EXT-X-MEDIA-SEQUENCE"));
+    }
+
+    /**
+     * Receives the lines of a playlist one by one, after the playlist type has been determined.
+     */
+    private interface PlaylistLineHandler {
+        void handleLine(String line) throws IOException;
+
+        MediaPlaylist finish() throws IOException;
+    }
 
-        for (int i = 0; i < lines.length - 1; i++) {
-            String line = lines[i].trim();
-            if (line.startsWith("#EXT-X-STREAM-INF")) {
-                Map<String, String> attrs = parseAttributes(line);
-                String uriStr = lines[i + 1].trim();
-                if (uriStr.isEmpty()) {
+    private class MasterPlaylistLineHandler implements PlaylistLineHandler {
+        private final UriResolver resolver;
+        private final List<VariantStream> variants = new ArrayList<>();
+        private final List<Rendition> renditions = new ArrayList<>();
+        private boolean linked;
+        private final AttributeListParser attrs = new AttributeListParser();
+        private final CachedPlaylist cacheEntry;
+        private VariantStream pendingVariant; // waits for the URI line
+
+        MasterPlaylistLineHandler(URI baseUri, CachedPlaylist cacheEntry) {
+            this.resolver = new UriResolver(baseUri);
+            this.cacheEntry = cacheEntry;
+        }
+
+        @Override
+        public void handleLine(String line) throws IOException {
+            if (pendingVariant != null) {
+                if (line.startsWith("#")) {
                     throw new IOException("Missing URI after #EXT-X-STREAM-INF");
                 }
-                URI streamUri = baseUri.resolve(uriStr);
-                variants.add(new VariantStream(
-                        streamUri,
-                        Integer.parseInt(attrs.getOrDefault("BANDWIDTH", "0")),
-                        attrs.getOrDefault("RESOLUTION", "unknown"),
-                        attrs.getOrDefault("CODECS", "unknown")
-                ));
+                pendingVariant.uri = resolver.resolve(line);
+                variants.add(pendingVariant);
+                pendingVariant = null;
+            } else if (line.startsWith("#EXT-X-STREAM-INF")) {
+                pendingVariant = parseStreamInf(line);
+            } else if (line.startsWith("#EXT-X-MEDIA:")) {
+                renditions.add(parseMedia(line));
             } else if (strictMode && line.startsWith("#") && !isKnownMasterTag(line)) {
                 throw new IOException("Unsupported master playlist tag: " + line);
             }
         }
 
-        if (variants.isEmpty()) {
-            throw new IOException("No variant streams found in master playlist");
+        private VariantStream parseStreamInf(String line) throws IOException {
+            int bandwidth = 0;
+            String resolution = "unknown";
+            String codecs = "unknown";
+            String audio = null;
+            String video = null;
+            String subtitles = null;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("BANDWIDTH")) {
+                    bandwidth = (int) attrs.decimalInteger();
+                } else if (attrs.nameIs("RESOLUTION")) {
+                    attrs.resolutionWidth(); // validates the WIDTHxHEIGHT format
+                    resolution = attrs.stringValue();
+                } else if (attrs.nameIs("CODECS")) {
+                    codecs = attrs.stringValue();
+                } else if (attrs.nameIs("AUDIO")) {
+                    audio = attrs.stringValue();
+                } else if (attrs.nameIs("VIDEO")) {
+                    video = attrs.stringValue();
+                } else if (attrs.nameIs("SUBTITLES")) {
+                    subtitles = attrs.stringValue();
+                }
+            }
+            VariantStream variant = new VariantStream(null, bandwidth, resolution, codecs);
+            variant.audioGroupId = audio;
+            variant.videoGroupId = video;
+            variant.subtitlesGroupId = subtitles;
+            return variant;
+        }
+
+        private Rendition parseMedia(String line) throws IOException {
+            String type = null;
+            String groupId = null;
+            String name = null;
+            String language = null;
+            String uri = null;
+            boolean isDefault = false;
+            boolean autoselect = false;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("TYPE")) {
+                    type = attrs.stringValue();
+                } else if (attrs.nameIs("GROUP-ID")) {
+                    groupId = attrs.stringValue();
+                } else if (attrs.nameIs("NAME")) {
+                    name = attrs.stringValue();
+                } else if (attrs.nameIs("LANGUAGE")) {
+                    language = attrs.stringValue();
+                } else if (attrs.nameIs("URI")) {
+                    uri = attrs.stringValue();
+                } else if (attrs.nameIs("DEFAULT")) {
+                    isDefault = attrs.valueIs("YES");
+                } else if (attrs.nameIs("AUTOSELECT")) {
+                    autoselect = attrs.valueIs("YES");
+                }
+            }
+            if (type == null || groupId == null) {
+                throw new IOException("Missing TYPE or GROUP-ID in #EXT-X-MEDIA: " + line);
+            }
+            if (name == null && strictMode) {
+                throw new IOException("Missing NAME in #EXT-X-MEDIA: " + line);
+            }
+            return new Rendition(type, groupId, name, language, isDefault, autoselect,
+                    uri != null ? resolver.resolve(uri) : null);
+        }
+
+        /**
+         * Checks the master playlist is complete and links the variants to their renditions.
+         */
+        private void complete() throws IOException {
+            if (pendingVariant != null) {
+                throw new IOException("Missing URI after #EXT-X-STREAM-INF");
+            }
+            if (variants.isEmpty()) {
+                throw new IOException("No variant streams found in master playlist");
+            }
+            if (linked) {
+                return;
+            }
+            for (VariantStream variant : variants) {
+                List<Rendition> linkedRenditions = new ArrayList<>();
+                for (Rendition rendition : renditions) {
+                    if (rendition.isInGroupOf(variant)) {
+                        linkedRenditions.add(rendition);
+                    }
+                }
+                variant.renditions = linkedRenditions;
+            }
+            linked = true;
+        }
+
+        MasterPlaylist toMasterPlaylist() throws IOException {
+            complete();
+            return new MasterPlaylist(variants, renditions);
+        }
+
+        @Override
+        public MediaPlaylist finish() throws IOException {
+            VariantStream chosen = selectedVariant();
+            if (cacheEntry != null) {
+                cacheEntry.variants = variants;
+            }
+            return chosen.playlist != null ? chosen.playlist : parse(chosen.getUri());
+        }
+
+        /**
+         * Lets the callback choose a variant. Only probed variants are parsed.
+         *
+         * @return the selected variant
+         * @throws IOException if the master playlist is incomplete
+         */
+        VariantStream selectedVariant() throws IOException {
+            complete();
+            return chooseVariant(variants);
         }
-        VariantStream chosen = callback.onSelectVariant(variants);
-        return parse(chosen.getUri());
     }
 
-    private boolean isKnownMasterTag(String line) {
-        return line.startsWith("#EXTM3U") || line.startsWith("#EXT-X-VERSION") ||
-                line.startsWith("#EXT-X-STREAM-INF") || line.startsWith("#EXT-X-MEDIA");
+    private MediaPlaylist selectVariant(List<VariantStream> variants) throws IOException {
+        VariantStream chosen = chooseVariant(variants);
+        return chosen.playlist != null ? chosen.playlist : parse(chosen.getUri());
     }
 
-    private MediaPlaylist parseMediaPlaylist(String content, URI baseUri, int version) throws IOException {
-        MediaPlaylist playlist = new MediaPlaylist();
-        String[] lines = content.split("\\n");
-        Segment currentSegment = null;
-        EncryptionInfo currentEncryption = null;
-        Map<String, String> currentByteRange = null;
-        String pendingProgramDateTime = null; // Store pending date-time for the next segment
+    private VariantStream chooseVariant(List<VariantStream> variants) throws IOException {
+        if (probeConcurrency > 0) {
+            probeVariants(variants);
+        }
+        return callback.onSelectVariant(variants);
+    }
 
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
-            if (line.isEmpty()) continue;
+    private void probeVariants(List<VariantStream> variants) throws IOException {
+        List<VariantStream> probed = new ArrayList<>();
+        for (VariantStream variant : variants) {
+            variant.playlist = null; // e.g. from an earlier probe of a cached master playlist
+            if (probeFilter == null || probeFilter.test(variant)) {
+                probed.add(variant);
+            }
+        }
+        if (probed.isEmpty()) {
+            return;
+        }
+        AtomicInteger threadId = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(probeConcurrency, probed.size()), r -> {
+            Thread t = new Thread(r);
+            t.setName("VariantProbe-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<MediaPlaylist>> futures = new ArrayList<>();
+            for (VariantStream variant : probed) {
+                futures.add(executor.submit(() -> parse(variant.getUri())));
+            }
+            for (int i = 0; i < probed.size(); i++) {
+                try {
+                    probed.get(i).playlist = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("Warning: Probing variant " + probed.get(i).getUri() + " failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing variants");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A parsed playlist together with the cache validators of its last response.
+     */
+    private static class CachedPlaylist {
+        final String eTag;
+        final String lastModified;
+        MediaPlaylist playlist;        // set for media playlists
+        List<VariantStream> variants;  // set for master playlists
+
+        CachedPlaylist(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private class MediaPlaylistLineHandler implements PlaylistLineHandler {
+        private final UriResolver resolver;
+        private final MediaPlaylist playlist = new MediaPlaylist();
+        private final AttributeListParser attrs = new AttributeListParser();
+        private int version;
+        private boolean hasIv;
+        private final MediaPlaylist previous;
+        private Map<String, EncryptionInfo> previousEncryptions;
+        private int reuseIndex = -1; // index into previous segments, -1 == not yet determined
+        private int reuseRemaining;  // number of segments that can still be taken from previous
+        private boolean reusePending; // #EXTINF of a reused segment read, waiting for its URI
+        private Segment currentSegment = null;
+        private EncryptionInfo currentEncryption = null;
+        private ByteRange currentByteRange = null; // offset may still be implicit
+        private String lastRangeResource;          // URI reference of the previous sub-range
+        private long lastRangeEnd;
+        private List<PartialSegment> pendingParts = new ArrayList<>(); // parts of the next segment
+        private String lastPartResource;           // URI reference of the previous partial segment range
+        private long lastPartEnd;
+        private String pendingProgramDateTime = null; // Store pending date-time for the next segment
+
+        MediaPlaylistLineHandler(URI baseUri, int version, boolean independentSegments, MediaPlaylist previous) {
+            this.resolver = new UriResolver(baseUri);
+            this.previous = previous;
+            if (compactSegments) {
+                playlist.segments = new CompactSegmentList();
+            }
+            this.version = version;
+            playlist.independentSegments = independentSegments;
+        }
 
+        @Override
+        public void handleLine(String line) throws IOException {
             if (line.equals("#EXTM3U")) {
-                continue;
+                return;
             } else if (line.startsWith("#EXT-X-VERSION")) {
-                int newVersion = Integer.parseInt(line.split(":")[1]);
-                if (newVersion != version) {
+                int newVersion = parseIntValue(line);
+                if (version == 0) {
+                    version = newVersion;
+                } else if (newVersion != version) {
                     System.err.println("Warning: Version mismatch, using " + version);
                 }
             } else if (line.startsWith("#EXT-X-TARGETDURATION")) {
                 playlist.targetDuration = Double.parseDouble(line.split(":")[1]);
             } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE")) {
-                playlist.mediaSequence = Integer.parseInt(line.split(":")[1]);
+                playlist.mediaSequence = parseIntValue(line);
             } else if (line.startsWith("#EXT-X-PLAYLIST-TYPE")) {
                 String type = line.split(":")[1];
                 if (!"VOD".equals(type) && !"EVENT".equals(type)) {
@@ -152,39 +817,16 @@ public class HlsParser {
                 currentSegment = null; // Reset for discontinuity
                 currentEncryption = null; // Reset encryption state
                 currentByteRange = null; // Reset byte range state
+            } else if (isReusingSegment(line)) {
+                return;
             } else if (line.startsWith("#EXT-X-PROGRAM-DATE-TIME")) {
                 pendingProgramDateTime = line.split(":", 2)[1]; // Store for the next segment
             } else if (line.startsWith("#EXT-X-MAP")) {
-                Map<String, String> attrs = parseAttributes(line);
-                URI mapUri = baseUri.resolve(attrs.get("URI").replace("\"", ""));
-                long length = attrs.containsKey("BYTERANGE-LENGTH") ? Long.parseLong(attrs.get("BYTERANGE-LENGTH")) : -1;
-                long offset = attrs.containsKey("BYTERANGE-OFFSET") ? Long.parseLong(attrs.get("BYTERANGE-OFFSET")) : 0;
-                playlist.map = new MapInfo(mapUri, length, offset);
+                playlist.map = parseMap(line);
             } else if (line.startsWith("#EXT-X-BYTERANGE")) {
-                currentByteRange = parseAttributes(line);
+                currentByteRange = parseByteRange(line.substring(line.indexOf(':') + 1), ByteRange.IMPLICIT_OFFSET);
             } else if (line.startsWith("#EXT-X-KEY")) {
-                Map<String, String> attrs = parseAttributes(line);
-                String method = attrs.get("METHOD");
-                if (!"AES-128".equals(method) && !"SAMPLE-AES".equals(method) && !"NONE".equals(method)) {
-                    throw new IOException("Unsupported encryption method: " + method);
-                }
-                URI keyUri = attrs.get("URI") != null ? baseUri.resolve(attrs.get("URI").replace("\"", "")) : null;
-                String iv = attrs.get("IV");
-                if (iv != null) {
-                    if (!iv.startsWith("0x")) {
-                        throw new IOException("IV must be a hexadecimal string starting with 0x: " + iv);
-                    }
-                    if (iv.length() != 34) { // 0x + 32 hex chars (16 bytes)
-                        throw new IOException("IV must be 16 bytes (32 hex chars after 0x), got length: " + (iv.length() - 2));
-                    }
-                    if (!isValidHex(iv.substring(2))) {
-                        throw new IOException("IV contains invalid hexadecimal characters: " + iv);
-                    }
-                }
-                if (version < 2 && iv != null) {
-                    throw new IOException("IV requires version 2 or higher, current version: " + version);
-                }
-                currentEncryption = new EncryptionInfo(method, keyUri, iv);
+                currentEncryption = reuseEncryption(parseKey(line));
             } else if (line.startsWith("#EXTINF")) {
                 String[] parts = line.split(":", 2)[1].split(",");
                 double duration = Double.parseDouble(parts[0]);
@@ -193,37 +835,307 @@ public class HlsParser {
                     playlist.addSegment(currentSegment);
                 }
                 currentSegment = new Segment(null, duration, title, currentEncryption);
-                currentSegment.byteRange = currentByteRange;
                 if (pendingProgramDateTime != null) {
                     currentSegment.programDateTime = pendingProgramDateTime;
                     pendingProgramDateTime = null; // Reset after applying
                 }
-            } else if (line.startsWith("#EXT-X-PART") || line.startsWith("#EXT-X-PRELOAD-HINT")) {
-                // Partial support for low-latency HLS, log as warning
-                System.err.println("Warning: Low-latency tag " + line + " encountered but not fully supported");
-            } else if (!line.startsWith("#") && !line.isEmpty()) {
+            } else if (line.startsWith("#EXT-X-PART-INF")) {
+                playlist.partTarget = parsePartInf(line);
+            } else if (line.startsWith("#EXT-X-PART")) {
+                pendingParts.add(parsePart(line));
+            } else if (line.startsWith("#EXT-X-PRELOAD-HINT")) {
+                playlist.preloadHints.add(parsePreloadHint(line));
+            } else if (line.startsWith("#EXT-X-SERVER-CONTROL")) {
+                playlist.serverControl = parseServerControl(line);
+            } else if (!line.startsWith("#")) {
                 if (currentSegment == null) {
                     throw new IOException("Segment URI found without preceding #EXTINF");
                 }
-                currentSegment.uri = baseUri.resolve(line);
+                currentSegment.uriReference = line; // resolved on demand
+                currentSegment.uriResolver = resolver;
+                currentSegment.byteRange = resolveByteRange(currentByteRange, line);
+                currentSegment.parts = takePendingParts();
                 playlist.addSegment(currentSegment);
                 currentSegment = null; // Reset after adding
                 currentByteRange = null; // Reset byte range
-            } else if (strictMode && line.startsWith("#") && !isKnownMediaTag(line)) {
+            } else if (strictMode && !isKnownMediaTag(line)) {
                 throw new IOException("Unsupported media playlist tag: " + line);
             }
         }
 
-        if (currentSegment != null) {
-            playlist.addSegment(currentSegment);
+        /**
+         * Handles the segment lines of segments that are already known from {@link #previous}.
+         *
+         * @param line the current line
+         * @return true if the line belongs to a reused segment and needs no further handling
+         */
+        private boolean isReusingSegment(String line) {
+            if (previous == null) {
+                return false;
+            }
+            if (reuseIndex < 0 && (line.startsWith("#EXTINF") || !line.startsWith("#"))) {
+                // first segment line: #EXT-X-MEDIA-SEQUENCE has to appear before it
+                List<Segment> known = previous.getSegments();
+                int knownCount = known.size();
+                if (knownCount > 0 && known.get(knownCount - 1).getUri() == null) {
+                    knownCount--; // the URI of the last one was missing, parse it again
+                }
+                int delta = playlist.mediaSequence - previous.mediaSequence;
+                reuseIndex = Math.max(0, delta);
+                reuseRemaining = delta < 0 ? 0 : Math.max(0, knownCount - delta);
+            }
+            if (reuseRemaining == 0) {
+                return false;
+            }
+            if (line.startsWith("#EXTINF")) {
+                reusePending = true;
+                pendingProgramDateTime = null; // belongs to the reused segment
+                return true;
+            } else if (line.startsWith("#EXT-X-BYTERANGE") || line.startsWith("#EXT-X-PROGRAM-DATE-TIME")) {
+                return true;
+            } else if (!line.startsWith("#") && reusePending) {
+                Segment reused = previous.getSegments().get(reuseIndex++);
+                playlist.addSegment(reused);
+                pendingParts.clear(); // already attached to the reused segment
+                if (reused.getByteRange() != null) {
+                    lastRangeResource = line;
+                    lastRangeEnd = reused.getByteRange().getEnd();
+                } else {
+                    lastRangeResource = null;
+                }
+                reuseRemaining--;
+                reusePending = false;
+                currentByteRange = null;
+                return true;
+            }
+            return false;
         }
 
-        validatePlaylist(playlist, version);
-        return playlist;
-    }
+        /**
+         * Determines the offset of a sub-range without explicit offset: it starts right after
+         * the sub-range of the previous segment, which has to use the same resource.
+         *
+         * @param range     the parsed range of the current segment or null
+         * @param reference the URI reference of the current segment
+         * @return the range with a known offset or null
+         * @throws IOException if the offset can't be determined.
+         */
+        private ByteRange resolveByteRange(ByteRange range, String reference) throws IOException {
+            if (range == null) {
+                lastRangeResource = null;
+                return null;
+            }
+            if (range.getOffset() == ByteRange.IMPLICIT_OFFSET) {
+                if (!reference.equals(lastRangeResource)) {
+                    throw new IOException("#EXT-X-BYTERANGE without offset requires a previous sub-range of the same resource: " + reference);
+                }
+                range = new ByteRange(range.getLength(), lastRangeEnd);
+            }
+            lastRangeResource = reference;
+            lastRangeEnd = range.getEnd();
+            return range;
+        }
+
+        private List<PartialSegment> takePendingParts() {
+            if (pendingParts.isEmpty()) {
+                return null;
+            }
+            List<PartialSegment> parts = pendingParts;
+            pendingParts = new ArrayList<>();
+            return parts;
+        }
+
+        private PartialSegment parsePart(String line) throws IOException {
+            String uri = null;
+            double duration = -1;
+            boolean independent = false;
+            boolean gap = false;
+            ByteRange range = null;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("URI")) {
+                    uri = attrs.stringValue();
+                } else if (attrs.nameIs("DURATION")) {
+                    duration = attrs.decimalFloat();
+                } else if (attrs.nameIs("INDEPENDENT")) {
+                    independent = attrs.valueIs("YES");
+                } else if (attrs.nameIs("GAP")) {
+                    gap = attrs.valueIs("YES");
+                } else if (attrs.nameIs("BYTERANGE")) {
+                    range = parseByteRange(attrs.stringValue(), ByteRange.IMPLICIT_OFFSET);
+                }
+            }
+            if (uri == null) {
+                throw new IOException("Missing URI in #EXT-X-PART");
+            }
+            if (duration < 0) {
+                throw new IOException("Missing DURATION in #EXT-X-PART");
+            }
+            if (range != null) {
+                if (range.getOffset() == ByteRange.IMPLICIT_OFFSET) {
+                    if (!uri.equals(lastPartResource)) {
+                        throw new IOException("BYTERANGE without offset requires a previous partial segment of the same resource: " + uri);
+                    }
+                    range = new ByteRange(range.getLength(), lastPartEnd);
+                }
+                lastPartResource = uri;
+                lastPartEnd = range.getEnd();
+            } else {
+                lastPartResource = null;
+            }
+            return new PartialSegment(uri, resolver, duration, independent, gap, range);
+        }
 
-    private boolean isValidHex(String hex) {
-        return hex.matches("^[0-9a-fA-F]+$");
+        private PreloadHint parsePreloadHint(String line) throws IOException {
+            String type = null;
+            String uri = null;
+            long start = 0;
+            long length = -1;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("TYPE")) {
+                    type = attrs.stringValue();
+                } else if (attrs.nameIs("URI")) {
+                    uri = attrs.stringValue();
+                } else if (attrs.nameIs("BYTERANGE-START")) {
+                    start = attrs.decimalInteger();
+                } else if (attrs.nameIs("BYTERANGE-LENGTH")) {
+                    length = attrs.decimalInteger();
+                }
+            }
+            if (type == null || uri == null) {
+                throw new IOException("Missing TYPE or URI in #EXT-X-PRELOAD-HINT");
+            }
+            return new PreloadHint(type, resolver.resolve(uri), start, length);
+        }
+
+        private double parsePartInf(String line) throws IOException {
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("PART-TARGET")) {
+                    return attrs.decimalFloat();
+                }
+            }
+            throw new IOException("Missing PART-TARGET in #EXT-X-PART-INF");
+        }
+
+        private ServerControl parseServerControl(String line) throws IOException {
+            ServerControl control = new ServerControl();
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("CAN-BLOCK-RELOAD")) {
+                    control.canBlockReload = attrs.valueIs("YES");
+                } else if (attrs.nameIs("CAN-SKIP-UNTIL")) {
+                    control.canSkipUntil = attrs.decimalFloat();
+                } else if (attrs.nameIs("HOLD-BACK")) {
+                    control.holdBack = attrs.decimalFloat();
+                } else if (attrs.nameIs("PART-HOLD-BACK")) {
+                    control.partHoldBack = attrs.decimalFloat();
+                }
+            }
+            return control;
+        }
+
+        /**
+         * @param parsed a freshly parsed encryption info
+         * @return the identical instance of {@link #previous} if there is one, otherwise {@code parsed}
+         */
+        private EncryptionInfo reuseEncryption(EncryptionInfo parsed) {
+            if (previous == null) {
+                return parsed;
+            }
+            if (previousEncryptions == null) {
+                previousEncryptions = new HashMap<>();
+                for (Segment segment : previous.getSegments()) {
+                    EncryptionInfo info = segment.getEncryptionInfo();
+                    if (info != null) {
+                        previousEncryptions.put(encryptionKey(info), info);
+                    }
+                }
+            }
+            EncryptionInfo known = previousEncryptions.get(encryptionKey(parsed));
+            return known != null ? known : parsed;
+        }
+
+        private String encryptionKey(EncryptionInfo info) {
+            return info.getMethod() + '\n' + info.getUri() + '\n' + info.getIv();
+        }
+
+        private MapInfo parseMap(String line) throws IOException {
+            String uri = null;
+            long length = -1;
+            long offset = 0;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("URI")) {
+                    uri = attrs.stringValue();
+                } else if (attrs.nameIs("BYTERANGE")) {
+                    ByteRange range = parseByteRange(attrs.stringValue(), 0);
+                    length = range.getLength();
+                    offset = range.getOffset();
+                }
+            }
+            if (uri == null) {
+                throw new IOException("Missing URI in #EXT-X-MAP");
+            }
+            return new MapInfo(resolver.resolve(uri), length, offset);
+        }
+
+        private EncryptionInfo parseKey(String line) throws IOException {
+            String method = null;
+            String uri = null;
+            String iv = null;
+            attrs.reset(line);
+            while (attrs.next()) {
+                if (attrs.nameIs("METHOD")) {
+                    if (attrs.valueIs("AES-128")) {
+                        method = "AES-128";
+                    } else if (attrs.valueIs("SAMPLE-AES")) {
+                        method = "SAMPLE-AES";
+                    } else if (attrs.valueIs("NONE")) {
+                        method = "NONE";
+                    } else {
+                        method = attrs.stringValue();
+                    }
+                } else if (attrs.nameIs("URI")) {
+                    uri = attrs.stringValue();
+                } else if (attrs.nameIs("IV")) {
+                    iv = attrs.stringValue();
+                    if (!attrs.isHexSequence()) {
+                        if (!iv.startsWith("0x") && !iv.startsWith("0X")) {
+                            throw new IOException("IV must be a hexadecimal string starting with 0x: " + iv);
+                        }
+                        throw new IOException("IV contains invalid hexadecimal characters: " + iv);
+                    }
+                    if (iv.length() != 34) { // 0x + 32 hex chars (16 bytes)
+                        throw new IOException("IV must be 16 bytes (32 hex chars after 0x), got length: " + (iv.length() - 2));
+                    }
+                    hasIv = true; // version is checked in finish(), #EXT-X-VERSION may not have been read yet
+                }
+            }
+            if (!"AES-128".equals(method) && !"SAMPLE-AES".equals(method) && !"NONE".equals(method)) {
+                throw new IOException("Unsupported encryption method: " + method);
+            }
+            URI keyUri = uri != null ? resolver.resolve(uri) : null;
+            return new EncryptionInfo(method, keyUri, iv);
+        }
+
+        @Override
+        public MediaPlaylist finish() throws IOException {
+            if (currentSegment != null) {
+                playlist.addSegment(currentSegment);
+            }
+            playlist.trailingParts = pendingParts; // parts of a segment that is not complete yet
+            int effectiveVersion = version == 0 ? 1 : version; // Default to version 1 if not specified
+            if (effectiveVersion < 2 && hasIv) {
+                throw new IOException("IV requires version 2 or higher, current version: " + effectiveVersion);
+            }
+            validatePlaylist(playlist, effectiveVersion);
+            if (playlist.segments instanceof CompactSegmentList) {
+                ((CompactSegmentList) playlist.segments).trimToSize();
+            }
+            return playlist;
+        }
     }
 
     private boolean isKnownMediaTag(String line) {
@@ -233,11 +1145,12 @@ public class HlsParser {
                 line.startsWith("#EXT-X-INDEPENDENT-SEGMENTS") || line.startsWith("#EXT-X-DISCONTINUITY") ||
                 line.startsWith("#EXT-X-PROGRAM-DATE-TIME") || line.startsWith("#EXT-X-MAP") ||
                 line.startsWith("#EXT-X-BYTERANGE") || line.startsWith("#EXT-X-KEY") ||
-                line.startsWith("#EXTINF") || line.startsWith("#EXT-X-PART") || line.startsWith("#EXT-X-PRELOAD-HINT");
+                line.startsWith("#EXTINF") || line.startsWith("#EXT-X-PART") || line.startsWith("#EXT-X-PRELOAD-HINT") ||
+                line.startsWith("#EXT-X-SERVER-CONTROL") || line.startsWith("#EXT-X-RENDITION-REPORT");
     }
 
     private void validatePlaylist(MediaPlaylist playlist, int version) throws IOException {
-        if (playlist.segments.isEmpty()) {
+        if (playlist.segments.isEmpty() && playlist.trailingParts.isEmpty()) {
             throw new IOException("No segments found in media playlist");
         }
         if (playlist.targetDuration <= 0) {
@@ -258,14 +1171,21 @@ public class HlsParser {
         }
     }
 
-    private Map<String, String> parseAttributes(String line) {
-        Map<String, String> attrs = new HashMap<>();
-        Matcher matcher = Pattern.compile("(\\w+)=(\"?([^,\"]+)\"?|([^,\\s]+))").matcher(line);
-        while (matcher.find()) {
-            String value = matcher.group(2) != null ? matcher.group(2).replace("\"", "") : matcher.group(4);
-            attrs.put(matcher.group(1), value);
-        }
-        return attrs;
+    /**
+     * Parses the {@code <n>[@<o>]} syntax of a byte range.
+     *
+     * @param value         the byte range without tag name, e.g. {@code 1000@0}
+     * @param defaultOffset the offset to use if the value has none
+     * @return the parsed range
+     * @throws IOException if the value is not a valid byte range.
+     */
+    private static ByteRange parseByteRange(String value, long defaultOffset) throws IOException {
+        value = value.trim();
+        int at = value.indexOf('@');
+        int lengthEnd = at < 0 ? value.length() : at;
+        long length = AttributeListParser.parseDecimalInteger(value, 0, lengthEnd);
+        long offset = at < 0 ? defaultOffset : AttributeListParser.parseDecimalInteger(value, at + 1, value.length());
+        return new ByteRange(length, offset);
     }
 
     // ===== Interfaces =====
@@ -282,6 +1202,31 @@ public class HlsParser {
         VariantStream onSelectVariant(List<VariantStream> variants);
     }
 
+    /**
+     * Pull based access to the segments of a playlist that is still being read,
+     * see {@link #iterateSegments(URI)}.
+     */
+    public interface SegmentIterator extends Closeable {
+        /**
+         * @return true if there is another segment. Blocks until its URI line has been read.
+         * @throws IOException if reading or parsing fails
+         */
+        boolean hasNext() throws IOException;
+
+        /**
+         * @return the next segment
+         * @throws IOException if reading or parsing fails
+         * @throws NoSuchElementException if there are no more segments
+         */
+        Segment next() throws IOException;
+
+        /**
+         * @return the complete and validated playlist once {@link #hasNext()} returned false,
+         * null before.
+         */
+        MediaPlaylist getPlaylist();
+    }
+
     // ===== Models =====
 
     /**
@@ -292,6 +1237,11 @@ public class HlsParser {
         int bandwidth;
         String resolution;
         String codecs;
+        String audioGroupId;
+        String videoGroupId;
+        String subtitlesGroupId;
+        List<Rendition> renditions = Collections.emptyList();
+        MediaPlaylist playlist; // set by variant probing
 
         public VariantStream(URI uri, int bandwidth, String resolution, String codecs) {
             this.uri = uri;
@@ -305,6 +1255,38 @@ public class HlsParser {
         public String getResolution() { return resolution; }
         public String getCodecs() { return codecs; }
 
+        /** @return the GROUP-ID of the audio renditions or null. */
+        public String getAudioGroupId() { return audioGroupId; }
+        /** @return the GROUP-ID of the video renditions or null. */
+        public String getVideoGroupId() { return videoGroupId; }
+        /** @return the GROUP-ID of the subtitle renditions or null. */
+        public String getSubtitlesGroupId() { return subtitlesGroupId; }
+
+        /**
+         * @return the renditions of the AUDIO, VIDEO and SUBTITLES groups of this variant.
+         */
+        public List<Rendition> getRenditions() { return renditions; }
+
+        /**
+         * @param type the rendition type, e.g. {@link Rendition#TYPE_AUDIO}
+         * @return the renditions of the given type
+         */
+        public List<Rendition> getRenditions(String type) {
+            List<Rendition> result = new ArrayList<>();
+            for (Rendition rendition : renditions) {
+                if (rendition.getType().equals(type)) {
+                    result.add(rendition);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the parsed media playlist if the variant was probed, otherwise null.
+         * See {@link HlsParser#setVariantProbing(int, Predicate)}.
+         */
+        public MediaPlaylist getPlaylist() { return playlist; }
+
         @Override
         public String toString() {
             return "VariantStream{" +
@@ -316,18 +1298,109 @@ public class HlsParser {
         }
     }
 
+    /**
+     * Represents an alternative rendition of a master playlist (#EXT-X-MEDIA), e.g. an audio
+     * track in another language or subtitles.
+     */
+    public static class Rendition {
+        public static final String TYPE_AUDIO = "AUDIO";
+        public static final String TYPE_VIDEO = "VIDEO";
+        public static final String TYPE_SUBTITLES = "SUBTITLES";
+        public static final String TYPE_CLOSED_CAPTIONS = "CLOSED-CAPTIONS";
+
+        private final String type;
+        private final String groupId;
+        private final String name;
+        private final String language;
+        private final boolean isDefault;
+        private final boolean autoselect;
+        private final URI uri;
+
+        public Rendition(String type, String groupId, String name, String language, boolean isDefault,
+                         boolean autoselect, URI uri) {
+            this.type = type;
+            this.groupId = groupId;
+            this.name = name;
+            this.language = language;
+            this.isDefault = isDefault;
+            this.autoselect = autoselect;
+            this.uri = uri;
+        }
+
+        public String getType() { return type; }
+        public String getGroupId() { return groupId; }
+        public String getName() { return name; }
+        public String getLanguage() { return language; }
+        public boolean isDefault() { return isDefault; }
+        public boolean isAutoselect() { return autoselect; }
+
+        /**
+         * @return the URI of the media playlist, or null if the rendition is part of the
+         * variant stream itself.
+         */
+        public URI getUri() { return uri; }
+
+        boolean isInGroupOf(VariantStream variant) {
+            String variantGroup;
+            if (TYPE_AUDIO.equals(type)) {
+                variantGroup = variant.audioGroupId;
+            } else if (TYPE_VIDEO.equals(type)) {
+                variantGroup = variant.videoGroupId;
+            } else if (TYPE_SUBTITLES.equals(type)) {
+                variantGroup = variant.subtitlesGroupId;
+            } else {
+                return false;
+            }
+            return groupId.equals(variantGroup);
+        }
+
+        @Override
+        public String toString() {
+            return "Rendition{" +
+                    "type=" + type +
+                    ", groupId='" + groupId + '\'' +
+                    ", name='" + name + '\'' +
+                    ", language='" + language + '\'' +
+                    ", default=" + isDefault +
+                    ", uri=" + uri +
+                    '}';
+        }
+    }
+
+    /**
+     * Represents a parsed master playlist.
+     */
+    public static class MasterPlaylist {
+        private final List<VariantStream> variants;
+        private final List<Rendition> renditions;
+
+        public MasterPlaylist(List<VariantStream> variants, List<Rendition> renditions) {
+            this.variants = variants;
+            this.renditions = renditions;
+        }
+
+        public List<VariantStream> getVariants() { return variants; }
+        public List<Rendition> getRenditions() { return renditions; }
+    }
+
     /**
      * Represents a single segment in a media playlist.
+     * <p>
+     * Segments created by the parser keep the URI reference as found in the playlist and
+     * resolve it against the playlist URI on each {@link #getUri()} call.
      */
     public static class Segment implements Serializable {
         private static final long serialVersionUID = 1L;
 
         private URI uri;
+        private String uriReference;
+        private UriResolver uriResolver;
         private double duration;
         private String title;
         private EncryptionInfo encryptionInfo;
-        private Map<String, String> byteRange;
+        private ByteRange byteRange;
         private String programDateTime;
+        private List<PartialSegment> parts; // null if the playlist lists no parts for this segment
 
         public Segment(URI uri, double duration, String title, EncryptionInfo encryptionInfo) {
             this.uri = uri;
@@ -338,12 +1411,172 @@ public class HlsParser {
             this.programDateTime = null;
         }
 
-        public URI getUri() { return uri; }
+        Segment(URI uri, String uriReference, UriResolver uriResolver, double duration, String title,
+                EncryptionInfo encryptionInfo, ByteRange byteRange, String programDateTime) {
+            this(uri, duration, title, encryptionInfo);
+            this.uriReference = uriReference;
+            this.uriResolver = uriResolver;
+            this.byteRange = byteRange;
+            this.programDateTime = programDateTime;
+        }
+
+        public URI getUri() {
+            if (uri == null && uriReference != null) {
+                return uriResolver.resolve(uriReference);
+            }
+            return uri;
+        }
+
+        String getUriReference() { return uriReference; }
+        UriResolver getUriResolver() { return uriResolver; }
         public double getDuration() { return duration; }
         public String getTitle() { return title; }
         public EncryptionInfo getEncryptionInfo() { return encryptionInfo; }
-        public Map<String, String> getByteRange() { return byteRange; }
+        public ByteRange getByteRange() { return byteRange; }
         public String getProgramDateTime() { return programDateTime; }
+
+        /**
+         * @return the partial segments (#EXT-X-PART) this segment is made of. Empty if the
+         * playlist does not list them, e.g. for segments older than the low-latency window.
+         */
+        public List<PartialSegment> getParts() {
+            return parts != null ? parts : Collections.<PartialSegment>emptyList();
+        }
+
+        void setParts(List<PartialSegment> parts) { this.parts = parts; }
+    }
+
+    /**
+     * Represents a partial segment of a low-latency playlist (#EXT-X-PART).
+     */
+    public static class PartialSegment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String uriReference;
+        private final UriResolver uriResolver;
+        private final double duration;
+        private final boolean independent;
+        private final boolean gap;
+        private final ByteRange byteRange;
+
+        PartialSegment(String uriReference, UriResolver uriResolver, double duration, boolean independent,
+                       boolean gap, ByteRange byteRange) {
+            this.uriReference = uriReference;
+            this.uriResolver = uriResolver;
+            this.duration = duration;
+            this.independent = independent;
+            this.gap = gap;
+            this.byteRange = byteRange;
+        }
+
+        public URI getUri() { return uriResolver.resolve(uriReference); }
+        public double getDuration() { return duration; }
+        public boolean isIndependent() { return independent; }
+        public boolean isGap() { return gap; }
+        public ByteRange getByteRange() { return byteRange; }
+    }
+
+    /**
+     * Represents a resource the server announced before it is available (#EXT-X-PRELOAD-HINT).
+     * A request for it is answered as soon as the resource is published.
+     */
+    public static class PreloadHint implements Serializable {
+        private static final long serialVersionUID = 1L;
+        public static final String TYPE_PART = "PART";
+        public static final String TYPE_MAP = "MAP";
+
+        private final String type;
+        private final URI uri;
+        private final long byteRangeStart;
+        private final long byteRangeLength;
+
+        public PreloadHint(String type, URI uri, long byteRangeStart, long byteRangeLength) {
+            this.type = type;
+            this.uri = uri;
+            this.byteRangeStart = byteRangeStart;
+            this.byteRangeLength = byteRangeLength;
+        }
+
+        public String getType() { return type; }
+        public URI getUri() { return uri; }
+        public long getByteRangeStart() { return byteRangeStart; }
+
+        /**
+         * @return the length of the hinted range or -1 if the resource ends with the range.
+         */
+        public long getByteRangeLength() { return byteRangeLength; }
+    }
+
+    /**
+     * Represents the #EXT-X-SERVER-CONTROL tag of a media playlist.
+     */
+    public static class ServerControl implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private boolean canBlockReload;
+        private double canSkipUntil = -1;
+        private double holdBack = -1;
+        private double partHoldBack = -1;
+
+        ServerControl() {
+        }
+
+        ServerControl(boolean canBlockReload, double canSkipUntil, double holdBack, double partHoldBack) {
+            this.canBlockReload = canBlockReload;
+            this.canSkipUntil = canSkipUntil;
+            this.holdBack = holdBack;
+            this.partHoldBack = partHoldBack;
+        }
+
+        public boolean isCanBlockReload() { return canBlockReload; }
+        /** @return the skip boundary in seconds or -1 if not set. */
+        public double getCanSkipUntil() { return canSkipUntil; }
+        /** @return the hold back in seconds or -1 if not set. */
+        public double getHoldBack() { return holdBack; }
+        /** @return the part hold back in seconds or -1 if not set. */
+        public double getPartHoldBack() { return partHoldBack; }
+    }
+
+    /**
+     * Represents the sub-range of a resource a segment is made of (#EXT-X-BYTERANGE).
+     */
+    public static class ByteRange implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final long IMPLICIT_OFFSET = -1; // only used while parsing
+
+        private final long length;
+        private final long offset;
+
+        public ByteRange(long length, long offset) {
+            this.length = length;
+            this.offset = offset;
+        }
+
+        public long getLength() { return length; }
+        public long getOffset() { return offset; }
+
+        /**
+         * @return the offset of the first byte after this range.
+         */
+        public long getEnd() { return offset + length; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ByteRange)) return false;
+            ByteRange other = (ByteRange) o;
+            return length == other.length && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(length) + Long.hashCode(offset);
+        }
+
+        @Override
+        public String toString() {
+            return length + "@" + offset;
+        }
     }
 
     /**
@@ -358,11 +1591,25 @@ public class HlsParser {
         private boolean endList;
         private boolean independentSegments;
         private MapInfo map;
+        private double partTarget;
+        private ServerControl serverControl;
+        private List<PartialSegment> trailingParts = new ArrayList<>();
+        private List<PreloadHint> preloadHints = new ArrayList<>();
 
         public void addSegment(Segment segment) {
             segments.add(segment);
         }
 
+        /**
+         * Converts the segments of this playlist into a {@link CompactSegmentList}.
+         *
+         * @return this playlist
+         */
+        public MediaPlaylist compact() {
+            segments = CompactSegmentList.of(segments);
+            return this;
+        }
+
         public List<Segment> getSegments() { return segments; }
         public double getTargetDuration() { return targetDuration; }
         public int getMediaSequence() { return mediaSequence; }
@@ -370,6 +1617,31 @@ public class HlsParser {
         public boolean isEndList() { return endList; }
         public boolean isIndependentSegments() { return independentSegments; }
         public MapInfo getMap() { return map; }
+
+        /** @return the PART-TARGET of #EXT-X-PART-INF in seconds or 0 if the playlist has no parts. */
+        public double getPartTarget() { return partTarget; }
+        /** @return the #EXT-X-SERVER-CONTROL values or null. */
+        public ServerControl getServerControl() { return serverControl; }
+
+        /**
+         * @return the partial segments after the last complete segment. They belong to the
+         * segment with media sequence number {@code getMediaSequence() + getSegments().size()}.
+         */
+        public List<PartialSegment> getTrailingParts() { return trailingParts; }
+        public List<PreloadHint> getPreloadHints() { return preloadHints; }
+
+        // used by PlaylistSnapshot to restore a playlist
+        void setSegments(List<Segment> segments) { this.segments = segments; }
+        void setTargetDuration(double targetDuration) { this.targetDuration = targetDuration; }
+        void setMediaSequence(int mediaSequence) { this.mediaSequence = mediaSequence; }
+        void setPlaylistType(String playlistType) { this.playlistType = playlistType; }
+        void setEndList(boolean endList) { this.endList = endList; }
+        void setIndependentSegments(boolean independentSegments) { this.independentSegments = independentSegments; }
+        void setMap(MapInfo map) { this.map = map; }
+        void setPartTarget(double partTarget) { this.partTarget = partTarget; }
+        void setServerControl(ServerControl serverControl) { this.serverControl = serverControl; }
+        void setTrailingParts(List<PartialSegment> trailingParts) { this.trailingParts = trailingParts; }
+        void setPreloadHints(List<PreloadHint> preloadHints) { this.preloadHints = preloadHints; }
     }
 
     /**
@@ -0,0 +1,366 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.ByteRange;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.EncryptionInfo;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.MapInfo;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.MediaPlaylist;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.PartialSegment;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.PreloadHint;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.Segment;
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.ServerControl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact, versioned binary snapshot of a parsed {@link MediaPlaylist}.
+ * <p>
+ * A snapshot restores a playlist without fetching and parsing it again, e.g. to resume a
+ * download after a restart. Segment URIs are stored relative to the playlist URI, every
+ * {@link EncryptionInfo} is stored once. Fetched keys are only stored if asked for, as they
+ * are secrets. The data is protected by a CRC32, so a truncated or damaged snapshot is
+ * rejected with an IOException instead of yielding a broken playlist.
+ * <p>
+ * Format: magic {@code "HLSP"}, format version, playlist URI, flags, playlist attributes,
+ * encryption infos, segments, trailing parts, preload hints, CRC32. Snapshots of another
+ * format version are rejected.
+ */
+public final class PlaylistSnapshot {
+    static final int MAGIC = 0x484C5350; // "HLSP"
+    static final int FORMAT_VERSION = 1;
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    private static final int FLAG_KEYS = 1;
+    private static final int FLAG_COMPACT = 1 << 1;
+
+    private static final int SEGMENT_NO_URI = 1;
+    private static final int SEGMENT_RELATIVE_URI = 1 << 1;
+    private static final int SEGMENT_BYTE_RANGE = 1 << 2;
+    private static final int SEGMENT_PARTS = 1 << 3;
+
+    private final URI uri;
+    private final MediaPlaylist playlist;
+
+    /**
+     * @param uri      the URI the playlist was parsed from.
+     * @param playlist the parsed playlist.
+     */
+    public PlaylistSnapshot(URI uri, MediaPlaylist playlist) {
+        this.uri = uri;
+        this.playlist = playlist;
+    }
+
+    public URI getUri() { return uri; }
+    public MediaPlaylist getPlaylist() { return playlist; }
+
+    /**
+     * Writes the snapshot. The stream is not closed.
+     *
+     * @param out         the stream to write to, preferably buffered.
+     * @param includeKeys true to store the keys of the encryption infos that were fetched.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(OutputStream out, boolean includeKeys) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        UriResolver resolver = new UriResolver(uri);
+
+        data.writeInt(MAGIC);
+        data.writeShort(FORMAT_VERSION);
+        writeString(data, uri.toString());
+        List<Segment> segments = playlist.getSegments();
+        data.writeByte((includeKeys ? FLAG_KEYS : 0) | (segments instanceof CompactSegmentList ? FLAG_COMPACT : 0));
+
+        data.writeDouble(playlist.getTargetDuration());
+        data.writeInt(playlist.getMediaSequence());
+        writeString(data, playlist.getPlaylistType());
+        data.writeBoolean(playlist.isEndList());
+        data.writeBoolean(playlist.isIndependentSegments());
+        data.writeDouble(playlist.getPartTarget());
+        MapInfo map = playlist.getMap();
+        data.writeBoolean(map != null);
+        if (map != null) {
+            writeUri(data, map.getUri());
+            data.writeLong(map.getLength());
+            data.writeLong(map.getOffset());
+        }
+        ServerControl control = playlist.getServerControl();
+        data.writeBoolean(control != null);
+        if (control != null) {
+            data.writeBoolean(control.isCanBlockReload());
+            data.writeDouble(control.getCanSkipUntil());
+            data.writeDouble(control.getHoldBack());
+            data.writeDouble(control.getPartHoldBack());
+        }
+
+        Map<EncryptionInfo, Integer> infoIndices = new IdentityHashMap<>();
+        List<EncryptionInfo> infos = new ArrayList<>();
+        for (Segment segment : segments) {
+            EncryptionInfo info = segment.getEncryptionInfo();
+            if (info != null && !infoIndices.containsKey(info)) {
+                infoIndices.put(info, infos.size());
+                infos.add(info);
+            }
+        }
+        data.writeInt(infos.size());
+        for (EncryptionInfo info : infos) {
+            writeString(data, info.getMethod());
+            writeUri(data, info.getUri());
+            writeString(data, info.getIv());
+            byte[] key = includeKeys ? info.getKey() : null;
+            data.writeInt(key != null ? key.length : -1);
+            if (key != null) {
+                data.write(key);
+            }
+        }
+
+        String base = resolver.resolve("x").toString();
+        String prefix = base.substring(0, base.length() - 1); // the directory of the playlist
+        data.writeInt(segments.size());
+        for (Segment segment : segments) {
+            URI segmentUri = segment.getUri();
+            String reference = segmentUri != null ? relativeReference(resolver, prefix, segmentUri) : null;
+            ByteRange range = segment.getByteRange();
+            List<PartialSegment> parts = segment.getParts();
+            data.writeByte((segmentUri == null ? SEGMENT_NO_URI : 0)
+                    | (reference != null ? SEGMENT_RELATIVE_URI : 0)
+                    | (range != null ? SEGMENT_BYTE_RANGE : 0)
+                    | (!parts.isEmpty() ? SEGMENT_PARTS : 0));
+            if (segmentUri != null) {
+                writeString(data, reference != null ? reference : segmentUri.toString());
+            }
+            data.writeDouble(segment.getDuration());
+            writeString(data, segment.getTitle());
+            EncryptionInfo info = segment.getEncryptionInfo();
+            data.writeInt(info != null ? infoIndices.get(info) : -1);
+            if (range != null) {
+                data.writeLong(range.getLength());
+                data.writeLong(range.getOffset());
+            }
+            writeString(data, segment.getProgramDateTime());
+            if (!parts.isEmpty()) {
+                writeParts(data, parts);
+            }
+        }
+        writeParts(data, playlist.getTrailingParts());
+        data.writeInt(playlist.getPreloadHints().size());
+        for (PreloadHint hint : playlist.getPreloadHints()) {
+            writeString(data, hint.getType());
+            writeUri(data, hint.getUri());
+            data.writeLong(hint.getByteRangeStart());
+            data.writeLong(hint.getByteRangeLength());
+        }
+        data.flush();
+        new DataOutputStream(out).writeLong(checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(OutputStream, boolean)}. The stream is
+     * not closed.
+     *
+     * @param in the stream to read from, preferably buffered.
+     * @return the snapshot
+     * @throws IOException if reading fails or the data is no valid snapshot of this format version.
+     */
+    public static PlaylistSnapshot readFrom(InputStream in) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a playlist snapshot");
+        }
+        int version = data.readUnsignedShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported playlist snapshot version: " + version);
+        }
+        URI uri = parseUri(readString(data));
+        UriResolver resolver = new UriResolver(uri);
+        int flags = data.readUnsignedByte();
+
+        MediaPlaylist playlist = new MediaPlaylist();
+        playlist.setTargetDuration(data.readDouble());
+        playlist.setMediaSequence(data.readInt());
+        playlist.setPlaylistType(readString(data));
+        playlist.setEndList(data.readBoolean());
+        playlist.setIndependentSegments(data.readBoolean());
+        playlist.setPartTarget(data.readDouble());
+        if (data.readBoolean()) {
+            playlist.setMap(new MapInfo(readUri(data), data.readLong(), data.readLong()));
+        }
+        if (data.readBoolean()) {
+            playlist.setServerControl(new ServerControl(data.readBoolean(), data.readDouble(),
+                    data.readDouble(), data.readDouble()));
+        }
+
+        int infoCount = readCount(data);
+        List<EncryptionInfo> infos = new ArrayList<>();
+        for (int i = 0; i < infoCount; i++) {
+            EncryptionInfo info = new EncryptionInfo(readString(data), readUri(data), readString(data));
+            int keyLength = data.readInt();
+            if (keyLength > 0 && keyLength <= 64 && (flags & FLAG_KEYS) != 0) {
+                byte[] key = new byte[keyLength];
+                data.readFully(key);
+                info.setKey(key);
+            } else if (keyLength != -1) {
+                throw new IOException("Invalid key length in playlist snapshot: " + keyLength);
+            }
+            infos.add(info);
+        }
+
+        int segmentCount = readCount(data);
+        List<Segment> segments = (flags & FLAG_COMPACT) != 0 ? new CompactSegmentList() : new ArrayList<>();
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentFlags = data.readUnsignedByte();
+            String reference = null;
+            URI segmentUri = null;
+            if ((segmentFlags & SEGMENT_NO_URI) == 0) {
+                if ((segmentFlags & SEGMENT_RELATIVE_URI) != 0) {
+                    reference = readString(data);
+                } else {
+                    segmentUri = parseUri(readString(data));
+                }
+            }
+            double duration = data.readDouble();
+            String title = readString(data);
+            int infoIndex = data.readInt();
+            if (infoIndex < -1 || infoIndex >= infos.size()) {
+                throw new IOException("Invalid encryption info index in playlist snapshot: " + infoIndex);
+            }
+            ByteRange range = (segmentFlags & SEGMENT_BYTE_RANGE) != 0
+                    ? new ByteRange(data.readLong(), data.readLong()) : null;
+            Segment segment = new Segment(segmentUri, reference, reference != null ? resolver : null, duration,
+                    title, infoIndex >= 0 ? infos.get(infoIndex) : null, range, readString(data));
+            if ((segmentFlags & SEGMENT_PARTS) != 0) {
+                segment.setParts(readParts(data, resolver));
+            }
+            segments.add(segment);
+        }
+        if (segments instanceof CompactSegmentList) {
+            ((CompactSegmentList) segments).trimToSize();
+        }
+        playlist.setSegments(segments);
+        playlist.setTrailingParts(readParts(data, resolver));
+        int hintCount = readCount(data);
+        List<PreloadHint> hints = new ArrayList<>();
+        for (int i = 0; i < hintCount; i++) {
+            hints.add(new PreloadHint(readString(data), readUri(data), data.readLong(), data.readLong()));
+        }
+        playlist.setPreloadHints(hints);
+
+        long expected = checked.getChecksum().getValue();
+        if (new DataInputStream(in).readLong() != expected) {
+            throw new IOException("Playlist snapshot checksum mismatch");
+        }
+        return new PlaylistSnapshot(uri, playlist);
+    }
+
+    /**
+     * @return the reference that resolves to {@code uri} against the playlist URI, or null if
+     * the URI has to be stored as is.
+     */
+    private static String relativeReference(UriResolver resolver, String prefix, URI uri) {
+        String uriString = uri.toString();
+        if (!uriString.startsWith(prefix)) {
+            return null;
+        }
+        String reference = uriString.substring(prefix.length());
+        if (!UriResolver.isPlainRelativePath(reference) || !resolver.resolve(reference).equals(uri)) {
+            return null;
+        }
+        return reference;
+    }
+
+    private static void writeParts(DataOutputStream data, List<PartialSegment> parts) throws IOException {
+        data.writeInt(parts.size());
+        for (PartialSegment part : parts) {
+            writeUri(data, part.getUri());
+            data.writeDouble(part.getDuration());
+            data.writeBoolean(part.isIndependent());
+            data.writeBoolean(part.isGap());
+            ByteRange range = part.getByteRange();
+            data.writeBoolean(range != null);
+            if (range != null) {
+                data.writeLong(range.getLength());
+                data.writeLong(range.getOffset());
+            }
+        }
+    }
+
+    private static List<PartialSegment> readParts(DataInputStream data, UriResolver resolver) throws IOException {
+        int count = readCount(data);
+        List<PartialSegment> parts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String uri = readString(data);
+            double duration = data.readDouble();
+            boolean independent = data.readBoolean();
+            boolean gap = data.readBoolean();
+            ByteRange range = data.readBoolean() ? new ByteRange(data.readLong(), data.readLong()) : null;
+            parts.add(new PartialSegment(uri, resolver, duration, independent, gap, range));
+        }
+        return parts;
+    }
+
+    private static void writeUri(DataOutputStream data, URI uri) throws IOException {
+        writeString(data, uri != null ? uri.toString() : null);
+    }
+
+    private static URI readUri(DataInputStream data) throws IOException {
+        String uri = readString(data);
+        return uri != null ? parseUri(uri) : null;
+    }
+
+    private static URI parseUri(String uri) throws IOException {
+        try {
+            return URI.create(uri);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid URI in playlist snapshot: " + uri, e);
+        }
+    }
+
+    /**
+     * Unlike {@link DataOutputStream#writeUTF(String)} not limited to 64 KiB, e.g. for data URIs.
+     */
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length in playlist snapshot: " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readCount(DataInputStream data) throws IOException {
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count in playlist snapshot: " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import java.io.Serializable;
+import java.net.URI;
+
+/**
+ * Resolves URI references of a playlist against the playlist URI.
+ * <p>
+ * Almost all segments of a playlist are plain file names in the directory of the playlist.
+ * For those the resolved URI is the cached directory prefix plus the reference, which avoids
+ * the parsing and normalization done by {@link URI#resolve(String)}. Everything else, e.g.
+ * absolute URIs, absolute paths, query-only references or dot segments, falls back to
+ * {@link URI#resolve(String)}.
+ * <p>
+ * Instances are immutable and shared by all segments of a playlist.
+ */
+final class UriResolver implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final URI base;
+    private final String directoryPrefix; // null if the fast path can't be used for this base
+
+    UriResolver(URI base) {
+        this.base = base;
+        this.directoryPrefix = directoryPrefixOf(base);
+    }
+
+    URI getBase() {
+        return base;
+    }
+
+    /**
+     * @param reference a URI reference as found in the playlist
+     * @return the resolved URI
+     * @throws IllegalArgumentException if the reference is not a valid URI
+     */
+    URI resolve(String reference) {
+        if (directoryPrefix != null && isPlainRelativePath(reference)) {
+            return URI.create(directoryPrefix + reference);
+        }
+        return base.resolve(reference);
+    }
+
+    private static String directoryPrefixOf(URI base) {
+        if (base.isOpaque() || !base.isAbsolute() || base.getRawAuthority() == null) {
+            return null;
+        }
+        String path = base.getRawPath();
+        if (path == null || path.isEmpty() || path.contains("/./") || path.contains("/../")
+                || path.endsWith("/.") || path.endsWith("/..")) {
+            return null; // URI.resolve would normalize those
+        }
+        String prefix = base.getScheme() + "://" + base.getRawAuthority() + path;
+        return prefix.substring(0, prefix.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return true if the reference is a relative path without scheme, leading slash or dot
+     * segments, so that resolving it is a plain concatenation with the base directory.
+     */
+    static boolean isPlainRelativePath(String reference) {
+        int length = reference.length();
+        if (length == 0) {
+            return false;
+        }
+        char first = reference.charAt(0);
+        if (first == '/' || first == '?' || first == '#') {
+            return false;
+        }
+        boolean inPath = true;
+        boolean segmentStart = true;
+        for (int i = 0; i < length; i++) {
+            char c = reference.charAt(i);
+            if (inPath) {
+                if (c == ':') {
+                    return false; // scheme, or a first segment that needs special handling
+                } else if (c == '.' && segmentStart) {
+                    return false; // possible dot segment
+                } else if (c == '?' || c == '#') {
+                    inPath = false;
+                }
+                segmentStart = c == '/';
+            }
+        }
+        return true;
+    }
+}
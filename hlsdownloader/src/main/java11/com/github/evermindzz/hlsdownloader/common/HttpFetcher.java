@@ -0,0 +1,265 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP {@link AsyncFetcher} that reuses connections.
+ * <p>
+ * This is the Java 11 implementation of the multi-release JAR. It uses one
+ * {@link HttpClient} that prefers HTTP/2: all requests to an origin are multiplexed as streams
+ * over one connection, so many segments in flight cost neither a connection nor a blocked
+ * thread each. Servers without HTTP/2 are served over pooled HTTP/1.1 keep-alive connections.
+ * <p>
+ * The client only times out waiting for the response headers, so a body that stops arriving is
+ * closed by a watchdog after the read timeout and the blocked read fails with a
+ * {@link SocketTimeoutException}, like the socket timeout of the Java 8 version.
+ * <p>
+ * Responses with a status of 400 or above fail with an IOException. Instances are thread-safe.
+ */
+public class HttpFetcher implements AsyncFetcher, Closeable {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "HttpFetcher-read-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final int readTimeoutMillis;
+
+    public HttpFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * @param connectTimeoutMillis timeout for establishing a connection.
+     * @param readTimeoutMillis    timeout for waiting on the response and on each read of its body.
+     */
+    public HttpFetcher(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+        this.requestTimeout = Duration.ofMillis(readTimeoutMillis);
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri) throws IOException {
+        return toStream(send(request(uri, -1, -1).build()), uri, -1, -1);
+    }
+
+    @Override
+    public InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+        return toStream(send(request(uri, offset, length).build()), uri, offset, length);
+    }
+
+    @Override
+    public long fetchContentLength(URI uri) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(requestTimeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<Void> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + uri);
+        }
+        // servers that do not allow HEAD answer e.g. 405, the size is just unknown then
+        if (response.statusCode() != HTTP_OK) {
+            return -1;
+        }
+        return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    @Override
+    public FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+        HttpRequest.Builder request = request(uri, -1, -1);
+        if (eTag != null) {
+            request.header("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+        HttpResponse<InputStream> response = send(request.build());
+        int code = checkStatus(response, uri);
+        if (code == FetchResponse.HTTP_NOT_MODIFIED) {
+            response.body().close();
+            return FetchResponse.notModified(eTag, lastModified);
+        }
+        return new FetchResponse(code, withReadTimeout(response.body(), uri),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchContentAsync(URI uri) {
+        return fetchContentAsync(uri, -1, -1);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchContentAsync(URI uri, long offset, long length) {
+        return client.sendAsync(request(uri, offset, length).build(), HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    try {
+                        return toStream(response, uri, offset, length);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Nothing to release, the connections of the client close when they are idle.
+     */
+    @Override
+    public void close() {
+    }
+
+    private HttpRequest.Builder request(URI uri, long offset, long length) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(requestTimeout).GET();
+        if (offset >= 0) {
+            request.header("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        }
+        return request;
+    }
+
+    private HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + request.uri());
+        }
+    }
+
+    /**
+     * @param offset the first byte of the range or -1 for the whole content.
+     */
+    private InputStream toStream(HttpResponse<InputStream> response, URI uri, long offset, long length)
+            throws IOException {
+        int code = checkStatus(response, uri);
+        InputStream body = withReadTimeout(response.body(), uri);
+        if (offset < 0) {
+            return body;
+        }
+        if (code == HTTP_PARTIAL) {
+            return new BoundedInputStream(body, length, true);
+        }
+        // server ignored the Range header and sends the whole resource
+        return BoundedInputStream.range(body, offset, length);
+    }
+
+    private InputStream withReadTimeout(InputStream body, URI uri) {
+        return readTimeoutMillis > 0 ? new ReadTimeoutInputStream(body, uri, readTimeoutMillis) : body;
+    }
+
+    /**
+     * @return the status code
+     * @throws IOException for error responses, after their body was closed.
+     */
+    private static int checkStatus(HttpResponse<InputStream> response, URI uri) throws IOException {
+        int code = response.statusCode();
+        if (code >= HTTP_BAD_REQUEST) {
+            response.body().close();
+            throw new HttpStatusException(code, uri);
+        }
+        return code;
+    }
+
+    /**
+     * Fails a read that gets no data within the timeout: the {@link #WATCHDOG} closes the body,
+     * which ends the blocked read, and the read throws a {@link SocketTimeoutException}.
+     */
+    private static final class ReadTimeoutInputStream extends FilterInputStream {
+        private final URI uri;
+        private final long timeoutMillis;
+        private volatile boolean timedOut;
+
+        ReadTimeoutInputStream(InputStream in, URI uri, long timeoutMillis) {
+            super(in);
+            this.uri = uri;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return (int) watched(() -> in.read(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return watched(() -> in.skip(n));
+        }
+
+        private long watched(BlockingRead read) throws IOException {
+            if (timedOut) {
+                throw timeout();
+            }
+            ScheduledFuture<?> watchdog = WATCHDOG.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                long n = read.run();
+                if (timedOut) {
+                    throw timeout();
+                }
+                return n;
+            } catch (IOException e) {
+                if (timedOut) {
+                    throw timeout(); // the failure only says the stream was closed
+                }
+                throw e;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        private void expire() {
+            timedOut = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // the read fails with the timeout anyway
+            }
+        }
+
+        private SocketTimeoutException timeout() {
+            return new SocketTimeoutException("No data from " + uri + " for " + timeoutMillis + " ms");
+        }
+
+        private interface BlockingRead {
+            long run() throws IOException;
+        }
+    }
+}
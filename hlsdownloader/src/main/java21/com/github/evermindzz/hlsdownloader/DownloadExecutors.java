@@ -0,0 +1,113 @@
+package com.github.evermindzz.hlsdownloader;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that runs the download tasks of {@link HlsMediaProcessor}.
+ * <p>
+ * This is the Java 21 implementation of the multi-release JAR. With virtual threads every
+ * task gets its own virtual thread and a semaphore limits how many of them run at the same
+ * time. Blocked fetches then cost no platform thread, so hundreds of concurrent fetches are
+ * cheap. Otherwise a fixed pool of platform threads is used, like on older Java versions.
+ */
+final class DownloadExecutors {
+    static final String THREAD_NAME_PREFIX = "DownloaderNo-";
+
+    private DownloadExecutors() {
+    }
+
+    /**
+     * @return true if {@link #newDownloadExecutor(int, boolean)} can create virtual threads.
+     */
+    static boolean isVirtualThreadsSupported() {
+        return true;
+    }
+
+    /**
+     * @param maxConcurrent  the maximum number of tasks running at the same time.
+     * @param virtualThreads true to prefer virtual threads.
+     * @return the executor. The caller has to shut it down.
+     */
+    static ExecutorService newDownloadExecutor(int maxConcurrent, boolean virtualThreads) {
+        if (virtualThreads) {
+            return new BoundedVirtualThreadExecutor(maxConcurrent);
+        }
+        AtomicInteger threadId = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxConcurrent, r -> {
+            Thread t = new Thread(r);
+            t.setName(THREAD_NAME_PREFIX + threadId.getAndIncrement());
+            t.setUncaughtExceptionHandler(DownloadExecutors::logUncaughtException);
+            return t;
+        });
+    }
+
+    static void logUncaughtException(Thread thread, Throwable ex) {
+        System.err.println("Thread " + thread.getName() + " terminated with exception: " + ex.getMessage());
+        ex.printStackTrace();
+    }
+
+    /**
+     * Starts a virtual thread per task. The task waits for a permit before it runs, so at most
+     * {@code maxConcurrent} tasks run at the same time.
+     */
+    private static final class BoundedVirtualThreadExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedVirtualThreadExecutor(int maxConcurrent) {
+            this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+                    .name(THREAD_NAME_PREFIX, 0)
+                    .uncaughtExceptionHandler(DownloadExecutors::logUncaughtException)
+                    .factory());
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return; // shut down before the task could start
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.evermindzz.hlsdownloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long SEGMENT_BYTES = 1_000_000;
+    private static final long FAST_NANOS = 100_000_000;
+
+    private final List<Integer> limits = new ArrayList<>();
+
+    private AdaptiveConcurrencyLimiter newLimiter(int maxLimit) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        limiter.setLimitListener(limits::add);
+        limiter.start(maxLimit);
+        return limiter;
+    }
+
+    /**
+     * Runs a round of {@code limit} downloads that all finish in {@code nanos}. A finished
+     * download is replaced by the next one as long as the limit allows it.
+     */
+    private static void round(AdaptiveConcurrencyLimiter limiter, long nanos) throws InterruptedException {
+        int limit = limiter.getLimit();
+        int held = 0;
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire();
+            held++;
+        }
+        for (int i = 0; i < limit; i++) {
+            limiter.onSuccess(SEGMENT_BYTES, nanos);
+            limiter.release();
+            held--;
+            if (held < limiter.getLimit()) {
+                limiter.acquire();
+                held++;
+            }
+        }
+        for (; held > 0; held--) {
+            limiter.release();
+        }
+    }
+
+    @Test
+    void testLimitGrowsByOnePerRoundUpToTheMaximum() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(6);
+        assertEquals(AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, limiter.getLimit());
+        round(limiter, FAST_NANOS);
+        assertEquals(3, limiter.getLimit());
+        round(limiter, FAST_NANOS);
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 10; i++) {
+            round(limiter, FAST_NANOS);
+        }
+        assertEquals(6, limiter.getLimit(), "numThreads is the upper bound");
+        assertEquals(List.of(2, 3, 4, 5, 6), limits);
+    }
+
+    @Test
+    void testLimitDoesNotGrowWhenNotUsedUp() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(6);
+        for (int i = 0; i < 20; i++) {
+            limiter.onSuccess(SEGMENT_BYTES, FAST_NANOS);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testSlowerSegmentsHalveTheLimitOncePerWindow() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(16);
+        limiter.setInitialLimit(8);
+        limiter.start(16);
+        round(limiter, FAST_NANOS);
+        assertEquals(9, limiter.getLimit());
+
+        round(limiter, FAST_NANOS * 3);
+        assertEquals(4, limiter.getLimit(), "All slow samples of one window decrease once");
+        round(limiter, FAST_NANOS * 3);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testDroppedRequestsHalveTheLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(16);
+        limiter.setInitialLimit(8);
+        limiter.start(16);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        limiter.onDropped();
+        limiter.onDropped();
+        assertEquals(4, limiter.getLimit(), "A burst of failures decreases once");
+        for (int i = 0; i < 8; i++) {
+            limiter.release();
+            limiter.onSuccess(SEGMENT_BYTES, FAST_NANOS);
+        }
+        limiter.onDropped();
+        assertEquals(2, limiter.getLimit());
+        limiter.onDropped();
+        limiter.onDropped();
+        assertEquals(1, limiter.getLimit(), "The limit stays at least 1");
+    }
+
+    @Test
+    void testAcquireWaitsForTheLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(4);
+        limiter.acquire();
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS), "Third download waits at limit 2");
+        limiter.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+}
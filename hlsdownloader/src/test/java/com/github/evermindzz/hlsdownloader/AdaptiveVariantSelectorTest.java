@@ -0,0 +1,50 @@
+package com.github.evermindzz.hlsdownloader;
+
+import com.github.evermindzz.hlsdownloader.parser.HlsParser.VariantStream;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveVariantSelectorTest {
+    private static final VariantStream LOW = variant(500_000);
+    private static final VariantStream MID = variant(2_000_000);
+    private static final VariantStream HIGH = variant(6_000_000);
+    private static final List<VariantStream> VARIANTS = Arrays.asList(LOW, MID, HIGH);
+
+    private static VariantStream variant(int bandwidth) {
+        return new VariantStream(URI.create("http://test/" + bandwidth + ".m3u8"), bandwidth, "unknown", "unknown");
+    }
+
+    @Test
+    void testBitrateCeiling() {
+        AdaptiveVariantSelector selector = new AdaptiveVariantSelector();
+        assertSame(HIGH, selector.select(VARIANTS, 0, 600, 600, 0));
+        selector.setMaxBitrate(3_000_000);
+        assertSame(MID, selector.select(VARIANTS, 100_000_000, 600, 600, 0));
+        selector.setMaxBitrate(100_000);
+        assertSame(LOW, selector.select(VARIANTS, 100_000_000, 600, 600, 0), "Lowest if nothing fits");
+    }
+
+    @Test
+    void testDeadline() {
+        AdaptiveVariantSelector selector = new AdaptiveVariantSelector();
+        selector.setDeadline(1.0);
+        assertSame(LOW, selector.select(VARIANTS, 0, 600, 600, 0), "Lowest without measurement");
+        // 5 Mbit/s * 0.8 in real time only affords the mid variant
+        assertSame(MID, selector.select(VARIANTS, 5_000_000, 600, 600, 0));
+        // half of the content is done in a quarter of the time: twice the time per content second
+        assertSame(HIGH, selector.select(VARIANTS, 5_000_000, 600, 300, 150));
+        // behind schedule
+        assertSame(LOW, selector.select(VARIANTS, 5_000_000, 600, 300, 550));
+        assertSame(LOW, selector.select(VARIANTS, 50_000_000, 600, 300, 700), "Lowest after the deadline");
+
+        selector.setMaxBitrate(1_000_000);
+        assertSame(LOW, selector.select(VARIANTS, 50_000_000, 600, 600, 0));
+        assertThrows(IllegalArgumentException.class, () -> selector.setSafetyFactor(0));
+    }
+}
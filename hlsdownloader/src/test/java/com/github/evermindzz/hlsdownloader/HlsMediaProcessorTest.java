@@ -1,6 +1,9 @@
 package com.github.evermindzz.hlsdownloader;
 
 import com.github.evermindzz.hlsdownloader.common.Fetcher;
+import com.github.evermindzz.hlsdownloader.common.HttpStatusException;
+import com.github.evermindzz.hlsdownloader.common.RetryPolicy;
+import com.github.evermindzz.hlsdownloader.common.TokenBucket;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,20 +12,34 @@ import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.SocketException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.Locale;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -117,6 +134,67 @@ class HlsMediaProcessorTest {
         assertTrue(Files.size(Path.of(outputFile)) > 0, "Output file should have content");
     }
 
+    @Test
+    void testStreamingPlaylistDownload() throws IOException {
+        AtomicInteger keyRequests = new AtomicInteger();
+        MockFetcher fetcher = new MockFetcher(DEFAULT_PLAYLIST) {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                if (uri.getPath().endsWith(".key")) {
+                    keyRequests.incrementAndGet();
+                }
+                return super.fetchContent(uri);
+            }
+        };
+        initHls(DEFAULT_PLAYLIST, fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor.setStreamingPlaylist(true);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(DEFAULT_PLAYLIST_SEGMENTS * 1024, Files.size(Path.of(outputFile)));
+        assertFalse(Files.exists(Path.of(stateFile)), "State file should be cleaned up");
+        assertEquals(0, countSegmentFiles(), "No segment files should remain after combining");
+        assertEquals(2, keyRequests.get(), "Each key is fetched once");
+    }
+
+    @Test
+    void testDownloadWithVirtualThreads() throws IOException {
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        MockFetcher fetcher = new MockFetcher(DEFAULT_PLAYLIST) {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                // only the segments run on the download executor, playlist and keys on the caller
+                if (uri.getPath().contains("segment")) {
+                    threadNames.add(Thread.currentThread().getName());
+                    virtual.add(isVirtual(Thread.currentThread()));
+                }
+                return super.fetchContent(uri);
+            }
+        };
+        initHls(DEFAULT_PLAYLIST, fetcher, new MockDecryptor(), 2);
+        // falls back to the thread pool before Java 21
+        hlsMediaProcessor.setVirtualThreads(true);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(DEFAULT_PLAYLIST_SEGMENTS * 1024, Files.size(Path.of(outputFile)));
+        assertTrue(threadNames.stream().allMatch(name -> name.startsWith("DownloaderNo-")), threadNames.toString());
+        assertEquals(Set.of(DownloadExecutors.isVirtualThreadsSupported()), virtual,
+                "Virtual threads are used exactly when they are supported");
+    }
+
+    /**
+     * @return {@code Thread.isVirtual()} on Java 21 and newer, false before.
+     */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Test
     void testCancelDuringDownload() throws InterruptedException, IOException {
         // Create a CyclicBarrier with 3 parties: 2 download threads + 1 test thread
@@ -330,6 +408,706 @@ class HlsMediaProcessorTest {
         }
     }
 
+    @Test
+    void testByteRangeSegmentsAreCoalesced() throws IOException {
+        assertByteRangeDownload(10000, 1);
+    }
+
+    @Test
+    void testByteRangeSegmentsWithoutCoalescing() throws IOException {
+        assertByteRangeDownload(0, 4);
+    }
+
+    @Test
+    void testByteRangeCoalescingRespectsMaxRequestSize() throws IOException {
+        assertByteRangeDownload(2000, 2);
+    }
+
+    private void assertByteRangeDownload(long maxRequestBytes, int expectedRequests) throws IOException {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:1000@0\n" +
+                "main.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:1000\n" +
+                "main.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:1000\n" +
+                "main.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:500\n" +
+                "main.ts\n" +
+                "#EXT-X-ENDLIST";
+        byte[] resource = new byte[5000];
+        for (int i = 0; i < resource.length; i++) {
+            resource[i] = (byte) (i * 31);
+        }
+        AtomicInteger rangeRequests = new AtomicInteger();
+        Fetcher fetcher = new Fetcher() {
+            @Override
+            public InputStream fetchContent(URI uri) {
+                return new ByteArrayInputStream(playlist.getBytes());
+            }
+
+            @Override
+            public InputStream fetchContent(URI uri, long offset, long length) {
+                assertTrue(uri.getPath().endsWith("main.ts"));
+                rangeRequests.incrementAndGet();
+                return new ByteArrayInputStream(resource, (int) offset, (int) length);
+            }
+        };
+        initHls(playlist, fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor.setByteRangeCoalescing(maxRequestBytes);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(expectedRequests, rangeRequests.get());
+        assertArrayEquals(java.util.Arrays.copyOf(resource, 3500), Files.readAllBytes(Path.of(outputFile)));
+    }
+
+    @Test
+    void testLowLatencyCaptureAssemblesPartsFromTheLiveEdge() throws IOException {
+        String header = "#EXTM3U\n" +
+                "#EXT-X-VERSION:9\n" +
+                "#EXT-X-TARGETDURATION:1\n" +
+                "#EXT-X-PART-INF:PART-TARGET=0.1\n" +
+                "#EXT-X-MEDIA-SEQUENCE:0\n" +
+                "#EXT-X-PART:DURATION=0.1,URI=\"part0.0.ts\"\n" +
+                "#EXTINF:0.3,\n" +
+                "segment0.ts\n";
+        String[] playlists = {
+                header +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.0.ts\"\n" +
+                        "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part1.1.ts\"\n",
+                header +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.0.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.1.ts\"\n" +
+                        "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part1.2.ts\"\n",
+                header +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.0.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.1.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.2.ts\"\n" +
+                        "#EXTINF:0.3,\n" +
+                        "segment1.ts\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part2.0.ts\"\n" +
+                        "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part2.1.ts\"\n",
+                header +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.0.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.1.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part1.2.ts\"\n" +
+                        "#EXTINF:0.3,\n" +
+                        "segment1.ts\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part2.0.ts\"\n" +
+                        "#EXT-X-PART:DURATION=0.1,URI=\"part2.1.ts\"\n" +
+                        "#EXTINF:0.2,\n" +
+                        "segment2.ts\n" +
+                        "#EXT-X-ENDLIST\n"
+        };
+        AtomicInteger reloads = new AtomicInteger();
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        Fetcher fetcher = uri -> {
+            String name = uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+            if (name.endsWith(".m3u8")) {
+                return new ByteArrayInputStream(playlists[Math.min(reloads.getAndIncrement(), playlists.length - 1)].getBytes());
+            }
+            requests.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+            return new ByteArrayInputStream((name + ";").getBytes());
+        };
+        initHls(playlists[0], fetcher, new MockDecryptor(), 2);
+
+        hlsMediaProcessor.downloadLowLatency(URI.create("http://test/live.m3u8"));
+
+        assertEquals("part1.0.ts;part1.1.ts;part1.2.ts;part2.0.ts;part2.1.ts;",
+                new String(Files.readAllBytes(Path.of(outputFile))));
+        // capture starts at the segment in progress, complete segments are never fetched
+        assertNull(requests.get("part0.0.ts"));
+        assertNull(requests.get("segment0.ts"));
+        assertNull(requests.get("segment1.ts"));
+        // the hinted parts are requested once, ahead of time
+        assertEquals(1, requests.get("part1.1.ts").get());
+        assertEquals(1, requests.get("part1.2.ts").get());
+        assertEquals(1, requests.get("part2.1.ts").get());
+        assertEquals(0, countSegmentFiles(), "No segment files should remain after combining");
+    }
+
+    @Test
+    void testLowLatencyCaptureSkipsSegmentOfOnlyGaps() throws IOException {
+        String header = "#EXTM3U\n" +
+                "#EXT-X-VERSION:9\n" +
+                "#EXT-X-TARGETDURATION:1\n" +
+                "#EXT-X-PART-INF:PART-TARGET=0.1\n" +
+                "#EXT-X-MEDIA-SEQUENCE:0\n" +
+                "#EXTINF:0.2,\n" +
+                "segment0.ts\n" +
+                "#EXT-X-PART:DURATION=0.1,URI=\"part1.0.ts\",GAP=YES\n";
+        String withSegment1 = header +
+                "#EXT-X-PART:DURATION=0.1,URI=\"part1.1.ts\",GAP=YES\n" +
+                "#EXTINF:0.2,\n" +
+                "segment1.ts\n" +
+                "#EXT-X-PART:DURATION=0.1,URI=\"part2.0.ts\",GAP=YES\n" +
+                "#EXT-X-PART:DURATION=0.1,URI=\"part2.1.ts\"\n";
+        String[] playlists = {
+                header,
+                withSegment1,
+                withSegment1 +
+                        "#EXTINF:0.2,\n" +
+                        "segment2.ts\n" +
+                        "#EXT-X-ENDLIST\n"
+        };
+        AtomicInteger reloads = new AtomicInteger();
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger progress = new AtomicInteger();
+        Fetcher fetcher = uri -> {
+            String name = uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+            if (name.endsWith(".m3u8")) {
+                return new ByteArrayInputStream(playlists[Math.min(reloads.getAndIncrement(), playlists.length - 1)].getBytes());
+            }
+            requests.add(name);
+            return new ByteArrayInputStream((name + ";").getBytes());
+        };
+        initHls(playlists[0], fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor = new HlsMediaProcessor(parser, outputDir, outputFile,
+                fetcher, new MockDecryptor(), 2,
+                new HlsMediaProcessor.DefaultSegmentStateManager(stateFile),
+                null,
+                (current, total) -> progress.set(current),
+                (state, message) -> {}, false);
+
+        hlsMediaProcessor.downloadLowLatency(URI.create("http://test/live.m3u8"));
+
+        assertEquals("part2.1.ts;", new String(Files.readAllBytes(Path.of(outputFile))));
+        assertEquals(List.of("part2.1.ts"), requests, "Gap parts are never requested");
+        assertEquals(1, progress.get(), "The segment of only gaps is not counted as captured");
+        assertEquals(0, countSegmentFiles(), "No segment files should remain after combining");
+    }
+
+    @Test
+    void testDownloadRenditionsMuxesAllTracksInOnePass() throws IOException {
+        String master = "#EXTM3U\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud\",LANGUAGE=\"en\",NAME=\"English\",DEFAULT=YES,URI=\"audio_en.m3u8\"\n" +
+                "#EXT-X-MEDIA:TYPE=SUBTITLES,GROUP-ID=\"sub\",LANGUAGE=\"en\",NAME=\"English\",URI=\"subs_en.m3u8\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,AUDIO=\"aud\",SUBTITLES=\"sub\"\n" +
+                "video.m3u8\n";
+        Map<String, String> playlists = new HashMap<>();
+        playlists.put("master.m3u8", master);
+        playlists.put("video.m3u8", "#EXTM3U\n#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\nv1.ts\n#EXTINF:9.0,\nv2.ts\n#EXT-X-ENDLIST");
+        playlists.put("audio_en.m3u8", "#EXTM3U\n#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"audio.key\"\n" +
+                "#EXTINF:6.0,\na1.aac\n#EXTINF:6.0,\na2.aac\n#EXTINF:6.0,\na3.aac\n#EXT-X-ENDLIST");
+        playlists.put("subs_en.m3u8", "#EXTM3U\n#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\ns1.vtt\n#EXT-X-ENDLIST");
+        Fetcher fetcher = uri -> {
+            String name = uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+            String content = playlists.containsKey(name) ? playlists.get(name)
+                    : name.endsWith(".key") ? "1234567890abcdef" : name + ";";
+            return new ByteArrayInputStream(content.getBytes());
+        };
+        Map<String, Integer> decryptedIndices = new ConcurrentHashMap<>();
+        HlsMediaProcessor.Decryptor decryptor = (stream, key, info, segmentIndex) -> {
+            String content = new String(stream.readAllBytes());
+            decryptedIndices.put(content, segmentIndex);
+            return new ByteArrayInputStream(content.getBytes());
+        };
+        AtomicReference<String[]> ffmpegArgs = new AtomicReference<>();
+        List<String> concatLists = new ArrayList<>();
+        FFmpegSegmentCombiner combiner = new FFmpegSegmentCombiner(args -> {
+            ffmpegArgs.set(args);
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-i")) {
+                    try {
+                        concatLists.add(new String(Files.readAllBytes(Path.of(args[i + 1]))));
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            }
+            return 0;
+        });
+        parser = new HlsParser(null, fetcher, true);
+        hlsMediaProcessor = new HlsMediaProcessor(parser, outputDir, outputFile + ".mkv",
+                fetcher, decryptor, 2,
+                new HlsMediaProcessor.DefaultSegmentStateManager(stateFile),
+                combiner, (progress, total) -> {}, (state, message) -> {}, false);
+
+        HlsParser.VariantStream variant = parser.parseMaster(URI.create("http://test/master.m3u8")).getVariants().get(0);
+        hlsMediaProcessor.downloadRenditions(variant, variant.getRenditions());
+
+        String[] args = ffmpegArgs.get();
+        assertNotNull(args, "FFmpeg should have been called once for all tracks");
+        assertEquals(3, concatLists.size());
+        assertEquals(Arrays.asList("-map", "0", "-map", "1", "-map", "2", "-c", "copy", "-y", outputFile + ".mkv"),
+                Arrays.asList(args).subList(args.length - 10, args.length));
+        assertTrue(concatLists.get(0).contains("segment_1.ts") && concatLists.get(0).contains("segment_2.ts"));
+        assertTrue(concatLists.get(1).contains("segment_3.ts") && concatLists.get(1).contains("segment_5.ts"));
+        assertTrue(concatLists.get(2).contains("segment_6.ts"));
+        assertEquals("a1.aac;", new String(Files.readAllBytes(Path.of(outputDir, "segment_3.ts"))));
+        assertEquals("s1.vtt;", new String(Files.readAllBytes(Path.of(outputDir, "segment_6.ts"))));
+        // the decryptor sees the index within the audio playlist, not the global index
+        assertEquals(0, decryptedIndices.get("a1.aac;"));
+        assertEquals(2, decryptedIndices.get("a3.aac;"));
+        assertEquals(0, Files.list(Path.of(outputDir)).filter(p -> p.toString().endsWith(".lst")).count());
+    }
+
+    @Test
+    void testAdaptiveDownloadSwitchesVariantsAtSegmentBoundaries() throws IOException {
+        String master = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1000000\n" +
+                "high/media.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=100000\n" +
+                "low/media.m3u8\n";
+        StringBuilder media = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:10\n");
+        for (int i = 1; i <= 4; i++) {
+            media.append("#EXTINF:10.0,\nsegment").append(i).append(".ts\n");
+        }
+        media.append("#EXT-X-ENDLIST");
+        Fetcher fetcher = uri -> {
+            String path = uri.getPath();
+            if (path.endsWith("master.m3u8")) {
+                return new ByteArrayInputStream(master.getBytes());
+            } else if (path.endsWith(".m3u8")) {
+                return new ByteArrayInputStream(media.toString().getBytes());
+            }
+            byte[] data = new byte[10000];
+            data[0] = (byte) (path.contains("/high/") ? 'H' : 'L');
+            if (path.contains("/high/")) {
+                try {
+                    Thread.sleep(300); // the high variant is slower than the deadline allows
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new ByteArrayInputStream(data);
+        };
+        parser = new HlsParser(null, fetcher, true);
+        hlsMediaProcessor = new HlsMediaProcessor(parser, outputDir, outputFile,
+                fetcher, new MockDecryptor(), 1,
+                new HlsMediaProcessor.DefaultSegmentStateManager(stateFile),
+                null, (progress, total) -> {}, (state, message) -> {}, false);
+        AdaptiveVariantSelector selector = new AdaptiveVariantSelector();
+        selector.setDeadline(0.5);
+
+        hlsMediaProcessor.downloadAdaptive(URI.create("http://test/master.m3u8"), selector);
+
+        byte[] output = Files.readAllBytes(Path.of(outputFile));
+        assertEquals(4 * 10000, output.length);
+        // no measurement yet: lowest variant, then the fast link allows the high variant,
+        // which turns out too slow for the deadline
+        assertEquals('L', output[0]);
+        assertEquals('H', output[10000]);
+        assertEquals('L', output[20000]);
+        assertEquals(4, hlsMediaProcessor.getThroughputMeter().getSampleCount());
+    }
+
+    @Test
+    void testResumeFromPlaylistSnapshotSkipsPlaylistAndKeys() throws IOException {
+        AtomicInteger playlistFetches = new AtomicInteger();
+        AtomicInteger keyFetches = new AtomicInteger();
+        AtomicReference<Boolean> failSegment2 = new AtomicReference<>(true);
+        Fetcher fetcher = new MockFetcher(DEFAULT_PLAYLIST) {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                if (uri.getPath().endsWith(".m3u8")) {
+                    playlistFetches.incrementAndGet();
+                } else if (uri.getPath().endsWith(".key")) {
+                    keyFetches.incrementAndGet();
+                } else if (uri.getPath().endsWith("segment2.ts") && failSegment2.get()) {
+                    throw new IOException("HTTP 500");
+                }
+                return super.fetchContent(uri);
+            }
+        };
+        initHls(DEFAULT_PLAYLIST, fetcher, new MockDecryptor(), 1);
+        hlsMediaProcessor.setPlaylistSnapshot(true, true);
+        assertThrows(IOException.class, () -> hlsMediaProcessor.download(URI.create("http://test/media.m3u8")));
+        assertTrue(Files.exists(Path.of(outputDir, "playlist_snapshot.bin")));
+        assertEquals(1, playlistFetches.get());
+        assertEquals(2, keyFetches.get());
+
+        // a new processor, as after a restart
+        failSegment2.set(false);
+        initHls(DEFAULT_PLAYLIST, fetcher, new MockDecryptor(), 1);
+        hlsMediaProcessor.setPlaylistSnapshot(true, true);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(1, playlistFetches.get(), "The playlist is restored from the snapshot");
+        assertEquals(2, keyFetches.get(), "The keys are restored from the snapshot");
+        assertEquals(DEFAULT_PLAYLIST_SEGMENTS * 1024, Files.size(Path.of(outputFile)));
+        assertFalse(Files.exists(Path.of(outputDir, "playlist_snapshot.bin")), "Snapshot is deleted when done");
+    }
+
+    @Test
+    void testSegmentsAreNotQueuedPerSegment() throws Exception {
+        assertWorkersPullSegments(false);
+    }
+
+    @Test
+    void testStreamingPlaylistIsReadAsWorkersNeedSegments() throws Exception {
+        assertWorkersPullSegments(true);
+    }
+
+    /**
+     * Downloads many segments with 3 threads and checks while downloading that the executor
+     * runs just the 3 workers, with no task queued per segment, and in the streaming playlist
+     * mode that the playlist is read only a few segments ahead of the downloads.
+     */
+    private void assertWorkersPullSegments(boolean streamingPlaylist) throws Exception {
+        int segmentCount = 2000;
+        int numThreads = 3;
+        String playlist = segmentPlaylist(segmentCount);
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicLong maxTasks = new AtomicLong();
+        AtomicInteger maxQueued = new AtomicInteger();
+        AtomicInteger maxParsedAhead = new AtomicInteger();
+        AtomicInteger maxIndex = new AtomicInteger();
+        Field executorField = HlsMediaProcessor.class.getDeclaredField("executor");
+        Field segmentsField = HlsMediaProcessor.class.getDeclaredField("segments");
+        executorField.setAccessible(true);
+        segmentsField.setAccessible(true);
+        Fetcher fetcher = playlistFetcher(playlist, uri -> {
+            fetches.incrementAndGet();
+            try {
+                ThreadPoolExecutor executor = (ThreadPoolExecutor) executorField.get(hlsMediaProcessor);
+                maxTasks.accumulateAndGet(executor.getTaskCount(), Math::max);
+                maxQueued.accumulateAndGet(executor.getQueue().size(), Math::max);
+                int index = Integer.parseInt(uri.getPath().replaceAll(".*/segment(\\d+)\\.ts", "$1")) - 1;
+                int parsed = ((List<?>) segmentsField.get(hlsMediaProcessor)).size();
+                maxParsedAhead.accumulateAndGet(parsed - maxIndex.accumulateAndGet(index, Math::max), Math::max);
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+            return new ByteArrayInputStream(new byte[16]);
+        });
+        initHls(playlist, fetcher, new MockDecryptor(), numThreads);
+        hlsMediaProcessor.setStreamingPlaylist(streamingPlaylist);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(segmentCount, fetches.get());
+        assertEquals(segmentCount * 16, Files.size(Path.of(outputFile)));
+        assertEquals(numThreads, maxTasks.get(), "Only the workers are submitted");
+        assertEquals(0, maxQueued.get(), "Nothing is queued per segment");
+        if (streamingPlaylist) {
+            assertTrue(maxParsedAhead.get() <= numThreads,
+                    "The playlist is read as far as the workers need, was " + maxParsedAhead.get() + " ahead");
+        }
+    }
+
+    @Test
+    void testLargeSegmentsAreFetchedInParallelRanges() throws IOException {
+        String playlist = "#EXTM3U\n#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key1.key\"\n" +
+                "#EXTINF:9.0,\nsegment1.ts\n" +
+                "#EXTINF:9.0,\nsegment2.ts\n" +
+                "#EXTINF:9.0,\n#EXT-X-BYTERANGE:90000@1000\nsegment3.ts\n" +
+                "#EXT-X-ENDLIST";
+        int[] sizes = {100_000, 4_000, 91_000};
+        Set<String> ranges = ConcurrentHashMap.newKeySet();
+        AtomicInteger wholeFetches = new AtomicInteger();
+        Fetcher fetcher = new Fetcher() {
+            private byte[] content(URI uri) {
+                int segment = Integer.parseInt(uri.getPath().replaceAll(".*segment(\\d+)\\.ts", "$1")) - 1;
+                byte[] data = new byte[sizes[segment]];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = reverseByte((byte) (segment * 7 + i)); // mock encryption
+                }
+                return data;
+            }
+
+            @Override
+            public InputStream fetchContent(URI uri) {
+                if (uri.getPath().endsWith(".m3u8")) {
+                    return new ByteArrayInputStream(playlist.getBytes());
+                } else if (uri.getPath().endsWith(".key")) {
+                    return new ByteArrayInputStream("1234567890abcdef".getBytes());
+                }
+                wholeFetches.incrementAndGet();
+                return new ByteArrayInputStream(content(uri));
+            }
+
+            @Override
+            public InputStream fetchContent(URI uri, long offset, long length) {
+                ranges.add(uri.getPath() + ":" + offset + "+" + length);
+                return new ByteArrayInputStream(content(uri), (int) offset, (int) length);
+            }
+
+            @Override
+            public long fetchContentLength(URI uri) {
+                return content(uri).length;
+            }
+        };
+        initHls(playlist, fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor.setParallelRanges(50_000, 4);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(Set.of("/segment1.ts:0+25000", "/segment1.ts:25000+25000", "/segment1.ts:50000+25000",
+                "/segment1.ts:75000+25000", "/segment3.ts:1000+22500", "/segment3.ts:23500+22500",
+                "/segment3.ts:46000+22500", "/segment3.ts:68500+22500"), ranges);
+        assertEquals(1, wholeFetches.get(), "Small segments are fetched as one stream");
+
+        byte[] output = Files.readAllBytes(Path.of(outputFile));
+        assertEquals(100_000 + 4_000 + 90_000, output.length);
+        int position = 0;
+        int[][] expected = {{0, 0, 100_000}, {1, 0, 4_000}, {2, 1000, 90_000}};
+        for (int[] segment : expected) {
+            for (int i = 0; i < segment[2]; i++) {
+                assertEquals((byte) (segment[0] * 7 + segment[1] + i), output[position++],
+                        "Byte " + i + " of segment " + (segment[0] + 1));
+            }
+        }
+        assertTrue(Files.list(Path.of(outputDir)).noneMatch(f -> f.toString().endsWith(".raw")),
+                "Raw range files are removed");
+    }
+
+    @Test
+    void testParallelRangesFallBackWhenTheSizeRequestFails() throws IOException {
+        int segmentCount = 3;
+        String playlist = segmentPlaylist(segmentCount);
+        AtomicInteger rangeFetches = new AtomicInteger();
+        Fetcher fetcher = new Fetcher() {
+            @Override
+            public InputStream fetchContent(URI uri) {
+                return uri.getPath().endsWith(".m3u8")
+                        ? new ByteArrayInputStream(playlist.getBytes())
+                        : new ByteArrayInputStream(new byte[100_000]);
+            }
+
+            @Override
+            public InputStream fetchContent(URI uri, long offset, long length) {
+                rangeFetches.incrementAndGet();
+                return new ByteArrayInputStream(new byte[(int) length]);
+            }
+
+            @Override
+            public long fetchContentLength(URI uri) throws IOException {
+                throw new HttpStatusException(405, uri); // HEAD not allowed
+            }
+        };
+        initHls(playlist, fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor.setParallelRanges(50_000, 4);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(segmentCount * 100_000, Files.size(Path.of(outputFile)));
+        assertEquals(0, rangeFetches.get(), "Segments of unknown size are fetched as one stream");
+    }
+
+    @Test
+    void testAdaptiveConcurrencyBoundsSegmentsInFlight() throws IOException {
+        int segmentCount = 200;
+        String playlist = segmentPlaylist(segmentCount);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Fetcher fetcher = playlistFetcher(playlist, uri -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return new ByteArrayInputStream(new byte[4096]) {
+                @Override
+                public void close() {
+                    inFlight.decrementAndGet();
+                }
+            };
+        });
+        List<Integer> limits = new ArrayList<>();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        limiter.setLimitListener(limit -> {
+            synchronized (limits) {
+                limits.add(limit);
+            }
+        });
+        initHls(playlist, fetcher, new MockDecryptor(), 6);
+        hlsMediaProcessor.setAdaptiveConcurrency(limiter);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(segmentCount * 4096, Files.size(Path.of(outputFile)));
+        assertEquals(AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, limits.get(0), "The initial limit is reported");
+        int highestLimit = limits.stream().max(Integer::compare).orElse(0);
+        assertTrue(highestLimit <= 6, "numThreads is the upper bound, was " + highestLimit);
+        assertTrue(maxInFlight.get() <= highestLimit, "In flight " + maxInFlight.get() + " > limit " + highestLimit);
+    }
+
+    @Test
+    void testRateLimiterThrottlesSegmentStreams() throws IOException {
+        int segmentCount = 10;
+        String playlist = segmentPlaylist(segmentCount);
+        Fetcher fetcher = playlistFetcher(playlist, uri -> new ByteArrayInputStream(new byte[10_000]));
+        initHls(playlist, fetcher, new MockDecryptor(), 4);
+        hlsMediaProcessor.setRateLimiter(new TokenBucket(200_000, 1));
+        long start = System.nanoTime();
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+
+        assertEquals(segmentCount * 10_000, Files.size(Path.of(outputFile)));
+        assertTrue(millis >= 400, "100 KB at 200 KB/s across all threads, took " + millis);
+    }
+
+    @Test
+    void testSlowSegmentIsHedgedAgainstTheAlternateUri() throws IOException {
+        int segmentCount = 30;
+        String playlist = segmentPlaylist(segmentCount);
+        Set<String> mirrorRequests = ConcurrentHashMap.newKeySet();
+        AtomicLong stragglerStart = new AtomicLong();
+        AtomicLong stragglerHedgeStart = new AtomicLong();
+        Fetcher fetcher = playlistFetcher(playlist, uri -> {
+            if (uri.getHost().equals("mirror")) {
+                mirrorRequests.add(uri.getPath());
+                if (uri.getPath().endsWith("/segment20.ts")) {
+                    stragglerHedgeStart.set(System.nanoTime());
+                }
+            } else if (uri.getPath().endsWith("/segment20.ts")) {
+                stragglerStart.set(System.nanoTime());
+                // the straggler on a slow edge node
+                return new ByteArrayInputStream(new byte[1024]) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        try {
+                            Thread.sleep(10_000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.read(b, off, len);
+                    }
+                };
+            }
+            return new ByteArrayInputStream(new byte[1024]);
+        });
+        AtomicLong longestHedgeWin = new AtomicLong();
+        SegmentHedger hedger = new SegmentHedger() {
+            @Override
+            public synchronized void onCompleted(long firstByteNanos, long totalNanos, boolean hedgeWon) {
+                if (hedgeWon) {
+                    longestHedgeWin.accumulateAndGet(totalNanos, Math::max);
+                }
+                super.onCompleted(firstByteNanos, totalNanos, hedgeWon);
+            }
+        };
+        hedger.setMinSamples(5);
+        hedger.setMaxExtraLoad(1.0); // jitter of the fast segments may use up a smaller budget
+        hedger.setAlternateUri(uri -> URI.create("http://mirror" + uri.getPath()));
+        initHls(playlist, fetcher, new MockDecryptor(), 2);
+        hlsMediaProcessor.setHedging(hedger);
+        long start = System.nanoTime();
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+
+        assertEquals(segmentCount * 1024, Files.size(Path.of(outputFile)));
+        assertTrue(millis < 5_000, "The straggler was not waited for, took " + millis);
+        assertTrue(mirrorRequests.contains("/segment20.ts"), "Hedged against the alternate URI");
+        SegmentHedger.Stats stats = hedger.getStats();
+        assertEquals(segmentCount, stats.getSegments());
+        assertTrue(stats.getHedgeWins() >= 1, stats.toString());
+        assertTrue(stats.getHedges() >= stats.getHedgeWins(), stats.toString());
+        assertTrue(longestHedgeWin.get() >= stragglerHedgeStart.get() - stragglerStart.get(),
+                "A won hedge counts from the first request");
+        try (java.util.stream.Stream<Path> files = Files.list(Path.of(outputDir))) {
+            assertTrue(files.noneMatch(f -> f.toString().endsWith(".hedge") || f.toString().endsWith(".raw")),
+                    "Raw files are deleted");
+        }
+    }
+
+    @Test
+    void testHedgingAndParallelRangesAreExclusive() {
+        initHls(DEFAULT_PLAYLIST);
+        hlsMediaProcessor.setHedging(new SegmentHedger());
+        assertThrows(IllegalStateException.class, () -> hlsMediaProcessor.setParallelRanges(50_000, 4));
+        hlsMediaProcessor.setHedging(null);
+        hlsMediaProcessor.setParallelRanges(50_000, 4);
+        assertThrows(IllegalStateException.class, () -> hlsMediaProcessor.setHedging(new SegmentHedger()));
+    }
+
+    @Test
+    void testPlaybackWindowKeepsSegmentsCloseToThePrefix() throws IOException {
+        int segmentCount = 40;
+        int window = 3;
+        String playlist = segmentPlaylist(segmentCount);
+        List<Integer> prefixes = Collections.synchronizedList(new ArrayList<>());
+        // a segment is fetched until its stream is closed, before it counts as downloaded
+        Set<Integer> fetched = ConcurrentHashMap.newKeySet();
+        List<String> outsideWindow = new ArrayList<>();
+        Fetcher fetcher = playlistFetcher(playlist, uri -> {
+            int index = Integer.parseInt(uri.getPath().replaceAll(".*/segment(\\d+)\\.ts", "$1")) - 1;
+            int prefix = 0;
+            while (fetched.contains(prefix)) {
+                prefix++;
+            }
+            if (index >= prefix + window) {
+                synchronized (outsideWindow) {
+                    outsideWindow.add("segment " + index + " started at prefix " + prefix);
+                }
+            }
+            try {
+                Thread.sleep(index % 4 == 0 ? 20 : 1); // every 4th segment is slow
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayInputStream(new byte[1024]) {
+                @Override
+                public void close() {
+                    fetched.add(index);
+                }
+            };
+        });
+        initHls(playlist, fetcher, new MockDecryptor(), 8);
+        hlsMediaProcessor.setPlaybackWindow(window, (available, total) -> {
+            prefixes.add(available);
+            assertTrue(Files.exists(Path.of(outputDir, "segment_" + available + ".ts")), "The prefix is on disk");
+        });
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(segmentCount * 1024, Files.size(Path.of(outputFile)));
+        assertEquals(List.of(), outsideWindow);
+        assertEquals(segmentCount, Collections.max(prefixes));
+        assertEquals(prefixes.size(), new HashSet<>(prefixes).size(), "No prefix is reported twice: " + prefixes);
+    }
+
+    @Test
+    void testSlowPrefixCallbackDoesNotBlockTheWorkers() throws IOException, InterruptedException {
+        int segmentCount = 20;
+        String playlist = segmentPlaylist(segmentCount);
+        CountDownLatch lastSegmentFetched = new CountDownLatch(1);
+        Fetcher fetcher = playlistFetcher(playlist, uri -> {
+            if (uri.getPath().endsWith("/segment" + segmentCount + ".ts")) {
+                lastSegmentFetched.countDown();
+            }
+            return new ByteArrayInputStream(new byte[1024]);
+        });
+        initHls(playlist, fetcher, new MockDecryptor(), 4);
+        AtomicBoolean first = new AtomicBoolean(true);
+        AtomicBoolean workersMovedOn = new AtomicBoolean();
+        hlsMediaProcessor.setPlaybackWindow(3, (available, total) -> {
+            if (first.getAndSet(false)) {
+                try {
+                    // the other workers download the rest while this callback blocks
+                    workersMovedOn.set(lastSegmentFetched.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertTrue(workersMovedOn.get(), "The workers waited for the callback");
+        assertEquals(segmentCount * 1024, Files.size(Path.of(outputFile)));
+    }
+
+    /**
+     * @return a media playlist of {@code segmentCount} segments named segment1.ts, segment2.ts, ...
+     */
+    private static String segmentPlaylist(int segmentCount) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:10\n");
+        for (int i = 1; i <= segmentCount; i++) {
+            playlist.append("#EXTINF:9.0,\nsegment").append(i).append(".ts\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST").toString();
+    }
+
+    /**
+     * @return a fetcher that serves {@code playlist} for .m3u8 URIs and everything else from {@code segments}.
+     */
+    private static Fetcher playlistFetcher(String playlist, Fetcher segments) {
+        return uri -> uri.getPath().endsWith(".m3u8")
+                ? new ByteArrayInputStream(playlist.getBytes())
+                : segments.fetchContent(uri);
+    }
+
     private int countSegmentFiles() throws IOException {
         return (int) Files.list(Path.of(outputDir))
                 .filter(p -> p.getFileName().toString().startsWith("segment_"))
@@ -480,6 +1258,142 @@ class HlsMediaProcessorTest {
         assertEquals(0, countSegmentFiles(), "No segment files should remain after combining");
     }
 
+    @Test
+    void testBrokenTransferResumesAndDecrypts() throws IOException {
+        HashMap<Integer, HlsMediaProcessorDecryptorTest.TestData> testDataMap = new HashMap<>();
+        testDataMap.put(1, new HlsMediaProcessorDecryptorTest.TestData("AES/CBC/PKCS5Padding", "1234567890abcdef", "0xabcdef1234567890abcdef1234567890", "https://example.com/key1.key", "http://test/segment1.ts"));
+        List<Long> resumedAt = new ArrayList<>();
+        HlsMediaProcessorDecryptorTest.MockEncFetcher breakingFetcher = new HlsMediaProcessorDecryptorTest.MockEncFetcher(testDataMap, SINGLE_SEGMENT_PLAYLIST) {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                InputStream in = super.fetchContent(uri);
+                if (!uri.getPath().contains("segment") || !resumedAt.isEmpty()) {
+                    return in;
+                }
+                // the connection drops after 100 bytes
+                return new FilterInputStream(in) {
+                    private int left = 100;
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (left == 0) {
+                            throw new SocketException("Connection reset");
+                        }
+                        int n = super.read(b, off, Math.min(len, left));
+                        left -= Math.max(n, 0);
+                        return n;
+                    }
+                };
+            }
+
+            @Override
+            public InputStream fetchContent(URI uri, long offset, long length) throws IOException {
+                resumedAt.add(offset);
+                return super.fetchContent(uri, offset, length);
+            }
+
+            @Override
+            public long fetchContentLength(URI uri) {
+                return getEncryptedSegmentData(1, generateSegmentData(1)).available();
+            }
+        };
+        parser = new HlsParser(null, breakingFetcher, true);
+        hlsMediaProcessor = new HlsMediaProcessor(parser, outputDir, outputFile,
+                breakingFetcher, new HlsMediaProcessor.DefaultDecryptor(),
+                1,
+                new HlsMediaProcessor.DefaultSegmentStateManager(stateFile),
+                null,
+                (progress, total) -> {},
+                (state, message) -> {}, false);
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setDelay(0, 0);
+        hlsMediaProcessor.setRetryPolicy(retryPolicy);
+
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(List.of(100L), resumedAt, "The transfer continues after the last written byte");
+        try (InputStream is = new FileInputStream(outputFile)) {
+            assertArrayEquals(breakingFetcher.generateSegmentData(1), is.readAllBytes());
+        }
+    }
+
+    @Test
+    void testResumeFetchesAgainWhenTheSizeRequestFails() throws IOException {
+        byte[] data = new byte[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        AtomicInteger segmentFetches = new AtomicInteger();
+        Fetcher fetcher = new Fetcher() {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                if (uri.getPath().endsWith(".m3u8")) {
+                    return new ByteArrayInputStream(SINGLE_SEGMENT_PLAYLIST.getBytes());
+                } else if (uri.getPath().endsWith(".key")) {
+                    return new ByteArrayInputStream("1234567890abcdef".getBytes());
+                }
+                if (segmentFetches.getAndIncrement() > 0) {
+                    return new ByteArrayInputStream(data);
+                }
+                // the connection drops after 100 bytes
+                return new FilterInputStream(new ByteArrayInputStream(data, 0, 100)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        if (n == -1) {
+                            throw new SocketException("Connection reset");
+                        }
+                        return n;
+                    }
+                };
+            }
+
+            @Override
+            public long fetchContentLength(URI uri) throws IOException {
+                throw new HttpStatusException(405, uri); // HEAD not allowed
+            }
+        };
+        initHls(SINGLE_SEGMENT_PLAYLIST, fetcher, (in, key, info, index) -> in, 1);
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setDelay(0, 0);
+        hlsMediaProcessor.setRetryPolicy(retryPolicy);
+
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+
+        assertEquals(2, segmentFetches.get(), "The segment is fetched again and the read bytes skipped");
+        try (InputStream is = new FileInputStream(outputFile)) {
+            assertArrayEquals(data, is.readAllBytes());
+        }
+    }
+
+    @Test
+    void testRetryPolicyRetriesServerErrors() throws IOException {
+        AtomicInteger failures = new AtomicInteger();
+        MockFetcher overloadedFetcher = new MockFetcher(SINGLE_SEGMENT_PLAYLIST) {
+            @Override
+            public InputStream fetchContent(URI uri) throws IOException {
+                if (uri.getPath().contains("segment") && failures.getAndIncrement() < 2) {
+                    throw new HttpStatusException(503, uri);
+                }
+                return super.fetchContent(uri);
+            }
+        };
+        initHls(SINGLE_SEGMENT_PLAYLIST, overloadedFetcher, new MockDecryptor(), 1);
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setDelay(0, 0);
+        hlsMediaProcessor.setRetryPolicy(retryPolicy);
+        hlsMediaProcessor.download(URI.create("http://test/media.m3u8"));
+        assertTrue(Files.exists(Path.of(outputFile)), "503 is retried");
+
+        failures.set(0);
+        retryPolicy.setRetryableStatus(status -> false);
+        initHls(SINGLE_SEGMENT_PLAYLIST, overloadedFetcher, new MockDecryptor(), 1);
+        hlsMediaProcessor.setRetryPolicy(retryPolicy);
+        IOException e = assertThrows(IOException.class, () -> hlsMediaProcessor.download(URI.create("http://test/media.m3u8")));
+        assertTrue(e.getMessage().contains("503"), e.getMessage());
+        assertEquals(1, failures.get(), "Not retried when the status is not retryable");
+    }
+
     @Test
     void testStreamingDecryption() throws IOException {
         // test data
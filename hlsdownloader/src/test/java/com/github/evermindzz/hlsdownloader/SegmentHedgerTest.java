@@ -0,0 +1,79 @@
+package com.github.evermindzz.hlsdownloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentHedgerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void testThresholdsArePercentilesOfRecentSegments() {
+        SegmentHedger hedger = new SegmentHedger();
+        hedger.setPercentile(0.9);
+        for (int i = 1; i < SegmentHedger.DEFAULT_MIN_SAMPLES; i++) {
+            hedger.onCompleted(i * MS, i * 10 * MS, false);
+        }
+        assertEquals(-1, hedger.getFirstByteThresholdNanos(), "Too few samples");
+        assertEquals(-1, hedger.getDurationThresholdNanos());
+
+        hedger.onCompleted(10 * MS, 100 * MS, false);
+        assertEquals(9 * MS, hedger.getFirstByteThresholdNanos());
+        assertEquals(90 * MS, hedger.getDurationThresholdNanos());
+    }
+
+    @Test
+    void testOldSamplesLeaveTheWindow() {
+        SegmentHedger hedger = new SegmentHedger();
+        for (int i = 0; i < SegmentHedger.WINDOW_SIZE; i++) {
+            hedger.onCompleted(1000 * MS, 1000 * MS, false);
+        }
+        for (int i = 0; i < SegmentHedger.WINDOW_SIZE; i++) {
+            hedger.onCompleted(MS, 10 * MS, false);
+        }
+        assertEquals(MS, hedger.getFirstByteThresholdNanos());
+        assertEquals(10 * MS, hedger.getDurationThresholdNanos());
+    }
+
+    @Test
+    void testHedgesAreLimitedToTheExtraLoad() {
+        SegmentHedger hedger = new SegmentHedger();
+        hedger.setMaxExtraLoad(0.1);
+        for (int i = 0; i < 9; i++) {
+            hedger.onSegmentStarted();
+        }
+        assertFalse(hedger.tryHedge(), "A hedge would be more than 10% extra requests");
+        hedger.onSegmentStarted();
+        assertTrue(hedger.tryHedge());
+        assertFalse(hedger.tryHedge());
+        hedger.onCompleted(MS, MS, true);
+
+        SegmentHedger.Stats stats = hedger.getStats();
+        assertEquals(10, stats.getSegments());
+        assertEquals(1, stats.getHedges());
+        assertEquals(1, stats.getHedgeWins());
+        assertEquals(0.1, stats.getExtraLoad(), 1e-9);
+    }
+
+    @Test
+    void testAlternateUri() {
+        SegmentHedger hedger = new SegmentHedger();
+        URI uri = URI.create("http://cdn1/segment1.ts");
+        assertEquals(uri, hedger.alternateUri(uri));
+        hedger.setAlternateUri(u -> URI.create("http://cdn2" + u.getPath()));
+        assertEquals(URI.create("http://cdn2/segment1.ts"), hedger.alternateUri(uri));
+    }
+
+    @Test
+    void testInvalidArgumentsAreRejected() {
+        SegmentHedger hedger = new SegmentHedger();
+        assertThrows(IllegalArgumentException.class, () -> hedger.setPercentile(1));
+        assertThrows(IllegalArgumentException.class, () -> hedger.setMaxExtraLoad(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> hedger.setMinSamples(SegmentHedger.WINDOW_SIZE + 1));
+    }
+}
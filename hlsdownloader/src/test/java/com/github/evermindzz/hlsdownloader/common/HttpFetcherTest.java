@@ -0,0 +1,174 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpFetcherTest {
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private URI baseUri;
+    private HttpFetcher fetcher;
+    private final CountDownLatch unstall = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/segment.ts", exchange -> respond(exchange, true));
+        server.createContext("/norange.ts", exchange -> respond(exchange, false));
+        server.createContext("/missing.ts", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        // sends half of the body, then nothing until the test ends
+        server.createContext("/stalled.ts", exchange -> {
+            byte[] body = CONTENT.getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body, 0, body.length / 2);
+                out.flush();
+                unstall.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        fetcher = new HttpFetcher();
+    }
+
+    @AfterEach
+    void tearDown() {
+        unstall.countDown();
+        fetcher.close();
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, boolean supportsRange) throws IOException {
+        byte[] body = CONTENT.getBytes(StandardCharsets.US_ASCII);
+        int code = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        if (supportsRange && range != null) {
+            Matcher m = RANGE.matcher(range);
+            assertTrue(m.matches());
+            int first = Integer.parseInt(m.group(1));
+            int last = Integer.parseInt(m.group(2));
+            byte[] part = new byte[last - first + 1];
+            System.arraycopy(body, first, part, 0, part.length);
+            body = part;
+            code = 206;
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = stream.read()) != -1) {
+                sb.append((char) b);
+            }
+            return sb.toString();
+        }
+    }
+
+    @Test
+    void testFetchContentAndRanges() throws IOException {
+        assertEquals(CONTENT, read(fetcher.fetchContent(baseUri.resolve("segment.ts"))));
+        assertEquals("abcde", read(fetcher.fetchContent(baseUri.resolve("segment.ts"), 10, 5)));
+        assertEquals("abcde", read(fetcher.fetchContent(baseUri.resolve("norange.ts"), 10, 5)),
+                "Ranges also work when the server ignores the Range header");
+        assertEquals(CONTENT.length(), fetcher.fetchContentLength(baseUri.resolve("segment.ts")));
+    }
+
+    @Test
+    void testFetchContentAsync() throws Exception {
+        List<CompletableFuture<InputStream>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(fetcher.fetchContentAsync(baseUri.resolve("segment.ts"), i, 4));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(CONTENT.substring(i, i + 4), read(futures.get(i).get()));
+        }
+    }
+
+    @Test
+    void testErrorResponsesFail() throws IOException {
+        URI missing = baseUri.resolve("missing.ts");
+        IOException e = assertThrows(IOException.class, () -> fetcher.fetchContent(missing));
+        assertTrue(e.getMessage().contains("404"));
+
+        ExecutionException async = assertThrows(ExecutionException.class,
+                () -> fetcher.fetchContentAsync(missing).get());
+        assertInstanceOf(IOException.class, async.getCause());
+        assertEquals(-1, fetcher.fetchContentLength(missing), "The size of a failed HEAD is unknown");
+    }
+
+    @Test
+    void testBodyThatStopsArrivingTimesOut() throws IOException {
+        try (HttpFetcher shortTimeout = new HttpFetcher(1000, 300)) {
+            InputStream in = shortTimeout.fetchContent(baseUri.resolve("stalled.ts"));
+            long start = System.nanoTime();
+            assertThrows(SocketTimeoutException.class, () -> read(in));
+            long millis = (System.nanoTime() - start) / 1_000_000L;
+            assertTrue(millis < 5000, "Timed out after " + millis + " ms");
+        }
+    }
+
+    @Test
+    void testFetchContentIfModified() throws IOException {
+        URI uri = baseUri.resolve("segment.ts");
+        try (FetchResponse response = fetcher.fetchContentIfModified(uri, null, null)) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(ETAG, response.getETag());
+            assertEquals(CONTENT, read(response.getBody()));
+        }
+        try (FetchResponse response = fetcher.fetchContentIfModified(uri, ETAG, null)) {
+            assertTrue(response.isNotModified());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PooledFetcherTest {
+    private static final byte[] CONTENT = new byte[100_000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) ('a' + i % 26);
+        }
+    }
+
+    private HttpServer server;
+    private URI baseUri;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fixed.ts", exchange -> respond(exchange, CONTENT.length));
+        server.createContext("/chunked.ts", exchange -> respond(exchange, 0));
+        server.createContext("/slow.ts", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            respond(exchange, CONTENT.length);
+        });
+        server.createContext("/redirect.ts", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/fixed.ts");
+            respondWithMessage(exchange, 302);
+        });
+        server.createContext("/missing.ts", exchange -> respondWithMessage(exchange, 404));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, long length) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(CONTENT.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(CONTENT);
+        }
+    }
+
+    private static void respondWithMessage(HttpExchange exchange, int code) throws IOException {
+        byte[] message = ("HTTP " + code).getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(code, message.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(message);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void testConnectionIsReused() throws IOException {
+        try (PooledFetcher fetcher = new PooledFetcher(2, 10_000)) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(CONTENT.length, read(fetcher.fetchContent(baseUri.resolve("fixed.ts"))).length);
+                assertEquals(CONTENT.length, read(fetcher.fetchContent(baseUri.resolve("chunked.ts"))).length);
+            }
+            assertEquals("abcde", new String(read(fetcher.fetchContent(baseUri.resolve("fixed.ts"), 26, 5)),
+                    StandardCharsets.US_ASCII));
+            assertEquals(CONTENT.length, read(fetcher.fetchContent(baseUri.resolve("redirect.ts"))).length);
+            assertEquals(CONTENT.length, fetcher.fetchContentLength(baseUri.resolve("fixed.ts")));
+
+            PooledFetcher.Stats stats = fetcher.getStats();
+            assertEquals(1, stats.getMisses(), stats.toString());
+            assertEquals(9, stats.getHits(), stats.toString());
+            assertEquals(1, stats.getIdleConnections());
+            assertEquals(1, clientPorts.size(), "All requests share one connection");
+        }
+    }
+
+    @Test
+    void testPartlyReadStreamsAreDrainedOnClose() throws IOException {
+        try (PooledFetcher fetcher = new PooledFetcher(2, 10_000)) {
+            try (InputStream in = fetcher.fetchContent(baseUri.resolve("chunked.ts"))) {
+                assertEquals('a', in.read());
+            }
+            fetcher.setMaxDrainBytes(10);
+            try (InputStream in = fetcher.fetchContent(baseUri.resolve("fixed.ts"))) {
+                assertEquals('a', in.read());
+            }
+            assertEquals(CONTENT.length, read(fetcher.fetchContent(baseUri.resolve("fixed.ts"))).length);
+
+            PooledFetcher.Stats stats = fetcher.getStats();
+            assertEquals(1, stats.getHits(), "Drained connection is reused: " + stats);
+            assertEquals(2, stats.getMisses(), "Connection with too much left is closed: " + stats);
+        }
+    }
+
+    @Test
+    void testConnectionsPerHostAreLimited() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try (PooledFetcher fetcher = new PooledFetcher(2, 10_000)) {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> read(fetcher.fetchContent(baseUri.resolve("slow.ts")))));
+            }
+            for (Future<byte[]> result : results) {
+                assertEquals(CONTENT.length, result.get().length);
+            }
+            PooledFetcher.Stats stats = fetcher.getStats();
+            assertTrue(maxInFlight.get() <= 2, "Requests in flight: " + maxInFlight.get());
+            assertTrue(clientPorts.size() <= 2, "Connections: " + clientPorts.size());
+            assertEquals(8, stats.getHits() + stats.getMisses());
+            assertTrue(stats.getWaits() > 0, stats.toString());
+            assertTrue(stats.getWaitTimeMillis() > 0, stats.toString());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void testIdleConnectionsAreEvicted() throws Exception {
+        try (PooledFetcher fetcher = new PooledFetcher(2, 50)) {
+            read(fetcher.fetchContent(baseUri.resolve("fixed.ts")));
+            Thread.sleep(150);
+            read(fetcher.fetchContent(baseUri.resolve("fixed.ts")));
+
+            PooledFetcher.Stats stats = fetcher.getStats();
+            assertEquals(1, stats.getEvictions(), stats.toString());
+            assertEquals(2, stats.getMisses(), stats.toString());
+            assertEquals(1, stats.getOpenConnections(), stats.toString());
+        }
+    }
+
+    @Test
+    void testErrorResponsesFailAndKeepTheConnection() throws IOException {
+        try (PooledFetcher fetcher = new PooledFetcher(1, 10_000)) {
+            IOException e = assertThrows(IOException.class, () -> fetcher.fetchContent(baseUri.resolve("missing.ts")));
+            assertTrue(e.getMessage().contains("404"));
+            assertEquals(CONTENT.length, read(fetcher.fetchContent(baseUri.resolve("fixed.ts"))).length);
+            assertEquals(1, fetcher.getStats().getMisses());
+            assertEquals(-1, fetcher.fetchContentLength(baseUri.resolve("missing.ts")), "The size of a failed HEAD is unknown");
+        }
+    }
+
+    @Test
+    void testConnectionClosedByServerIsReplaced() throws Exception {
+        // answers every request with a keep-alive response, then closes the socket without notice
+        try (ServerSocket closingServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             PooledFetcher fetcher = new PooledFetcher(1, 10_000)) {
+            CountDownLatch firstClosed = new CountDownLatch(1);
+            Thread serverThread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2; i++) {
+                        try (Socket socket = closingServer.accept()) {
+                            respondAndClose(socket, i == 0 ? new byte[0] : CONTENT);
+                        }
+                        firstClosed.countDown();
+                    }
+                } catch (IOException e) {
+                    // the test failed already
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+            URI uri = URI.create("http://127.0.0.1:" + closingServer.getLocalPort() + "/segment.ts");
+
+            assertEquals(0, read(fetcher.fetchContent(uri)).length);
+            assertTrue(firstClosed.await(5, TimeUnit.SECONDS));
+            assertEquals(CONTENT.length, read(fetcher.fetchContent(uri)).length);
+
+            PooledFetcher.Stats stats = fetcher.getStats();
+            assertEquals(1, stats.getEvictions(), stats.toString());
+            assertEquals(2, stats.getMisses(), stats.toString());
+        }
+    }
+
+    private static void respondAndClose(Socket socket, byte[] body) throws IOException {
+        InputStream in = socket.getInputStream();
+        // skip the request up to the empty line after the headers
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) {
+                return;
+            }
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumingInputStreamTest {
+    private static final byte[] CONTENT = new byte[10_000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) i;
+        }
+    }
+
+    private final List<Long> opens = new ArrayList<>();
+    private final List<Integer> retries = new ArrayList<>();
+
+    private static RetryPolicy noDelayPolicy() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setDelay(0, 0);
+        return policy;
+    }
+
+    /**
+     * @return a stream of the content after {@code position} that fails with {@code failure}
+     * after {@code breakAfter} bytes.
+     */
+    private static InputStream breakingStream(long position, int breakAfter, IOException failure) {
+        InputStream in = new ByteArrayInputStream(CONTENT, (int) position, CONTENT.length - (int) position);
+        return new FilterInputStream(in) {
+            private int left = breakAfter;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left == 0) {
+                    throw failure;
+                }
+                int n = super.read(b, off, Math.min(len, left));
+                left -= Math.max(n, 0);
+                return n;
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Test
+    void testBrokenTransferContinuesAtTheLastByte() throws IOException {
+        ResumingInputStream in = ResumingInputStream.open(position -> {
+            opens.add(position);
+            return breakingStream(position, 3000, new SocketException("Connection reset"));
+        }, noDelayPolicy(), (e, attempt) -> retries.add(attempt), CONTENT.length);
+
+        assertArrayEquals(CONTENT, readAll(in));
+        assertEquals(Arrays.asList(0L, 3000L, 6000L, 9000L), opens);
+        assertEquals(Arrays.asList(1, 1, 1), retries, "Progress resets the attempts");
+        assertEquals(CONTENT.length, in.getPosition());
+    }
+
+    @Test
+    void testEarlyEndOfKnownLengthIsResumed() throws IOException {
+        ResumingInputStream in = ResumingInputStream.open(position -> {
+            opens.add(position);
+            int end = (int) Math.min(CONTENT.length, position + 4000);
+            return new ByteArrayInputStream(CONTENT, (int) position, end - (int) position);
+        }, noDelayPolicy(), null, CONTENT.length);
+
+        assertArrayEquals(CONTENT, readAll(in));
+        assertEquals(Arrays.asList(0L, 4000L, 8000L), opens);
+    }
+
+    @Test
+    void testFailedOpensAreRetriedUpToMaxAttempts() {
+        RetryPolicy policy = noDelayPolicy();
+        policy.setMaxAttempts(4);
+        URI uri = URI.create("http://test/segment1.ts");
+        HttpStatusException e = assertThrows(HttpStatusException.class, () -> ResumingInputStream.open(position -> {
+            opens.add(position);
+            throw new HttpStatusException(503, uri);
+        }, policy, (failure, attempt) -> retries.add(attempt), -1));
+
+        assertEquals(503, e.getStatusCode());
+        assertEquals(4, opens.size());
+        assertEquals(Arrays.asList(1, 2, 3), retries);
+    }
+
+    @Test
+    void testNonRetryableFailureFailsAtOnce() throws IOException {
+        ResumingInputStream in = ResumingInputStream.open(position -> {
+            opens.add(position);
+            return breakingStream(position, 100, new IOException("Decoding failed"));
+        }, noDelayPolicy(), null, -1);
+
+        IOException e = assertThrows(IOException.class, () -> readAll(in));
+        assertEquals("Decoding failed", e.getMessage());
+        assertEquals(Arrays.asList(0L), opens);
+    }
+
+    @Test
+    void testTimeBudgetStopsRetries() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(100);
+        policy.setDelay(100, 100);
+        policy.setJitter(0);
+        policy.setTimeBudget(250);
+        long start = System.nanoTime();
+        assertThrows(EOFException.class, () -> ResumingInputStream.open(position -> {
+            opens.add(position);
+            throw new EOFException("Stream ended early");
+        }, policy, null, -1));
+
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue(opens.size() >= 2 && opens.size() <= 3, "Attempts " + opens.size());
+        assertTrue(millis < 1000, "Took " + millis);
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private static final URI URI = java.net.URI.create("http://test/segment1.ts");
+
+    @Test
+    void testRetryableFailures() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(new SocketException("Connection reset")));
+        assertTrue(policy.isRetryable(new SocketTimeoutException("Read timed out")));
+        assertTrue(policy.isRetryable(new EOFException("Stream ended early")));
+        assertTrue(policy.isRetryable(new HttpStatusException(429, URI)));
+        assertTrue(policy.isRetryable(new HttpStatusException(503, URI)));
+
+        assertFalse(policy.isRetryable(new HttpStatusException(404, URI)));
+        assertFalse(policy.isRetryable(new InterruptedIOException("Cancelled")));
+        assertFalse(policy.isRetryable(new FileNotFoundException("missing")));
+        assertFalse(policy.isRetryable(new IOException("Unsupported URI scheme")));
+
+        policy.setRetryableStatus(status -> status == 404);
+        assertTrue(policy.isRetryable(new HttpStatusException(404, URI)));
+        assertFalse(policy.isRetryable(new HttpStatusException(503, URI)));
+    }
+
+    @Test
+    void testDelayDoublesUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setJitter(0);
+        policy.setDelay(100, 1000);
+        assertEquals(100, policy.delayMillis(1));
+        assertEquals(200, policy.delayMillis(2));
+        assertEquals(800, policy.delayMillis(4));
+        assertEquals(1000, policy.delayMillis(5));
+        assertEquals(1000, policy.delayMillis(100));
+    }
+
+    @Test
+    void testJitterShortensTheDelay() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setDelay(1000, 1000);
+        policy.setJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delayMillis(1);
+            assertTrue(delay > 500 && delay <= 1000, "Delay " + delay);
+        }
+    }
+
+    @Test
+    void testInvalidArgumentsAreRejected() {
+        RetryPolicy policy = new RetryPolicy();
+        assertThrows(IllegalArgumentException.class, () -> policy.setMaxAttempts(0));
+        assertThrows(IllegalArgumentException.class, () -> policy.setDelay(100, 10));
+        assertThrows(IllegalArgumentException.class, () -> policy.setJitter(1.5));
+        assertThrows(IllegalArgumentException.class, () -> policy.setTimeBudget(-1));
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.evermindzz.hlsdownloader.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+    private static final int RATE = 100_000;
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[4096];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+
+    @Test
+    void testBurstIsFreeAndTheRestFollowsTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE, RATE / 2);
+        long start = System.nanoTime();
+        bucket.acquire(RATE / 2);
+        assertTrue(elapsedMillis(start) < 200, "The burst does not wait");
+
+        start = System.nanoTime();
+        bucket.acquire(RATE / 2);
+        long millis = elapsedMillis(start);
+        assertTrue(millis >= 400 && millis < 2000, "Half a second at the rate, took " + millis);
+    }
+
+    @Test
+    void testRateCanBeChangedAtRuntime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE, 1);
+        bucket.setRate(RATE * 10);
+        assertEquals(RATE * 10, bucket.getRate());
+        long start = System.nanoTime();
+        bucket.acquire(RATE);
+        long millis = elapsedMillis(start);
+        assertTrue(millis >= 50 && millis < 1000, "100 ms at the new rate, took " + millis);
+
+        bucket.setRate(0);
+        start = System.nanoTime();
+        bucket.acquire(RATE * 100L);
+        assertTrue(elapsedMillis(start) < 200, "0 is no limit");
+    }
+
+    @Test
+    void testInvalidArgumentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(-1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(RATE, 0));
+        assertEquals(1, new TokenBucket(0).getBurst());
+    }
+
+    @Test
+    void testStreamsSharingABucketShareTheRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(RATE, 1);
+        byte[] content = new byte[RATE / 4];
+        IOException[] failure = new IOException[1];
+        Thread other = new Thread(() -> {
+            try {
+                drain(new ThrottledInputStream(new ByteArrayInputStream(content), bucket));
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+
+        long start = System.nanoTime();
+        other.start();
+        drain(new ThrottledInputStream(new ByteArrayInputStream(content), bucket));
+        other.join();
+        long millis = elapsedMillis(start);
+        assertEquals(null, failure[0]);
+        assertTrue(millis >= 400 && millis < 3000, "Two quarter seconds at one rate, took " + millis);
+    }
+
+    @Test
+    void testInterruptedReadFails() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        InputStream in = new ThrottledInputStream(new ByteArrayInputStream(new byte[100]), bucket);
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(IOException.class, () -> in.read(new byte[100]));
+            assertTrue(Thread.currentThread().isInterrupted(), "The interrupt flag is kept");
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeListParserTest {
+
+    @Test
+    void testTypedValues() throws IOException {
+        AttributeListParser attrs = new AttributeListParser().reset(
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,RESOLUTION=640x360,CODECS=\"avc1.42e01e,mp4a.40.2\"," +
+                        "FRAME-RATE=29.97,IV=0x0123456789abcdefABCDEF0123456789,CLOSED-CAPTIONS=NONE");
+
+        assertTrue(attrs.next());
+        assertTrue(attrs.nameIs("BANDWIDTH"));
+        assertEquals(1280000L, attrs.decimalInteger());
+
+        assertTrue(attrs.next());
+        assertTrue(attrs.nameIs("RESOLUTION"));
+        assertEquals(640, attrs.resolutionWidth());
+        assertEquals(360, attrs.resolutionHeight());
+
+        assertTrue(attrs.next());
+        assertTrue(attrs.nameIs("CODECS"));
+        assertTrue(attrs.isQuoted());
+        assertEquals("avc1.42e01e,mp4a.40.2", attrs.stringValue(), "commas inside quotes belong to the value");
+
+        assertTrue(attrs.next());
+        assertEquals("FRAME-RATE", attrs.name());
+        assertEquals(29.97, attrs.decimalFloat());
+
+        assertTrue(attrs.next());
+        assertTrue(attrs.nameIs("IV"));
+        assertTrue(attrs.isHexSequence());
+
+        assertTrue(attrs.next());
+        assertTrue(attrs.nameIs("CLOSED-CAPTIONS"));
+        assertFalse(attrs.isQuoted());
+        assertTrue(attrs.valueIs("NONE"));
+
+        assertFalse(attrs.next());
+    }
+
+    @Test
+    void testReuseAndMalformedInput() throws IOException {
+        AttributeListParser attrs = new AttributeListParser();
+
+        attrs.reset("#EXT-X-KEY:METHOD=NONE");
+        assertTrue(attrs.next());
+        assertTrue(attrs.valueIs("NONE"));
+        assertFalse(attrs.next());
+
+        attrs.reset("#EXT-X-KEY:IV=0xZZ");
+        assertTrue(attrs.next());
+        assertFalse(attrs.isHexSequence());
+
+        assertThrows(IOException.class, () -> attrs.reset("#EXT-X-MAP:URI=\"init.mp4").next());
+        assertThrows(IOException.class, () -> attrs.reset("#EXT-X-KEY:METHOD").next());
+        assertThrows(IOException.class, () -> {
+            attrs.reset("#EXT-X-STREAM-INF:BANDWIDTH=12ab");
+            attrs.next();
+            attrs.decimalInteger();
+        });
+    }
+}
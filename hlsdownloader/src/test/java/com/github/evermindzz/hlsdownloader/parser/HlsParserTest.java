@@ -1,9 +1,11 @@
 package com.github.evermindzz.hlsdownloader.parser;
 
+import com.github.evermindzz.hlsdownloader.common.FetchResponse;
 import com.github.evermindzz.hlsdownloader.common.Fetcher;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser.VariantStream;
 import com.github.evermindzz.hlsdownloader.parser.HlsParser.EncryptionInfo;
 
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
@@ -14,16 +16,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -65,6 +87,94 @@ class HlsParserTest {
         parser.parse(dummyMasterUri); // Will parse master, callback, then media
     }
 
+    @Test
+    void testMasterPlaylistAttributesWithQuotedCommas() throws Exception {
+        String masterContent = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,RESOLUTION=640x360,CODECS=\"avc1.42e01e,mp4a.40.2\"\n" +
+                "media360.m3u8\n";
+        String mediaContent = "#EXTM3U\n" +
+                "#EXT-X-VERSION:6\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-MAP:URI=\"init,v1.mp4\",BYTERANGE=\"720@24\"\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key.php?id=1,2\",IV=0X1234567890ABCDEF1234567890ABCDEF\n" +
+                "#EXTINF:9.0,\n" +
+                "segment1.ts\n" +
+                "#EXT-X-ENDLIST";
+
+        HlsParser parser = new HlsParser(variants -> {
+            assertEquals(1280000, variants.get(0).getBandwidth());
+            assertEquals("640x360", variants.get(0).getResolution());
+            assertEquals("avc1.42e01e,mp4a.40.2", variants.get(0).getCodecs());
+            return new VariantStream(URI.create("http://test/media.m3u8"), 0, null, null);
+        }, uri -> new MockFetcher(uri.getPath().endsWith("master.m3u8") ? masterContent : mediaContent)
+                .fetchContent(uri), true);
+
+        HlsParser.MediaPlaylist result = parser.parse(URI.create("http://test/master.m3u8"));
+        assertEquals(720, result.getMap().getLength());
+        assertEquals(24, result.getMap().getOffset());
+        assertTrue(result.getMap().getUri().toString().endsWith("init,v1.mp4"));
+        EncryptionInfo encryptionInfo = result.getSegments().get(0).getEncryptionInfo();
+        assertTrue(encryptionInfo.getUri().toString().endsWith("key.php?id=1,2"));
+        assertEquals("0X1234567890ABCDEF1234567890ABCDEF", encryptionInfo.getIv());
+    }
+
+    @Test
+    void testMasterPlaylistRenditionsAreLinkedToVariants() throws Exception {
+        String masterContent = "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",LANGUAGE=\"en\",NAME=\"English\",DEFAULT=YES,AUTOSELECT=YES,URI=\"audio/en.m3u8\"\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",LANGUAGE=\"de\",NAME=\"Deutsch\",DEFAULT=NO,URI=\"audio/de.m3u8\"\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"ac3\",LANGUAGE=\"en\",NAME=\"English 5.1\",URI=\"audio/en-ac3.m3u8\"\n" +
+                "#EXT-X-MEDIA:TYPE=SUBTITLES,GROUP-ID=\"subs\",LANGUAGE=\"en\",NAME=\"English\",URI=\"subs/en.m3u8\"\n" +
+                "#EXT-X-MEDIA:TYPE=CLOSED-CAPTIONS,GROUP-ID=\"cc\",NAME=\"CC1\",INSTREAM-ID=\"CC1\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,AUDIO=\"aac\",SUBTITLES=\"subs\",CLOSED-CAPTIONS=\"cc\"\n" +
+                "video360.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2560000,AUDIO=\"ac3\"\n" +
+                "video720.m3u8\n";
+
+        HlsParser parser = new HlsParser(variants -> {
+            fail("Should not be called by parseMaster");
+            return null;
+        }, new MockFetcher(masterContent), true);
+
+        HlsParser.MasterPlaylist master = parser.parseMaster(URI.create("http://test/master.m3u8"));
+        assertEquals(2, master.getVariants().size());
+        assertEquals(5, master.getRenditions().size());
+
+        VariantStream low = master.getVariants().get(0);
+        assertEquals("aac", low.getAudioGroupId());
+        assertEquals("subs", low.getSubtitlesGroupId());
+        assertNull(low.getVideoGroupId());
+        assertEquals(3, low.getRenditions().size());
+        List<HlsParser.Rendition> audio = low.getRenditions(HlsParser.Rendition.TYPE_AUDIO);
+        assertEquals(2, audio.size());
+        assertEquals("en", audio.get(0).getLanguage());
+        assertEquals("English", audio.get(0).getName());
+        assertTrue(audio.get(0).isDefault());
+        assertTrue(audio.get(0).isAutoselect());
+        assertEquals(URI.create("http://test/audio/en.m3u8"), audio.get(0).getUri());
+        assertEquals("de", audio.get(1).getLanguage());
+        assertFalse(audio.get(1).isDefault());
+        assertEquals(URI.create("http://test/subs/en.m3u8"),
+                low.getRenditions(HlsParser.Rendition.TYPE_SUBTITLES).get(0).getUri());
+
+        VariantStream high = master.getVariants().get(1);
+        assertEquals(1, high.getRenditions().size());
+        assertEquals("English 5.1", high.getRenditions().get(0).getName());
+
+        HlsParser.Rendition closedCaptions = master.getRenditions().get(4);
+        assertEquals(HlsParser.Rendition.TYPE_CLOSED_CAPTIONS, closedCaptions.getType());
+        assertNull(closedCaptions.getUri());
+
+        assertThrows(IOException.class, () -> new HlsParser(null,
+                new MockFetcher("#EXTM3U\n#EXT-X-MEDIA:TYPE=AUDIO,NAME=\"en\"\n" +
+                        "#EXT-X-STREAM-INF:BANDWIDTH=1\nv.m3u8\n"), true)
+                .parseMaster(URI.create("http://test/master.m3u8")));
+        assertThrows(IOException.class, () -> new HlsParser(null,
+                new MockFetcher("#EXTM3U\n#EXT-X-TARGETDURATION:10\n#EXTINF:9.0,\ns.ts\n#EXT-X-ENDLIST"), true)
+                .parseMaster(URI.create("http://test/media.m3u8")));
+    }
+
     @Test
     void testMediaPlaylistParsingValidation() throws Exception {
         String mediaContent = "#EXTM3U\n" +
@@ -265,6 +375,548 @@ class HlsParserTest {
         assertTrue(ex.getMessage().contains("Invalid playlist: Missing #EXTM3U"));
     }
 
+    @Test
+    void testStreamingParseDetectsPlaylistTypeByFirstTag() throws IOException {
+        String mediaContent = "#EXTM3U\n" +
+                "#EXT-X-VERSION:3\n" +
+                "#EXT-X-MEDIA-SEQUENCE:7\n" + // must not be taken for #EXT-X-MEDIA
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "segment1.ts\n" +
+                "#EXT-X-ENDLIST";
+        String masterContent = "#EXTM3U\n" +
+                "#EXT-X-VERSION:3\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"en\",URI=\"audio.m3u8\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,AUDIO=\"aac\"\n" +
+                "media.m3u8";
+
+        HlsParser parser = new HlsParser(variants -> {
+            assertEquals(1, variants.size());
+            return variants.get(0);
+        }, new MockFetcher(mediaContent), true);
+
+        HlsParser.MediaPlaylist media = parser.parse(URI.create("http://test/media.m3u8"));
+        assertEquals(7, media.getMediaSequence());
+        assertEquals(1, media.getSegments().size());
+
+        InputStream masterStream = new ByteArrayInputStream(masterContent.getBytes(StandardCharsets.UTF_8));
+        HlsParser.MediaPlaylist viaMaster = parser.parse(URI.create("http://test/master.m3u8"), masterStream);
+        assertEquals(URI.create("http://test/segment1.ts"), viaMaster.getSegments().get(0).getUri());
+    }
+
+    @Test
+    void testStreamingParseOfLargePlaylist() throws IOException {
+        final int segmentCount = 50_000;
+        // generates the playlist on the fly, nothing of it exists as a whole in memory
+        InputStream generated = new InputStream() {
+            private byte[] chunk = "#EXTM3U\n#EXT-X-TARGETDURATION:2\n".getBytes(StandardCharsets.UTF_8);
+            private int pos;
+            private int segment;
+
+            @Override
+            public int read() {
+                while (pos == chunk.length) {
+                    if (segment > segmentCount) {
+                        return -1;
+                    }
+                    chunk = (segment++ < segmentCount
+                            ? "#EXTINF:2.0,\nseg" + segment + ".ts\n"
+                            : "#EXT-X-ENDLIST\n").getBytes(StandardCharsets.UTF_8);
+                    pos = 0;
+                }
+                return chunk[pos++];
+            }
+        };
+
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(null), true);
+        HlsParser.MediaPlaylist result = parser.parse(URI.create("http://test/live/media.m3u8"), generated);
+
+        assertEquals(segmentCount, result.getSegments().size());
+        assertEquals(URI.create("http://test/live/seg50000.ts"), result.getSegments().get(segmentCount - 1).getUri());
+        assertTrue(result.isEndList());
+    }
+
+    @Test
+    void testSegmentIteratorReturnsSegmentsBeforePlaylistIsRead() throws IOException {
+        final int segmentCount = 50_000;
+        AtomicInteger generated = new AtomicInteger();
+        Fetcher fetcher = uri -> new InputStream() {
+            private byte[] chunk = "#EXTM3U\n#EXT-X-TARGETDURATION:2\n#EXT-X-KEY:METHOD=AES-128,URI=\"k.key\"\n"
+                    .getBytes(StandardCharsets.UTF_8);
+            private int pos;
+
+            @Override
+            public int read() {
+                while (pos == chunk.length) {
+                    int segment = generated.get();
+                    if (segment > segmentCount) {
+                        return -1;
+                    }
+                    chunk = (generated.getAndIncrement() < segmentCount
+                            ? "#EXTINF:2.0,\nseg" + (segment + 1) + ".ts\n"
+                            : "#EXT-X-ENDLIST\n").getBytes(StandardCharsets.UTF_8);
+                    pos = 0;
+                }
+                return chunk[pos++];
+            }
+        };
+
+        HlsParser parser = new HlsParser(new DummyCallback(), fetcher, true);
+        try (HlsParser.SegmentIterator iterator = parser.iterateSegments(URI.create("http://test/live/media.m3u8"))) {
+            assertTrue(iterator.hasNext());
+            HlsParser.Segment first = iterator.next();
+            assertEquals(URI.create("http://test/live/seg1.ts"), first.getUri());
+            assertEquals(URI.create("http://test/live/k.key"), first.getEncryptionInfo().getUri());
+            // only a buffer's worth of the playlist has been read
+            assertTrue(generated.get() < 1000, "read " + generated.get() + " segments");
+            assertNull(iterator.getPlaylist());
+
+            int count = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(segmentCount, count);
+            assertEquals(segmentCount, iterator.getPlaylist().getSegments().size());
+            assertTrue(iterator.getPlaylist().isEndList());
+            assertThrows(NoSuchElementException.class, iterator::next);
+        }
+    }
+
+    @Test
+    void testSegmentIteratorFollowsSelectedVariant() throws IOException {
+        String master = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000\n" +
+                "low/media.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2560000\n" +
+                "high/media.m3u8\n";
+        String media = "#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "segment1.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "segment2.ts\n" +
+                "#EXT-X-ENDLIST";
+        HlsParser parser = new HlsParser(variants -> variants.get(1),
+                uri -> new MockFetcher(uri.getPath().endsWith("master.m3u8") ? master : media).fetchContent(uri), true);
+
+        List<URI> uris = new ArrayList<>();
+        try (HlsParser.SegmentIterator iterator = parser.iterateSegments(URI.create("http://test/master.m3u8"))) {
+            while (iterator.hasNext()) {
+                uris.add(iterator.next().getUri());
+            }
+        }
+        assertEquals(Arrays.asList(URI.create("http://test/high/segment1.ts"), URI.create("http://test/high/segment2.ts")), uris);
+    }
+
+    @Test
+    void testVariantProbingParsesVariantsConcurrentlyAndReusesTheChosenOne() throws IOException {
+        String master = "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1000000\n" +
+                "low.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000\n" +
+                "mid.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=4000000\n" +
+                "high.m3u8\n";
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        CyclicBarrier bothProbing = new CyclicBarrier(2);
+        Fetcher fetcher = uri -> {
+            String name = uri.getPath().substring(1);
+            requests.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+            if (name.equals("master.m3u8")) {
+                return new ByteArrayInputStream(master.getBytes(StandardCharsets.UTF_8));
+            }
+            try {
+                // both probes have to be in flight at the same time
+                bothProbing.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IOException("Variants were not probed concurrently", e);
+            }
+            String segments = name.equals("low.m3u8") ? "#EXTINF:9.0,\na.ts\n" : "#EXTINF:9.0,\na.ts\n#EXTINF:9.0,\nb.ts\n";
+            return new ByteArrayInputStream(("#EXTM3U\n#EXT-X-TARGETDURATION:10\n" + segments + "#EXT-X-ENDLIST\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        };
+        AtomicReference<VariantStream> chosen = new AtomicReference<>();
+        HlsParser parser = new HlsParser(variants -> {
+            assertEquals(1, variants.get(0).getPlaylist().getSegments().size());
+            assertEquals(2, variants.get(1).getPlaylist().getSegments().size());
+            assertNull(variants.get(2).getPlaylist(), "filtered variants are not probed");
+            chosen.set(variants.get(1));
+            return variants.get(1);
+        }, fetcher, true);
+        parser.setVariantProbing(2, variant -> variant.getBandwidth() < 3000000);
+
+        HlsParser.MediaPlaylist result = parser.parse(URI.create("http://test/master.m3u8"));
+
+        assertSame(chosen.get().getPlaylist(), result);
+        assertEquals(1, requests.get("mid.m3u8").get(), "the chosen variant is not fetched again");
+        assertNull(requests.get("high.m3u8"));
+    }
+
+    @Test
+    void testIncrementalReparseReusesKnownSegmentsAndKeys() throws IOException {
+        String first = "#EXTM3U\n" +
+                "#EXT-X-VERSION:3\n" +
+                "#EXT-X-TARGETDURATION:1\n" +
+                "#EXT-X-MEDIA-SEQUENCE:10\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key1.key\"\n" +
+                "#EXTINF:1.0,\n" +
+                "seg10.ts\n" +
+                "#EXTINF:1.0,\n" +
+                "seg11.ts\n" +
+                "#EXTINF:1.0,\n" +
+                "seg12.ts\n";
+        String second = "#EXTM3U\n" +
+                "#EXT-X-VERSION:3\n" +
+                "#EXT-X-TARGETDURATION:1\n" +
+                "#EXT-X-MEDIA-SEQUENCE:11\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key1.key\"\n" +
+                "#EXTINF:1.0,\n" +
+                "seg11.ts\n" +
+                "#EXTINF:1.0,\n" +
+                "seg12.ts\n" +
+                "#EXT-X-PROGRAM-DATE-TIME:2025-05-20T22:00:03Z\n" +
+                "#EXTINF:1.0,\n" +
+                "seg13.ts\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key2.key\"\n" +
+                "#EXTINF:1.0,\n" +
+                "seg14.ts\n";
+        URI uri = URI.create("http://test/live/media.m3u8");
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(second), true);
+
+        HlsParser.MediaPlaylist previous = parser.parse(uri,
+                new ByteArrayInputStream(first.getBytes(StandardCharsets.UTF_8)));
+        previous.getSegments().get(0).getEncryptionInfo().setKey(new byte[16]);
+
+        HlsParser.MediaPlaylist reloaded = parser.parseIncremental(previous, uri);
+
+        assertEquals(11, reloaded.getMediaSequence());
+        assertEquals(4, reloaded.getSegments().size());
+        assertSame(previous.getSegments().get(1), reloaded.getSegments().get(0));
+        assertSame(previous.getSegments().get(2), reloaded.getSegments().get(1));
+
+        HlsParser.Segment seg13 = reloaded.getSegments().get(2);
+        assertEquals(URI.create("http://test/live/seg13.ts"), seg13.getUri());
+        assertEquals("2025-05-20T22:00:03Z", seg13.getProgramDateTime());
+        assertSame(previous.getSegments().get(0).getEncryptionInfo(), seg13.getEncryptionInfo(),
+                "identical key tag should keep the instance with the cached key");
+        assertNotNull(seg13.getEncryptionInfo().getKey());
+        assertNull(reloaded.getSegments().get(3).getEncryptionInfo().getKey());
+    }
+
+    @Test
+    void testIncrementalReparseFallsBackOnSequenceReset() throws IOException {
+        String first = "#EXTM3U\n#EXT-X-TARGETDURATION:1\n#EXT-X-MEDIA-SEQUENCE:10\n#EXTINF:1.0,\nold10.ts\n";
+        String second = "#EXTM3U\n#EXT-X-TARGETDURATION:1\n#EXT-X-MEDIA-SEQUENCE:0\n#EXTINF:1.0,\nnew0.ts\n";
+        URI uri = URI.create("http://test/live/media.m3u8");
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(second), true);
+
+        HlsParser.MediaPlaylist previous = parser.parse(uri,
+                new ByteArrayInputStream(first.getBytes(StandardCharsets.UTF_8)));
+        HlsParser.MediaPlaylist reloaded = parser.parseIncremental(previous, uri);
+
+        assertEquals(1, reloaded.getSegments().size());
+        assertEquals(URI.create("http://test/live/new0.ts"), reloaded.getSegments().get(0).getUri());
+    }
+
+    @Test
+    void testCompactSegmentsMatchRegularSegments() throws IOException, ClassNotFoundException {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key.key\"\n" +
+                "#EXT-X-PROGRAM-DATE-TIME:2025-05-20T22:00:00.250Z\n" +
+                "#EXTINF:9.0,intro\n" +
+                "segment1.ts\n" +
+                "#EXT-X-PROGRAM-DATE-TIME:2025-05-21T00:00:10+02:00\n" +
+                "#EXT-X-BYTERANGE:1000@0\n" +
+                "#EXTINF:10.0,\n" +
+                "segment2.ts\n" +
+                "#EXTINF:9.5,\n" +
+                "http://cdn.test/other/segment3.ts\n" +
+                "#EXT-X-ENDLIST";
+        URI uri = URI.create("http://test/vod/media.m3u8");
+
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(playlist), true);
+        List<HlsParser.Segment> expected = parser.parse(uri).getSegments();
+        parser.setCompactSegments(true);
+        HlsParser.MediaPlaylist compactPlaylist = parser.parse(uri);
+        List<HlsParser.Segment> actual = compactPlaylist.getSegments();
+
+        assertTrue(actual instanceof CompactSegmentList);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getUri(), actual.get(i).getUri());
+            assertEquals(expected.get(i).getDuration(), actual.get(i).getDuration());
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getProgramDateTime(), actual.get(i).getProgramDateTime());
+            assertEquals(expected.get(i).getByteRange(), actual.get(i).getByteRange());
+        }
+        assertSame(actual.get(0).getEncryptionInfo(), actual.get(2).getEncryptionInfo());
+
+        serializeAndDeserializeSegments(compactPlaylist);
+    }
+
+    @Test
+    void testCompactProgramDateTimesAreStoredAsEpochMillis() throws IOException, ReflectiveOperationException {
+        List<String> dateTimes = Arrays.asList(
+                "2024-01-01T00:00:00.000Z",
+                "2024-01-01T00:00:02.000Z",
+                "2024-01-01T02:00:04.000+02:00",
+                "2024-01-01T00:00:06+02:00",
+                "2023-12-31T19:30:08.5-05:30",
+                "2024-01-01T00:00:10.123456Z"); // sub-millisecond, kept raw
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:2\n");
+        for (int i = 0; i < dateTimes.size(); i++) {
+            playlist.append("#EXT-X-PROGRAM-DATE-TIME:").append(dateTimes.get(i)).append('\n')
+                    .append("#EXTINF:2.0,\nsegment").append(i).append(".ts\n");
+        }
+        playlist.append("#EXT-X-ENDLIST");
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(playlist.toString()), true);
+        parser.setCompactSegments(true);
+        List<HlsParser.Segment> segments = parser.parse(URI.create("http://test/vod/media.m3u8")).getSegments();
+
+        for (int i = 0; i < dateTimes.size(); i++) {
+            assertEquals(dateTimes.get(i), segments.get(i).getProgramDateTime());
+        }
+        Field raw = CompactSegmentList.class.getDeclaredField("rawProgramDateTimes");
+        raw.setAccessible(true);
+        assertEquals(Collections.singleton(dateTimes.size() - 1), ((Map<?, ?>) raw.get(segments)).keySet(),
+                "Only the value the epoch column cannot re-create is kept as text");
+    }
+
+    @Test
+    void testByteRangeImplicitOffsets() throws IOException {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:1000@500\n" +
+                "main.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:2000\n" +
+                "main.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:300@0\n" +
+                "other.ts\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:400\n" +
+                "other.ts\n" +
+                "#EXT-X-ENDLIST";
+
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(playlist), true);
+        List<HlsParser.Segment> segments = parser.parse(URI.create("http://test/media.m3u8")).getSegments();
+
+        assertEquals(new HlsParser.ByteRange(1000, 500), segments.get(0).getByteRange());
+        assertEquals(new HlsParser.ByteRange(2000, 1500), segments.get(1).getByteRange());
+        assertEquals(new HlsParser.ByteRange(300, 0), segments.get(2).getByteRange());
+        assertEquals(new HlsParser.ByteRange(400, 300), segments.get(3).getByteRange());
+        assertEquals(700, segments.get(3).getByteRange().getEnd());
+    }
+
+    @Test
+    void testByteRangeWithoutOffsetNeedsPreviousSubRange() {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "#EXT-X-BYTERANGE:1000\n" +
+                "main.ts\n" +
+                "#EXT-X-ENDLIST";
+
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(playlist), true);
+        assertThrows(IOException.class, () -> parser.parse(URI.create("http://test/media.m3u8")));
+    }
+
+    private static final String LOW_LATENCY_PLAYLIST = "#EXTM3U\n" +
+            "#EXT-X-VERSION:9\n" +
+            "#EXT-X-TARGETDURATION:4\n" +
+            "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.0,CAN-SKIP-UNTIL=24.0\n" +
+            "#EXT-X-PART-INF:PART-TARGET=0.33334\n" +
+            "#EXT-X-MEDIA-SEQUENCE:266\n" +
+            "#EXTINF:4.0,\n" +
+            "fileSequence266.mp4\n" +
+            "#EXT-X-PART:DURATION=0.33334,URI=\"filePart267.mp4\",BYTERANGE=\"1000@0\",INDEPENDENT=YES\n" +
+            "#EXT-X-PART:DURATION=0.33334,URI=\"filePart267.mp4\",BYTERANGE=\"1200\"\n" +
+            "#EXTINF:4.0,\n" +
+            "fileSequence267.mp4\n" +
+            "#EXT-X-PART:DURATION=0.33334,URI=\"filePart268.0.mp4\",INDEPENDENT=YES\n" +
+            "#EXT-X-PART:DURATION=0.33334,URI=\"filePart268.1.mp4\",GAP=YES\n" +
+            "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"filePart268.2.mp4\"\n" +
+            "#EXT-X-RENDITION-REPORT:URI=\"../1M/waitForMSN.php\",LAST-MSN=268,LAST-PART=1\n";
+
+    @Test
+    void testLowLatencyPartsAndPreloadHints() throws IOException {
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(LOW_LATENCY_PLAYLIST), true);
+        HlsParser.MediaPlaylist playlist = parser.parse(URI.create("http://test/live/media.m3u8"));
+
+        assertEquals(0.33334, playlist.getPartTarget());
+        assertTrue(playlist.getServerControl().isCanBlockReload());
+        assertEquals(1.0, playlist.getServerControl().getPartHoldBack());
+        assertEquals(24.0, playlist.getServerControl().getCanSkipUntil());
+        assertEquals(-1, playlist.getServerControl().getHoldBack());
+
+        List<HlsParser.Segment> segments = playlist.getSegments();
+        assertEquals(2, segments.size());
+        assertTrue(segments.get(0).getParts().isEmpty());
+        List<HlsParser.PartialSegment> parts = segments.get(1).getParts();
+        assertEquals(2, parts.size());
+        assertEquals(URI.create("http://test/live/filePart267.mp4"), parts.get(0).getUri());
+        assertTrue(parts.get(0).isIndependent());
+        assertEquals(new HlsParser.ByteRange(1000, 0), parts.get(0).getByteRange());
+        assertEquals(new HlsParser.ByteRange(1200, 1000), parts.get(1).getByteRange());
+
+        List<HlsParser.PartialSegment> trailing = playlist.getTrailingParts();
+        assertEquals(2, trailing.size());
+        assertEquals(URI.create("http://test/live/filePart268.0.mp4"), trailing.get(0).getUri());
+        assertNull(trailing.get(0).getByteRange());
+        assertTrue(trailing.get(1).isGap());
+
+        assertEquals(1, playlist.getPreloadHints().size());
+        HlsParser.PreloadHint hint = playlist.getPreloadHints().get(0);
+        assertEquals(HlsParser.PreloadHint.TYPE_PART, hint.getType());
+        assertEquals(URI.create("http://test/live/filePart268.2.mp4"), hint.getUri());
+        assertEquals(0, hint.getByteRangeStart());
+        assertEquals(-1, hint.getByteRangeLength());
+
+        parser.setCompactSegments(true);
+        List<HlsParser.Segment> compact = parser.parse(URI.create("http://test/live/media.m3u8")).getSegments();
+        assertEquals(2, compact.get(1).getParts().size());
+    }
+
+    @Test
+    void testLowLatencyIncrementalKeepsPartsOfReusedSegments() throws IOException {
+        HlsParser parser = new HlsParser(new DummyCallback(), new MockFetcher(LOW_LATENCY_PLAYLIST), true);
+        URI uri = URI.create("http://test/live/media.m3u8");
+        HlsParser.MediaPlaylist previous = parser.parse(uri);
+        String next = LOW_LATENCY_PLAYLIST.replace("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"filePart268.2.mp4\"\n",
+                "#EXT-X-PART:DURATION=0.33334,URI=\"filePart268.2.mp4\"\n" +
+                "#EXTINF:1.0,\n" +
+                "fileSequence268.mp4\n");
+
+        HlsParser.MediaPlaylist playlist = parser.parseIncremental(previous, uri,
+                new ByteArrayInputStream(next.getBytes(StandardCharsets.UTF_8)));
+
+        assertSame(previous.getSegments().get(1), playlist.getSegments().get(1));
+        assertEquals(2, playlist.getSegments().get(1).getParts().size());
+        assertEquals(3, playlist.getSegments().get(2).getParts().size());
+        assertTrue(playlist.getTrailingParts().isEmpty());
+        assertTrue(playlist.getPreloadHints().isEmpty());
+    }
+
+    @Test
+    void testBlockingReloadUriKeepsQueryAndDropsFragment() {
+        assertEquals(URI.create("http://test/live.m3u8?_HLS_msn=268&_HLS_part=2"),
+                HlsParser.blockingReloadUri(URI.create("http://test/live.m3u8"), 268, 2));
+        assertEquals(URI.create("http://test/live.m3u8?token=a%20b&_HLS_msn=5"),
+                HlsParser.blockingReloadUri(URI.create("http://test/live.m3u8?token=a%20b#x"), 5, -1));
+    }
+
+    @Test
+    void testBlockingReloadWaitsForNextPart() throws Exception {
+        String next = LOW_LATENCY_PLAYLIST.replace("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"filePart268.2.mp4\"\n",
+                "#EXT-X-PART:DURATION=0.33334,URI=\"filePart268.2.mp4\"\n" +
+                "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"filePart268.3.mp4\"\n");
+        List<String> queries = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/live/media.m3u8", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            queries.add(String.valueOf(query));
+            try {
+                if (query != null) {
+                    // hold the response until the requested part is published
+                    published.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = (query == null ? LOW_LATENCY_PLAYLIST : next).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/live/media.m3u8");
+            HlsParser parser = new HlsParser(new DummyCallback(), u -> u.toURL().openStream(), true);
+            HlsParser.MediaPlaylist previous = parser.parse(uri);
+
+            CompletableFuture<HlsParser.MediaPlaylist> first = CompletableFuture.supplyAsync(() -> reload(parser, previous, uri));
+            CompletableFuture<HlsParser.MediaPlaylist> second = CompletableFuture.supplyAsync(() -> reload(parser, previous, uri));
+            Thread.sleep(200);
+            assertTrue(!first.isDone() && !second.isDone(), "reload must wait for the publication");
+            published.countDown();
+
+            HlsParser.MediaPlaylist playlist = first.get(5, TimeUnit.SECONDS);
+            assertSame(playlist, second.get(5, TimeUnit.SECONDS));
+            assertEquals(3, playlist.getTrailingParts().size());
+            // one initial load plus one outstanding blocking request for both callers
+            assertEquals(Arrays.asList("null", "_HLS_msn=268&_HLS_part=2"), queries);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HlsParser.MediaPlaylist reload(HlsParser parser, HlsParser.MediaPlaylist previous, URI uri) {
+        try {
+            return parser.parseBlockingReload(previous, uri);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testPlaylistCacheReturnsCachedPlaylistOnNotModified() throws IOException {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:10\n" +
+                "#EXTINF:9.0,\n" +
+                "segment1.ts\n" +
+                "#EXT-X-ENDLIST";
+        AtomicInteger fullFetches = new AtomicInteger();
+        List<String> sentETags = new ArrayList<>();
+        Fetcher conditionalFetcher = new MockFetcher(playlist) {
+            @Override
+            public FetchResponse fetchContentIfModified(URI uri, String eTag, String lastModified) throws IOException {
+                sentETags.add(eTag);
+                if ("\"v1\"".equals(eTag)) {
+                    return FetchResponse.notModified(eTag, lastModified);
+                }
+                fullFetches.incrementAndGet();
+                return new FetchResponse(FetchResponse.HTTP_OK, fetchContent(uri), "\"v1\"", null);
+            }
+        };
+        URI uri = URI.create("http://test/media.m3u8");
+        HlsParser parser = new HlsParser(new DummyCallback(), conditionalFetcher, true);
+        parser.setPlaylistCache(true);
+
+        HlsParser.MediaPlaylist first = parser.parse(uri);
+        HlsParser.MediaPlaylist second = parser.parse(uri);
+
+        assertSame(first, second, "304 should return the cached playlist");
+        assertEquals(1, fullFetches.get());
+        assertEquals(Arrays.asList(null, "\"v1\""), sentETags);
+    }
+
+    @Test
+    void testPlaylistCacheFallsBackToPlainFetch() throws IOException {
+        String playlist = "#EXTM3U\n#EXT-X-TARGETDURATION:10\n#EXTINF:9.0,\nsegment1.ts\n#EXT-X-ENDLIST";
+        AtomicInteger fetches = new AtomicInteger();
+        HlsParser parser = new HlsParser(new DummyCallback(), uri -> {
+            fetches.incrementAndGet();
+            return new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8));
+        }, true);
+        parser.setPlaylistCache(true);
+
+        parser.parse(URI.create("http://test/media.m3u8"));
+        HlsParser.MediaPlaylist second = parser.parse(URI.create("http://test/media.m3u8"));
+
+        assertEquals(2, fetches.get(), "fetchers without conditional support always fetch");
+        assertEquals(1, second.getSegments().size());
+    }
+
     @Test
     void testSerializeAndDeserialize() throws IOException, ClassNotFoundException {
         Result result = parseAdvancedPlaylistHelper();
@@ -0,0 +1,131 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaylistSnapshotTest {
+    private static final URI PLAYLIST_URI = URI.create("http://test/video/media.m3u8");
+    private static final String PLAYLIST = "#EXTM3U\n" +
+            "#EXT-X-VERSION:9\n" +
+            "#EXT-X-TARGETDURATION:10\n" +
+            "#EXT-X-MEDIA-SEQUENCE:42\n" +
+            "#EXT-X-PART-INF:PART-TARGET=1.0\n" +
+            "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3.0\n" +
+            "#EXT-X-MAP:URI=\"init.mp4\",BYTERANGE=\"720@0\"\n" +
+            "#EXT-X-KEY:METHOD=AES-128,URI=\"key1.key\"\n" +
+            "#EXTINF:9.0,first\n" +
+            "segment1.ts\n" +
+            "#EXTINF:9.0,\n" +
+            "#EXT-X-BYTERANGE:1000@0\n" +
+            "https://cdn.example.com/all.ts\n" +
+            "#EXT-X-KEY:METHOD=AES-128,URI=\"key2.key\",IV=0x1234567890abcdef1234567890abcdef\n" +
+            "#EXT-X-PROGRAM-DATE-TIME:2025-05-20T22:00:00.000+02:00\n" +
+            "#EXT-X-PART:DURATION=1.0,URI=\"part3.0.ts\",INDEPENDENT=YES\n" +
+            "#EXT-X-PART:DURATION=1.0,URI=\"part3.1.ts\"\n" +
+            "#EXTINF:2.0,\n" +
+            "../other/segment3.ts\n" +
+            "#EXT-X-PART:DURATION=1.0,URI=\"part4.0.ts\"\n" +
+            "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part4.1.ts\"\n";
+
+    private static HlsParser.MediaPlaylist parse(boolean compact) throws IOException {
+        HlsParser parser = new HlsParser(null, uri -> new ByteArrayInputStream(PLAYLIST.getBytes(StandardCharsets.UTF_8)), true);
+        parser.setCompactSegments(compact);
+        return parser.parse(PLAYLIST_URI);
+    }
+
+    private static byte[] write(HlsParser.MediaPlaylist playlist, boolean includeKeys) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PlaylistSnapshot(PLAYLIST_URI, playlist).writeTo(out, includeKeys);
+        return out.toByteArray();
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        for (boolean compact : new boolean[]{false, true}) {
+            HlsParser.MediaPlaylist original = parse(compact);
+            original.getSegments().get(0).getEncryptionInfo().setKey("1234567890abcdef".getBytes());
+
+            PlaylistSnapshot snapshot = PlaylistSnapshot.readFrom(new ByteArrayInputStream(write(original, true)));
+            HlsParser.MediaPlaylist restored = snapshot.getPlaylist();
+
+            assertEquals(PLAYLIST_URI, snapshot.getUri());
+            assertEquals(compact, restored.getSegments() instanceof CompactSegmentList);
+            assertEquals(10.0, restored.getTargetDuration());
+            assertEquals(42, restored.getMediaSequence());
+            assertEquals(1.0, restored.getPartTarget());
+            assertTrue(restored.getServerControl().isCanBlockReload());
+            assertEquals(3.0, restored.getServerControl().getPartHoldBack());
+            assertEquals(-1, restored.getServerControl().getHoldBack());
+            assertEquals(URI.create("http://test/video/init.mp4"), restored.getMap().getUri());
+            assertEquals(720, restored.getMap().getLength());
+
+            assertEquals(original.getSegments().size(), restored.getSegments().size());
+            for (int i = 0; i < original.getSegments().size(); i++) {
+                HlsParser.Segment expected = original.getSegments().get(i);
+                HlsParser.Segment actual = restored.getSegments().get(i);
+                assertEquals(expected.getUri(), actual.getUri());
+                assertEquals(expected.getDuration(), actual.getDuration());
+                assertEquals(expected.getTitle(), actual.getTitle());
+                assertEquals(expected.getByteRange(), actual.getByteRange());
+                assertEquals(expected.getProgramDateTime(), actual.getProgramDateTime());
+                assertEquals(expected.getEncryptionInfo().getUri(), actual.getEncryptionInfo().getUri());
+                assertEquals(expected.getEncryptionInfo().getIv(), actual.getEncryptionInfo().getIv());
+                assertEquals(expected.getParts().size(), actual.getParts().size());
+            }
+            assertSame(restored.getSegments().get(0).getEncryptionInfo(), restored.getSegments().get(1).getEncryptionInfo(),
+                    "Shared encryption infos stay shared");
+            assertArrayEquals("1234567890abcdef".getBytes(), restored.getSegments().get(0).getEncryptionInfo().getKey());
+            assertNull(restored.getSegments().get(2).getEncryptionInfo().getKey());
+
+            HlsParser.PartialSegment part = restored.getSegments().get(2).getParts().get(0);
+            assertEquals(URI.create("http://test/video/part3.0.ts"), part.getUri());
+            assertTrue(part.isIndependent());
+            assertEquals(URI.create("http://test/video/part4.0.ts"), restored.getTrailingParts().get(0).getUri());
+            assertEquals(URI.create("http://test/video/part4.1.ts"), restored.getPreloadHints().get(0).getUri());
+        }
+    }
+
+    @Test
+    void testKeysAreOnlyStoredOnRequest() throws IOException {
+        HlsParser.MediaPlaylist original = parse(false);
+        original.getSegments().get(0).getEncryptionInfo().setKey("1234567890abcdef".getBytes());
+
+        HlsParser.MediaPlaylist restored = PlaylistSnapshot.readFrom(
+                new ByteArrayInputStream(write(original, false))).getPlaylist();
+        assertNull(restored.getSegments().get(0).getEncryptionInfo().getKey());
+    }
+
+    @Test
+    void testDamagedSnapshotsAreRejected() throws IOException {
+        byte[] data = write(parse(false), false);
+
+        byte[] truncated = Arrays.copyOf(data, data.length - 20);
+        assertThrows(IOException.class, () -> PlaylistSnapshot.readFrom(new ByteArrayInputStream(truncated)));
+
+        byte[] flipped = data.clone();
+        flipped[data.length / 2] ^= 0x10;
+        assertThrows(IOException.class, () -> PlaylistSnapshot.readFrom(new ByteArrayInputStream(flipped)));
+
+        byte[] otherVersion = data.clone();
+        otherVersion[5] = (byte) (PlaylistSnapshot.FORMAT_VERSION + 1);
+        IOException e = assertThrows(IOException.class,
+                () -> PlaylistSnapshot.readFrom(new ByteArrayInputStream(otherVersion)));
+        assertTrue(e.getMessage().contains("version"));
+
+        assertThrows(IOException.class, () -> PlaylistSnapshot.readFrom(
+                new ByteArrayInputStream(PLAYLIST.getBytes(StandardCharsets.UTF_8))));
+    }
+}
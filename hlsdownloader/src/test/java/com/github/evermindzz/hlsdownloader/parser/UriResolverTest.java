@@ -0,0 +1,54 @@
+package com.github.evermindzz.hlsdownloader.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UriResolverTest {
+
+    @Test
+    void testResolveMatchesUriResolve() {
+        String[] bases = {
+                "http://example.com/vod/media.m3u8",
+                "https://user@example.com:8443/a/b/media.m3u8?token=1#frag",
+                "http://example.com/a/../b/media.m3u8",
+                "http://example.com/",
+                "http://example.com",
+                "data:application/vnd.apple.mpegurl;base64,I0VYVE0zVQ==",
+        };
+        String[] references = {
+                "segment1.ts",
+                "sub/dir/segment1.ts?x=1,2",
+                "segment1.ts#t=1",
+                "../segment1.ts",
+                "./segment1.ts",
+                "sub/../segment1.ts",
+                "/root/segment1.ts",
+                "//cdn.example.com/segment1.ts",
+                "?only=query",
+                "https://cdn.example.com/x/segment1.ts",
+                ".hidden.ts",
+        };
+        for (String base : bases) {
+            UriResolver resolver = new UriResolver(URI.create(base));
+            for (String reference : references) {
+                assertEquals(URI.create(base).resolve(reference), resolver.resolve(reference),
+                        base + " + " + reference);
+            }
+        }
+    }
+
+    @Test
+    void testPlainRelativePathDetection() {
+        assertTrue(UriResolver.isPlainRelativePath("segment1.ts"));
+        assertTrue(UriResolver.isPlainRelativePath("a/b/segment1.ts?x=../y:z"));
+        assertFalse(UriResolver.isPlainRelativePath(""));
+        assertFalse(UriResolver.isPlainRelativePath("http://example.com/segment1.ts"));
+        assertFalse(UriResolver.isPlainRelativePath("a/./segment1.ts"));
+        assertFalse(UriResolver.isPlainRelativePath("/segment1.ts"));
+    }
+}